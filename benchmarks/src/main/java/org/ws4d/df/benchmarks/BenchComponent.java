@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ws4d.df.api.comp.Component;
+import org.ws4d.df.api.comp.ComponentContext;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+
+/**
+ * Base class of the benchmark components. The ports are injected by
+ * {@link BenchDataProvider}.
+ */
+public abstract class BenchComponent implements Component {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    protected ComponentContext context;
+    private final Map<String, InPort> inPorts = new HashMap<String, InPort>();
+    private final Map<String, List<InPort>> arrayInPorts = new HashMap<String, List<InPort>>();
+    private final Map<String, OutPort> outPorts = new HashMap<String, OutPort>();
+    private final Map<String, List<OutPort>> arrayOutPorts = new HashMap<String, List<OutPort>>();
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    void setContext(ComponentContext context) {
+        this.context = context;
+    }
+
+    void setInPort(String name, InPort inPort) {
+        inPorts.put(name, inPort);
+    }
+
+    void setInPorts(String name, List<InPort> inPorts) {
+        arrayInPorts.put(name, inPorts);
+    }
+
+    void setOutPort(String name, OutPort outPort) {
+        outPorts.put(name, outPort);
+    }
+
+    void setOutPorts(String name, List<OutPort> outPorts) {
+        arrayOutPorts.put(name, outPorts);
+    }
+
+    protected InPort in(String name) {
+        return inPorts.get(name);
+    }
+
+    protected List<InPort> ins(String name) {
+        List<InPort> ports = arrayInPorts.get(name);
+        return ports != null ? ports : Collections.<InPort> emptyList();
+    }
+
+    protected OutPort out(String name) {
+        return outPorts.get(name);
+    }
+
+    protected List<OutPort> outs(String name) {
+        List<OutPort> ports = arrayOutPorts.get(name);
+        return ports != null ? ports : Collections.<OutPort> emptyList();
+    }
+
+    // -------------------------------------------------------------------------
+    // Component interface
+    // -------------------------------------------------------------------------
+
+    public void finish() {
+    }
+
+    public void reset() {
+    }
+
+    public void terminate() {
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ws4d.df.api.comp.type.ComponentType;
+import org.ws4d.df.api.comp.type.InPortType;
+import org.ws4d.df.api.comp.type.OutPortType;
+
+/**
+ * Component type of the benchmark components.
+ */
+public class BenchComponentType implements ComponentType {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final Class<?> componentClass;
+    private final boolean active;
+    private final Map<String, InPortType> singleInPorts = new HashMap<String, InPortType>();
+    private final Map<String, InPortType> arrayInPorts = new HashMap<String, InPortType>();
+    private final Map<String, OutPortType> singleOutPorts = new HashMap<String, OutPortType>();
+    private final Map<String, OutPortType> arrayOutPorts = new HashMap<String, OutPortType>();
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public BenchComponentType(Class<?> componentClass, boolean active) {
+        this.componentClass = componentClass;
+        this.active = active;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    BenchComponentType singleIn(String name) {
+        singleInPorts.put(name, new BenchPortType(name));
+        return this;
+    }
+
+    BenchComponentType arrayIn(String name) {
+        arrayInPorts.put(name, new BenchPortType(name));
+        return this;
+    }
+
+    BenchComponentType singleOut(String name) {
+        singleOutPorts.put(name, new BenchPortType(name));
+        return this;
+    }
+
+    BenchComponentType arrayOut(String name) {
+        arrayOutPorts.put(name, new BenchPortType(name));
+        return this;
+    }
+
+    // -------------------------------------------------------------------------
+    // ComponentType interface
+    // -------------------------------------------------------------------------
+
+    public String getName() {
+        return componentClass.getSimpleName();
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public Class<?> getComponentClass() {
+        return componentClass;
+    }
+
+    public Map<String, InPortType> getSingleInPorts() {
+        return singleInPorts;
+    }
+
+    public Map<String, InPortType> getArrayInPorts() {
+        return arrayInPorts;
+    }
+
+    public Map<String, OutPortType> getSingleOutPorts() {
+        return singleOutPorts;
+    }
+
+    public Map<String, OutPortType> getArrayOutPorts() {
+        return arrayOutPorts;
+    }
+}
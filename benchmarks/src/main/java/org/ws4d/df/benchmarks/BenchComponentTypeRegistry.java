@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ws4d.df.api.comp.type.ComponentType;
+import org.ws4d.df.api.comp.type.ComponentTypeRegistry;
+import org.ws4d.df.api.network.NetworkBuilder;
+
+/**
+ * Registry that knows the types of the benchmark components.
+ */
+public class BenchComponentTypeRegistry implements ComponentTypeRegistry {
+
+    private final Map<Class<?>, ComponentType> types = new HashMap<Class<?>, ComponentType>();
+
+    public BenchComponentTypeRegistry() {
+        types.put(Source.class, new BenchComponentType(Source.class, true).singleOut("out"));
+        types.put(Relay.class, new BenchComponentType(Relay.class, false).singleIn("in").singleOut("out"));
+        types.put(Sink.class, new BenchComponentType(Sink.class, false).singleIn("in"));
+        types.put(Splitter.class, new BenchComponentType(Splitter.class, false).singleIn("in").arrayOut("out"));
+        types.put(Merger.class, new BenchComponentType(Merger.class, false).arrayIn("in").singleOut("out"));
+    }
+
+    public void setNetworlBuilder(NetworkBuilder networkBuilder) {
+    }
+
+    public ComponentType get(Class<?> componentClass) {
+        ComponentType type = types.get(componentClass);
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown benchmark component " + componentClass);
+        }
+        return type;
+    }
+}
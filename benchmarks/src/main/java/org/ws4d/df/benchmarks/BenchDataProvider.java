@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.util.List;
+
+import org.ws4d.df.api.comp.Component;
+import org.ws4d.df.api.comp.ComponentContext;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.comp.type.ComponentType;
+import org.ws4d.df.api.comp.type.InPortType;
+import org.ws4d.df.api.comp.type.OutPortType;
+import org.ws4d.df.api.data.DataProvider;
+import org.ws4d.df.api.network.NetworkBuilder;
+
+/**
+ * Injects context and ports into {@link BenchComponent}s.
+ */
+public class BenchDataProvider implements DataProvider {
+
+    public void setNetworlBuilder(NetworkBuilder networkBuilder) {
+    }
+
+    public void initComponent(ComponentType type, Component component, ComponentContext context) {
+        ((BenchComponent) component).setContext(context);
+    }
+
+    public void initInPort(ComponentType type, Component component, InPortType portType, InPort inPort) {
+        ((BenchComponent) component).setInPort(portType.getName(), inPort);
+    }
+
+    public void initInPortArray(ComponentType type, Component component, InPortType portType,
+            List<InPort> inPorts) {
+        ((BenchComponent) component).setInPorts(portType.getName(), inPorts);
+    }
+
+    public void initOutPort(ComponentType type, Component component, OutPortType portType, OutPort outPort) {
+        ((BenchComponent) component).setOutPort(portType.getName(), outPort);
+    }
+
+    public void initOutPortArray(ComponentType type, Component component, OutPortType portType,
+            List<OutPort> outPorts) {
+        ((BenchComponent) component).setOutPorts(portType.getName(), outPorts);
+    }
+}
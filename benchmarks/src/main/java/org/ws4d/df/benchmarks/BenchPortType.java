@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import org.ws4d.df.api.comp.type.InPortType;
+import org.ws4d.df.api.comp.type.OutPortType;
+
+/**
+ * Port type of the benchmark components.
+ */
+public class BenchPortType implements InPortType, OutPortType {
+
+    private final String name;
+
+    public BenchPortType(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOptional() {
+        return false;
+    }
+}
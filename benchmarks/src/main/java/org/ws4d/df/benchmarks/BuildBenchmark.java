@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.api.network.NetworkBuilder;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.NetworkTemplate;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+
+/**
+ * Time needed by {@link NetworkBuilder#buildNetwork()} for large pipelines,
+ * by a compiled {@link NetworkTemplate}, for defining and building a
+ * generated pipeline from scratch and for loading and compiling a saved
+ * definition of it. The built networks are never started.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildBenchmark {
+
+    @Param({ "100", "1000", "10000", "100000" })
+    public int components;
+
+    @Param({ "1", "4" })
+    public int buildThreads;
+
+    private NetworkBuilder builder;
+    private NetworkTemplate template;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        builder = pipeline();
+        NetworkBuilderImpl compiled = (NetworkBuilderImpl) pipeline();
+        template = compiled.compile();
+        file = File.createTempFile("pipeline", ".dfnd");
+        ((NetworkBuilderImpl) builder).saveNetworkDef(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Network build() throws Exception {
+        return builder.buildNetwork();
+    }
+
+    @Benchmark
+    public Network newInstance() throws Exception {
+        return template.newInstance();
+    }
+
+    @Benchmark
+    public Network defineAndBuild() throws Exception {
+        return pipeline().buildNetwork();
+    }
+
+    @Benchmark
+    public NetworkTemplate loadAndCompile() throws Exception {
+        NetworkBuilderImpl loaded = (NetworkBuilderImpl) Networks
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        loaded.setBuildThreads(buildThreads);
+        loaded.loadNetworkDef(file);
+        return loaded.compile();
+    }
+
+    private NetworkBuilder pipeline() throws Exception {
+        NetworkBuilder pipeline = Networks.pipeline(components - 2, 1, ExecutionMode.THREAD_PER_COMPONENT);
+        ((NetworkBuilderImpl) pipeline).setBuildThreads(buildThreads);
+        return pipeline;
+    }
+}
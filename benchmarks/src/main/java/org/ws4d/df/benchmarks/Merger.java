@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import org.ws4d.df.api.comp.InPort;
+
+/**
+ * Reads the elements of its array in port round-robin, which matches the
+ * order of {@link Splitter}, and forwards every packet.
+ */
+public class Merger extends BenchComponent {
+
+    public void execute() {
+        boolean allClosed = true;
+        for (InPort inPort : ins("in")) {
+            if (!inPort.isClosed()) {
+                Object packet = inPort.receive();
+                if (packet != null) {
+                    out("out").send(packet);
+                    allClosed = false;
+                }
+            }
+        }
+        if (allClosed) {
+            out("out").close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import org.ws4d.df.NetworkFactory;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.api.network.NetworkBuilder;
+import org.ws4d.df.api.network.NetworkContext;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+
+/**
+ * Builds the network topologies used by the benchmarks.
+ */
+public final class Networks {
+
+    private Networks() {
+    }
+
+    public static NetworkBuilder newBuilder(ExecutionMode mode) {
+        NetworkBuilder builder = NetworkFactory.newNetworkBuilder(new BenchDataProvider(),
+                new BenchComponentTypeRegistry());
+        ((NetworkBuilderImpl) builder).setExecutionMode(mode);
+        return builder;
+    }
+
+    /**
+     * source -> relay 0 -> ... -> relay length-1 -> sink
+     */
+    public static NetworkBuilder pipeline(int length, int capacity, ExecutionMode mode) throws Exception {
+        NetworkBuilder builder = newBuilder(mode);
+        builder.addComponent("source", Source.class);
+        String previous = "source";
+        for (int i = 0; i < length; i++) {
+            String relay = "relay" + i;
+            builder.addComponent(relay, Relay.class);
+            builder.connect(previous, "out", relay, "in");
+            builder.setCapacity(relay, "in", capacity);
+            previous = relay;
+        }
+        builder.addComponent("sink", Sink.class);
+        builder.connect(previous, "out", "sink", "in");
+        builder.setCapacity("sink", "in", capacity);
+        return builder;
+    }
+
+    /**
+     * source -> splitter -> width relays -> merger -> sink
+     */
+    public static NetworkBuilder fanOutFanIn(int width, int capacity, ExecutionMode mode) throws Exception {
+        NetworkBuilder builder = newBuilder(mode);
+        builder.addComponent("source", Source.class);
+        builder.addComponent("splitter", Splitter.class);
+        builder.addComponent("merger", Merger.class);
+        builder.addComponent("sink", Sink.class);
+        builder.connect("source", "out", "splitter", "in");
+        builder.setCapacity("splitter", "in", capacity);
+        for (int i = 0; i < width; i++) {
+            String relay = "relay" + i;
+            builder.addComponent(relay, Relay.class);
+            builder.connect("splitter", "out", i, relay, "in");
+            builder.setCapacity(relay, "in", capacity);
+            builder.connect(relay, "out", "merger", "in", i);
+            builder.setCapacity("merger", "in", i, capacity);
+        }
+        builder.connect("merger", "out", "sink", "in");
+        builder.setCapacity("sink", "in", capacity);
+        return builder;
+    }
+
+    public static int received(Network network) {
+        Object received = ((NetworkContext) network).getNetworkProperty(Sink.RECEIVED);
+        return received != null ? ((Integer) received).intValue() : -1;
+    }
+}
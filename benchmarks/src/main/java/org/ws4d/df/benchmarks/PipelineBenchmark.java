@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+
+/**
+ * Packet throughput of a linear chain of relays. Every invocation restarts
+ * the network and pushes {@link #PACKETS} packets through it, so the score is
+ * packets per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    static final int PACKETS = 100000;
+
+    @Param({ "1", "8", "32" })
+    public int length;
+
+    @Param({ "1", "16", "256" })
+    public int capacity;
+
+    @Param({ "THREAD_PER_COMPONENT", "POOLED" })
+    public ExecutionMode executionMode;
+
+    private Network network;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        network = Networks.pipeline(length, capacity, executionMode).buildNetwork();
+        network.setRuntimeProperty(Source.PACKETS, Integer.valueOf(PACKETS));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        network.terminate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public int pipeline() throws Exception {
+        network.start();
+        return Networks.received(network);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+
+/**
+ * Latency of one start/finish/reset cycle of a built network. With zero
+ * packets this is the pure lifecycle overhead, with one packet it is the
+ * end-to-end latency of a packet through the pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestartBenchmark {
+
+    @Param({ "1", "16" })
+    public int length;
+
+    @Param({ "0", "1" })
+    public int packets;
+
+    @Param({ "THREAD_PER_COMPONENT", "POOLED" })
+    public ExecutionMode executionMode;
+
+    private Network network;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        network = Networks.pipeline(length, 1, executionMode).buildNetwork();
+        network.setRuntimeProperty(Source.PACKETS, Integer.valueOf(packets));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        network.terminate();
+    }
+
+    @Benchmark
+    public int restart() throws Exception {
+        network.start();
+        return Networks.received(network);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+/**
+ * Counts the packets it receives and publishes the count as network property
+ * {@link #RECEIVED} when it is finished.
+ */
+public class Sink extends BenchComponent {
+
+    public static final String RECEIVED = "benchmark.received";
+
+    private int received = 0;
+
+    public void execute() {
+        if (in("in").receive() != null) {
+            received++;
+        }
+    }
+
+    @Override
+    public void finish() {
+        context.setNetworkProperty(RECEIVED, Integer.valueOf(received));
+    }
+
+    @Override
+    public void reset() {
+        received = 0;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+/**
+ * Active component that sends the number of packets given by the runtime
+ * property {@link #PACKETS} and closes its out port.
+ */
+public class Source extends BenchComponent {
+
+    public static final String PACKETS = "benchmark.packets";
+
+    public void execute() {
+        Object packets = context.getRuntimeProperty(PACKETS);
+        int count = packets != null ? ((Integer) packets).intValue() : 0;
+        for (int i = 0; i < count; i++) {
+            out("out").send(Integer.valueOf(i));
+        }
+        out("out").close();
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.benchmarks;
+
+import java.util.List;
+
+import org.ws4d.df.api.comp.OutPort;
+
+/**
+ * Distributes packets round-robin over the elements of its array out port.
+ */
+public class Splitter extends BenchComponent {
+
+    private int next = 0;
+
+    public void execute() {
+        List<OutPort> outPorts = outs("out");
+        Object packet = in("in").receive();
+        if (packet != null) {
+            outPorts.get(next).send(packet);
+            next = (next + 1) % outPorts.size();
+        } else {
+            for (OutPort outPort : outPorts) {
+                outPort.close();
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        next = 0;
+    }
+}
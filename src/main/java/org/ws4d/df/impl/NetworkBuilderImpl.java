@@ -15,33 +15,29 @@
  */
 package org.ws4d.df.impl;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.File;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import org.ws4d.df.api.comp.Component;
-import org.ws4d.df.api.comp.InPort;
-import org.ws4d.df.api.comp.OutPort;
-import org.ws4d.df.api.comp.type.ComponentType;
 import org.ws4d.df.api.comp.type.ComponentTypeRegistry;
-import org.ws4d.df.api.comp.type.InPortType;
-import org.ws4d.df.api.comp.type.OutPortType;
 import org.ws4d.df.api.data.DataProvider;
 import org.ws4d.df.api.network.ConnectionValidator;
 import org.ws4d.df.api.network.Network;
 import org.ws4d.df.api.network.NetworkBuilder;
-import org.ws4d.df.impl.networkdef.ComponentDef;
-import org.ws4d.df.impl.networkdef.InPortDef;
 import org.ws4d.df.impl.networkdef.NetworkDef;
-import org.ws4d.df.impl.networkdef.OutPortDef;
-import org.ws4d.df.impl.runtime.RtComponent;
-import org.ws4d.df.impl.runtime.RtInPort;
-import org.ws4d.df.impl.runtime.RtInitPort;
+import org.ws4d.df.impl.runtime.BinaryInPort;
+import org.ws4d.df.impl.runtime.CapacityTuner;
+import org.ws4d.df.impl.runtime.ConnectionType;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+import org.ws4d.df.impl.runtime.Fusible;
+import org.ws4d.df.impl.runtime.PacketPool;
+import org.ws4d.df.impl.runtime.PacketSizes;
 import org.ws4d.df.impl.runtime.RtNetwork;
-import org.ws4d.df.impl.runtime.RtNullPort;
-import org.ws4d.df.impl.runtime.RtOutPort;
+import org.ws4d.df.impl.runtime.RtOrderedStage;
+import org.ws4d.df.impl.runtime.SizeEstimator;
+import org.ws4d.df.impl.runtime.Stateless;
+import org.ws4d.df.impl.runtime.WaitStrategy;
 
 public class NetworkBuilderImpl implements NetworkBuilder {
 
@@ -50,6 +46,8 @@ public class NetworkBuilderImpl implements NetworkBuilder {
     // -------------------------------------------------------------------------
 
     public static final int DEFAULT_CAPACITY = 10;
+    // Packet capacity of in ports bounded by a byte capacity only
+    public static final int DEFAULT_BYTE_BOUNDED_CAPACITY = 1024;
 
     // -------------------------------------------------------------------------
     // instance members
@@ -59,10 +57,19 @@ public class NetworkBuilderImpl implements NetworkBuilder {
     private DataProvider dataProvider = null;
     private ConnectionValidator connectionValidator = null;
     private ComponentTypeRegistry componentTypeRegistry = null;
-
-    // This belongs to the final network that will be started.
-    private Map<String, ComponentDef> componentDefs;
-    private Map<String, RtComponent> rtComponents;
+    private ExecutionMode executionMode = ExecutionMode.THREAD_PER_COMPONENT;
+    private boolean metricsEnabled = false;
+    private boolean fusionEnabled = false;
+    private final Map<String, Object> runtimeProperties = new HashMap<String, Object>();
+    private final Map<Class<?>, SizeEstimator> sizeEstimators = new LinkedHashMap<Class<?>, SizeEstimator>();
+    // 0 if the bytes held by the network are not bounded
+    private long networkByteCapacity = 0;
+    private boolean packetPoolEnabled = false;
+    private boolean packetPoolDebug = false;
+    // null if capacities do not adapt to the backpressure
+    private int[] adaptiveCapacity = null;
+    private long adaptiveTotalCapacity = 0;
+    private int buildThreads = 1;
 
     // -------------------------------------------------------------------------
     // constructors
@@ -109,6 +116,128 @@ public class NetworkBuilderImpl implements NetworkBuilder {
         return this.connectionValidator;
     }
 
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode != null) {
+            this.executionMode = executionMode;
+        }
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    /**
+     * Networks built with metrics enabled expose them via
+     * {@link RtNetwork#getMetrics()}.
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public boolean isMetricsEnabled() {
+        return this.metricsEnabled;
+    }
+
+    /**
+     * If enabled, {@link Fusible} components with a single connected in port
+     * are executed by the thread of the component sending to them.
+     */
+    public void setFusionEnabled(boolean fusionEnabled) {
+        this.fusionEnabled = fusionEnabled;
+    }
+
+    /**
+     * Networks built with a packet pool offer it to their components as
+     * runtime property {@link PacketPool#RUNTIME_PROPERTY}. They cannot have
+     * broadcast connections, whose receivers share packets.
+     */
+    public void setPacketPoolEnabled(boolean packetPoolEnabled) {
+        this.packetPoolEnabled = packetPoolEnabled;
+    }
+
+    public boolean isPacketPoolEnabled() {
+        return packetPoolEnabled || packetPoolDebug;
+    }
+
+    /**
+     * Enables the packet pool with leak detection, see {@link PacketPool}.
+     */
+    public void setPacketPoolDebug(boolean packetPoolDebug) {
+        this.packetPoolDebug = packetPoolDebug;
+    }
+
+    public boolean isFusionEnabled() {
+        return this.fusionEnabled;
+    }
+
+    /**
+     * Networks with many components are built by this many threads. The
+     * {@link DataProvider} must then accept calls from several threads.
+     */
+    public void setBuildThreads(int buildThreads) {
+        if (buildThreads < 1) {
+            throw new IllegalArgumentException(
+                    "build threads must be at least 1");
+        }
+        this.buildThreads = buildThreads;
+    }
+
+    public int getBuildThreads() {
+        return buildThreads;
+    }
+
+    /**
+     * Runtime properties are copied to every network built by this builder.
+     * Some of them, like {@link WaitStrategy#RUNTIME_PROPERTY}, configure the
+     * runtime itself and only take effect if set here.
+     */
+    public void setRuntimeProperty(String name, Object property) {
+        runtimeProperties.put(name, property);
+    }
+
+    public Object getRuntimeProperty(String name) {
+        return runtimeProperties.get(name);
+    }
+
+    public void setWaitStrategy(String receiverName, String inPortName,
+            WaitStrategy waitStrategy) throws Exception {
+        this.setWaitStrategy(receiverName, inPortName, -1, waitStrategy);
+    }
+
+    public void setWaitStrategy(String receiverName, String inPortName,
+            int index, WaitStrategy waitStrategy) throws Exception {
+        networkDef.setWaitStrategy(receiverName, inPortName, index,
+                waitStrategy);
+    }
+
+    Map<String, Object> getRuntimeProperties() {
+        return runtimeProperties;
+    }
+
+    Map<Class<?>, SizeEstimator> getSizeEstimators() {
+        return sizeEstimators;
+    }
+
+    long getNetworkByteCapacity() {
+        return networkByteCapacity;
+    }
+
+    boolean isPacketPoolDebug() {
+        return packetPoolDebug;
+    }
+
+    /**
+     * Returns null if capacities do not adapt to the backpressure, otherwise
+     * the minimum and maximum capacity of a port.
+     */
+    int[] getAdaptiveCapacity() {
+        return adaptiveCapacity;
+    }
+
+    long getAdaptiveTotalCapacity() {
+        return adaptiveTotalCapacity;
+    }
+
     // -------------------------------------------------------------------------
     // NetworkBuilder interface
     // -------------------------------------------------------------------------
@@ -118,6 +247,30 @@ public class NetworkBuilderImpl implements NetworkBuilder {
         networkDef.addComponent(componentName, componentClass);
     }
 
+    /**
+     * Runs the given number of instances of a passive {@link Stateless}
+     * component. Packets sent to the component over a point-to-point
+     * connection are distributed round-robin to the instances, over a
+     * hash-partitioned connection by key. Broadcast connections are rejected.
+     * All instances send to the receivers of the component. The order of the
+     * packets is not kept.
+     */
+    public void setParallelism(String componentName, int parallelism)
+            throws Exception {
+        this.setParallelism(componentName, parallelism, false);
+    }
+
+    /**
+     * Like {@link #setParallelism(String, int)}. If ordered, the instances
+     * form a stage that emits their results in the order of the input
+     * packets, see {@link RtOrderedStage}. The component then needs one
+     * single in port with one sender and one single out port.
+     */
+    public void setParallelism(String componentName, int parallelism,
+            boolean ordered) throws Exception {
+        networkDef.setParallelism(componentName, parallelism, ordered);
+    }
+
     public void setCapacity(String receiverName, String inPortName, int capacity)
             throws Exception {
         this.setCapacity(receiverName, inPortName, -1, capacity);
@@ -128,6 +281,94 @@ public class NetworkBuilderImpl implements NetworkBuilder {
         networkDef.setCapacity(receiverName, inPortName, index, capacity);
     }
 
+    /**
+     * Bounds the bytes held by the packets queued in an in port instead of
+     * their number. Sizes are estimated by the {@link SizeEstimator} of the
+     * packet type. Unless a capacity is set as well, up to
+     * {@link #DEFAULT_BYTE_BOUNDED_CAPACITY} packets may be queued.
+     */
+    public void setByteCapacity(String receiverName, String inPortName,
+            long byteCapacity) throws Exception {
+        this.setByteCapacity(receiverName, inPortName, -1, byteCapacity);
+    }
+
+    public void setByteCapacity(String receiverName, String inPortName,
+            int index, long byteCapacity) throws Exception {
+        networkDef.setByteCapacity(receiverName, inPortName, index,
+                byteCapacity);
+    }
+
+    /**
+     * Lets an out port collect up to batchSize packets and hand them to its
+     * in port in one step. A batch is flushed when it is full, when its
+     * oldest packet has waited flushMicros (0 for no time limit) and when the
+     * port is closed. Only for point-to-point connections into plain in
+     * ports; a fused receiver gets the packets unbatched.
+     */
+    public void setBatching(String senderName, String outPortName,
+            int batchSize, long flushMicros) throws Exception {
+        this.setBatching(senderName, outPortName, -1, batchSize, flushMicros);
+    }
+
+    public void setBatching(String senderName, String outPortName, int index,
+            int batchSize, long flushMicros) throws Exception {
+        networkDef.setBatching(senderName, outPortName, index, batchSize,
+                flushMicros);
+    }
+
+    /**
+     * Declares the connection into an in port as binary. Its byte[] and
+     * ByteBuffer packets are copied into an off-heap ring of the given size,
+     * and the receiver gets ByteBuffer views that it must release through
+     * {@link BinaryInPort#release(java.nio.ByteBuffer)}. Unless a capacity is
+     * set as well, up to {@link #DEFAULT_BYTE_BOUNDED_CAPACITY} packets may be
+     * queued or held.
+     */
+    public void setBinaryCapacity(String receiverName, String inPortName,
+            int binaryCapacity) throws Exception {
+        this.setBinaryCapacity(receiverName, inPortName, -1, binaryCapacity);
+    }
+
+    public void setBinaryCapacity(String receiverName, String inPortName,
+            int index, int binaryCapacity) throws Exception {
+        networkDef.setBinaryCapacity(receiverName, inPortName, index,
+                binaryCapacity);
+    }
+
+    /**
+     * Bounds the bytes held by the packets queued in all in ports of the
+     * network. A packet for an empty in port is always admitted.
+     */
+    public void setNetworkByteCapacity(long networkByteCapacity) {
+        this.networkByteCapacity = networkByteCapacity;
+    }
+
+    /**
+     * Lets the capacity of every in port without an explicitly set capacity
+     * or byte capacity adapt to the observed backpressure, see
+     * {@link CapacityTuner}.
+     * 
+     * @param totalCapacity bound of the summed capacities of these in ports,
+     *            0 for none
+     */
+    public void setAdaptiveCapacity(int minCapacity, int maxCapacity,
+            long totalCapacity) {
+        if (minCapacity < 1 || maxCapacity < minCapacity) {
+            throw new IllegalArgumentException("invalid capacity range: "
+                    + minCapacity + ".." + maxCapacity);
+        }
+        this.adaptiveCapacity = new int[] { minCapacity, maxCapacity };
+        this.adaptiveTotalCapacity = totalCapacity;
+    }
+
+    /**
+     * Sets the estimator for packets of the given type and its subtypes, see
+     * {@link PacketSizes}.
+     */
+    public void setSizeEstimator(Class<?> packetType, SizeEstimator estimator) {
+        sizeEstimators.put(packetType, estimator);
+    }
+
     public void initialize(String receiverName, String inPortName, Object packet)
             throws Exception {
         this.initialize(receiverName, inPortName, -1, packet, false);
@@ -174,247 +415,66 @@ public class NetworkBuilderImpl implements NetworkBuilder {
                 inPortName, inIndex);
     }
 
+    /**
+     * Connects an out port with the given connection type. Connecting the
+     * same out port again with an equal {@link ConnectionType} other than
+     * {@link ConnectionType#POINT_TO_POINT} adds another in port it delivers
+     * to.
+     */
+    public void connect(String senderName, String outPortName,
+            String receiverName, String inPortName,
+            ConnectionType connectionType) throws Exception {
+        this.connect(senderName, outPortName, -1, receiverName, inPortName,
+                -1, connectionType);
+    }
+
+    public void connect(String senderName, String outPortName, int outIndex,
+            String receiverName, String inPortName, int inIndex,
+            ConnectionType connectionType) throws Exception {
+        networkDef.connect(senderName, outPortName, outIndex, receiverName,
+                inPortName, inIndex, connectionType);
+    }
+
     public Network buildNetwork() throws Exception {
+        networkDef.expandParallelism();
         networkDef.validate();
-        componentDefs = networkDef.getComponentDefs();
-        RtNetwork rtNetwork = new RtNetwork(String.valueOf(System
-                .currentTimeMillis()));
-        createRtComponents(rtNetwork);
-        rtNetwork.setRtComponents(rtComponents);
-        createInPorts();
-        createOutPorts();
-        return rtNetwork;
+        return new NetworkTemplate(this, networkDef.getComponentDefs()
+                .values()).newInstance();
     }
 
     // -------------------------------------------------------------------------
-    // private
+    // methods
     // -------------------------------------------------------------------------
 
-    private void createRtComponents(RtNetwork rtNetwork) throws Exception {
-        rtComponents = new HashMap<String, RtComponent>();
-        for (ComponentDef componentDef : componentDefs.values()) {
-            String componentId = componentDef.getId();
-
-            ComponentType componentType = componentDef.getComponentType();
-            Component component = (Component) componentType.getComponentClass()
-                    .getConstructor().newInstance();
-
-            RtComponent rtComponent = new RtComponent(rtNetwork, componentId,
-                    component, componentType);
-
-            dataProvider.initComponent(componentType, component, rtComponent);
-
-            rtComponents.put(componentId, rtComponent);
-        }
+    /**
+     * Validates the network definition once and returns a template creating
+     * networks from it. The definition cannot be changed afterwards, the
+     * other settings of this builder are copied to the template.
+     */
+    public NetworkTemplate compile() throws Exception {
+        networkDef.expandParallelism();
+        networkDef.validate();
+        networkDef.freeze();
+        return new NetworkTemplate(this, networkDef.getComponentDefs()
+                .values());
     }
 
-    private void createInPorts() throws Exception {
-        for (ComponentDef componentDef : componentDefs.values()) {
-
-            RtComponent rtComponent = rtComponents.get(componentDef.getId());
-
-            // single in ports
-            Map<String, InPortDef> connectedSingleIns = componentDef
-                    .getConnectedSingleInDefs();
-            if (connectedSingleIns != null) {
-                for (InPortDef inPortDef : connectedSingleIns.values()) {
-
-                    InPort inPort;
-                    String inPortName = inPortDef.getName();
-
-                    if (inPortDef.isInitializer()) {
-                        inPort = new RtInitPort(inPortName, rtComponent, -1,
-                                inPortDef.getInitPacket(), inPortDef.isStatic());
-                    } else {
-                        inPort = new RtInPort(inPortName, rtComponent, -1,
-                                inPortDef.getCapacity());
-                    }
-
-                    dataProvider.initInPort(componentDef.getComponentType(),
-                            rtComponent.getComponent(),
-                            inPortDef.getPortType(), inPort);
-
-                    rtComponent.addInPort(inPortName, inPort);
-                }
-            }
-
-            // initialize free single in ports
-            for (InPortType inPortType : componentDef.getFreeSingleInDefs()
-                    .values()) {
-                String inPortName = inPortType.getName();
-                InPort inPort = new RtNullPort(inPortName, rtComponent, -1);
-
-                dataProvider.initInPort(componentDef.getComponentType(),
-                        rtComponent.getComponent(), inPortType, inPort);
-
-                rtComponent.addInPort(inPortName, inPort);
-            }
-
-            // ArrayInPorts
-            Map<String, Map<Integer, InPortDef>> connectedArrayIns = componentDef
-                    .getConnectedArrayInDefs();
-            if (connectedArrayIns != null) {
-                for (Map<Integer, InPortDef> inPortDefs : connectedArrayIns
-                        .values()) {
-                    InPortType inPortType = null;
-                    String inPortName = null;
-
-                    List<InPort> inPorts = new ArrayList<InPort>();
-                    for (int i = 0; i < inPortDefs.size(); i++) {
-                        inPorts.add(i, null);
-                    }
-
-                    for (InPortDef inPortDef : inPortDefs.values()) {
-
-                        int index = inPortDef.getIndex();
-                        if (inPortType == null) {
-                            inPortType = inPortDef.getPortType();
-                            inPortName = inPortDef.getName();
-                        }
-
-                        InPort inPort;
-                        if (inPortDef.isInitializer()) {
-                            inPort = new RtInitPort(inPortName, rtComponent,
-                                    index, inPortDef.getInitPacket(),
-                                    inPortDef.isStatic());
-                        } else {
-                            inPort = new RtInPort(inPortName, rtComponent,
-                                    index, inPortDef.getCapacity());
-                        }
-                        inPorts.set(index, inPort);
-                    }
-
-                    dataProvider.initInPortArray(
-                            componentDef.getComponentType(),
-                            rtComponent.getComponent(), inPortType, inPorts);
-                    rtComponent.addInPorts(inPortName, inPorts);
-                }
-            }
-
-            // initialize free inPortArrays
-            for (InPortType inPort : componentDef.getFreeArrayInDefs().values()) {
-                List<InPort> inPorts = Collections.emptyList();
-
-                dataProvider.initInPortArray(componentDef.getComponentType(),
-                        rtComponent.getComponent(), inPort, inPorts);
-
-                rtComponent.addInPorts(inPort.getName(), inPorts);
-            }
-        }
+    /**
+     * Writes the network definition to a binary file, see
+     * {@link org.ws4d.df.impl.networkdef.NetworkDefFile}.
+     */
+    public void saveNetworkDef(File file) throws Exception {
+        networkDef.validate();
+        networkDef.save(file);
     }
 
-    private void createOutPorts() throws Exception {
-        for (ComponentDef componentDef : componentDefs.values()) {
-
-            RtComponent rtComponent = rtComponents.get(componentDef.getId());
-
-            Map<String, OutPortDef> connectedSingleOuts = componentDef
-                    .getConnectedSingleOutDefs();
-            if (connectedSingleOuts != null) {
-                for (OutPortDef outPortDef : connectedSingleOuts.values()) {
-
-                    String outPortName = outPortDef.getName();
-                    RtComponent receiver = rtComponents.get(outPortDef
-                            .getReceiverName());
-
-                    // TODO replace with method
-                    RtInPort rtInPort;
-                    if (outPortDef.getInIndex() == -1) {
-                        rtInPort = (RtInPort) receiver.getInPort(outPortDef
-                                .getInPortName());
-                    } else {
-                        rtInPort = (RtInPort) receiver.getInPorts(
-                                outPortDef.getInPortName()).get(
-                                outPortDef.getInIndex());
-                    }
-
-                    RtOutPort rtOutPort = new RtOutPort(outPortName,
-                            rtComponent, -1, rtInPort);
-
-                    rtInPort.setRtOutPort(rtOutPort);
-
-                    dataProvider.initOutPort(componentDef.getComponentType(),
-                            rtComponent.getComponent(),
-                            outPortDef.getPortType(), rtOutPort);
-
-                    rtComponent.addOutPort(outPortName, rtOutPort);
-                }
-            }
-
-            // initialize free single out ports
-            for (OutPortType outPortType : componentDef.getFreeSingleOutDefs()
-                    .values()) {
-
-                String outPortName = outPortType.getName();
-                OutPort outPort = new RtNullPort(outPortName, rtComponent, -1);
-
-                dataProvider.initOutPort(componentDef.getComponentType(),
-                        rtComponent.getComponent(), outPortType, outPort);
-
-                rtComponent.addOutPort(outPortName, outPort);
-            }
-
-            // ArrayOutPorts
-            Map<String, Map<Integer, OutPortDef>> connectedArrayOuts = componentDef
-                    .getConnectedArrayOutDefs();
-            if (connectedArrayOuts != null) {
-                for (Map<Integer, OutPortDef> outPortDefs : connectedArrayOuts
-                        .values()) {
-                    OutPortType outPortType = null;
-                    String outPortName = null;
-
-                    List<OutPort> outPorts = new ArrayList<OutPort>();
-                    for (int i = 0; i < outPortDefs.size(); i++) {
-                        outPorts.add(i, null);
-                    }
-
-                    for (OutPortDef outPortDef : outPortDefs.values()) {
-
-                        int index = outPortDef.getIndex();
-                        if (outPortType == null) {
-                            outPortType = outPortDef.getPortType();
-                            outPortName = outPortDef.getName();
-                        }
-
-                        RtComponent receiver = rtComponents.get(outPortDef
-                                .getReceiverName());
-
-                        // TODO replace with method
-                        RtInPort rtInPort;
-                        if (outPortDef.getInIndex() == -1) {
-                            rtInPort = (RtInPort) receiver.getInPort(outPortDef
-                                    .getInPortName());
-                        } else {
-                            rtInPort = (RtInPort) receiver.getInPorts(
-                                    outPortDef.getInPortName()).get(
-                                    outPortDef.getInIndex());
-                        }
-
-                        RtOutPort rtOutPort = new RtOutPort(outPortName,
-                                rtComponent, index, rtInPort);
-
-                        rtInPort.setRtOutPort(rtOutPort);
-                        outPorts.set(index, rtOutPort);
-                    }
-
-                    dataProvider.initOutPortArray(
-                            componentDef.getComponentType(),
-                            rtComponent.getComponent(), outPortType, outPorts);
-
-                    rtComponent.addOutPorts(outPortName, outPorts);
-                }
-            }
-
-            // initialize all free outPortArrays
-            for (OutPortType outPortType : componentDef.getFreeArrayOutDefs()
-                    .values()) {
-                List<OutPort> outPorts = Collections.emptyList();
-
-                dataProvider.initOutPortArray(componentDef.getComponentType(),
-                        rtComponent.getComponent(), outPortType, outPorts);
-
-                rtComponent.addOutPorts(outPortType.getName(), outPorts);
-            }
-        }
+    /**
+     * Loads a network definition written by {@link #saveNetworkDef(File)}
+     * into this builder, which must not have components yet. The definition
+     * is not validated again, so it can be compiled right away. The file
+     * must come from a trusted source, it holds serialized objects.
+     */
+    public void loadNetworkDef(File file) throws Exception {
+        networkDef.load(file);
     }
 }
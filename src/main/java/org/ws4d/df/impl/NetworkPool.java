@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.api.network.NetworkState;
+import org.ws4d.df.impl.runtime.RtNetwork;
+
+/**
+ * Keeps up to a fixed number of idle networks of one template. Acquired
+ * networks are run with {@link Network#start()} and handed back with
+ * {@link #release(Network)}, which resets them, so their component threads
+ * and ports are reused by the next caller.
+ */
+public class NetworkPool {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final NetworkTemplate template;
+    private final int maxIdle;
+    private final Deque<RtNetwork> idle = new ArrayDeque<RtNetwork>();
+    private boolean closed = false;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public NetworkPool(NetworkTemplate template, int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be negative");
+        }
+        this.template = template;
+        this.maxIdle = maxIdle;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public NetworkTemplate getTemplate() {
+        return template;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Creates idle networks until the pool holds the given number of them.
+     */
+    public void prefill(int count) throws Exception {
+        while (getIdleCount() < Math.min(count, maxIdle)) {
+            if (!offer((RtNetwork) template.newInstance())) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns an idle network or a new one if the pool is empty.
+     */
+    public Network acquire() throws Exception {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The pool is closed.");
+            }
+            RtNetwork network = idle.pollFirst();
+            if (network != null) {
+                return network;
+            }
+        }
+        return template.newInstance();
+    }
+
+    /**
+     * Resets the network and keeps it for the next caller. Networks that
+     * have been terminated or run with {@link Network#startAndTerminate()}
+     * are dropped. Networks that are still started, because they are running
+     * or their last run failed, are terminated, as are surplus networks. A
+     * run in progress then returns.
+     */
+    public void release(Network network) {
+        RtNetwork rtNetwork = (RtNetwork) network;
+        NetworkState state = rtNetwork.getState();
+        if (state == NetworkState.TERMINATED || rtNetwork.isOneTimeMode()) {
+            return;
+        }
+        if (state == NetworkState.RESETTED) {
+            rtNetwork.reset();
+        } else if (state != NetworkState.INITIALIZED) {
+            rtNetwork.terminate();
+            return;
+        }
+        offer(rtNetwork);
+    }
+
+    /**
+     * Terminates all idle networks. Networks released afterwards are
+     * terminated as well.
+     */
+    public void close() {
+        Deque<RtNetwork> networks;
+        synchronized (this) {
+            closed = true;
+            networks = new ArrayDeque<RtNetwork>(idle);
+            idle.clear();
+        }
+        for (RtNetwork network : networks) {
+            network.terminate();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Terminates the network if the pool is full or closed.
+     */
+    private boolean offer(RtNetwork network) {
+        synchronized (this) {
+            if (!closed && idle.size() < maxIdle) {
+                idle.offerFirst(network);
+                return true;
+            }
+        }
+        network.terminate();
+        return false;
+    }
+}
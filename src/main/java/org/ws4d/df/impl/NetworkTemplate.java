@@ -0,0 +1,615 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ws4d.df.api.comp.Component;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.comp.type.ComponentType;
+import org.ws4d.df.api.comp.type.InPortType;
+import org.ws4d.df.api.comp.type.OutPortType;
+import org.ws4d.df.api.data.DataProvider;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.networkdef.ComponentDef;
+import org.ws4d.df.impl.networkdef.InPortDef;
+import org.ws4d.df.impl.networkdef.OutPortDef;
+import org.ws4d.df.impl.networkdef.PortDefArray;
+import org.ws4d.df.impl.runtime.CapacityTuner;
+import org.ws4d.df.impl.runtime.ConnectionType;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+import org.ws4d.df.impl.runtime.Fusible;
+import org.ws4d.df.impl.runtime.PacketPool;
+import org.ws4d.df.impl.runtime.RtBatchingOutPort;
+import org.ws4d.df.impl.runtime.RtBinaryInPort;
+import org.ws4d.df.impl.runtime.RtComponent;
+import org.ws4d.df.impl.runtime.RtFanOutPort;
+import org.ws4d.df.impl.runtime.RtFusedInPort;
+import org.ws4d.df.impl.runtime.RtInPort;
+import org.ws4d.df.impl.runtime.RtInitPort;
+import org.ws4d.df.impl.runtime.RtNetwork;
+import org.ws4d.df.impl.runtime.RtNullPort;
+import org.ws4d.df.impl.runtime.RtOrderedInPort;
+import org.ws4d.df.impl.runtime.RtOrderedOutPort;
+import org.ws4d.df.impl.runtime.RtOrderedStage;
+import org.ws4d.df.impl.runtime.RtOutPort;
+import org.ws4d.df.impl.runtime.RtPrimitiveInPort;
+import org.ws4d.df.impl.runtime.RtPrimitiveOutPort;
+import org.ws4d.df.impl.runtime.SizeEstimator;
+import org.ws4d.df.impl.runtime.WaitStrategy;
+
+/**
+ * A validated network definition together with the settings of the builder
+ * it was compiled by. Every call of {@link #newInstance()} creates a new
+ * network without validating the definition or resolving the component
+ * classes again.
+ * 
+ * @see NetworkBuilderImpl#compile()
+ * @see NetworkPool
+ */
+public class NetworkTemplate {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    // below this many components the build threads are not worth starting
+    private static final int PARALLEL_BUILD_THRESHOLD = 1024;
+    // slices per build thread, evens out components with many ports
+    private static final int SLICES_PER_THREAD = 4;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final ComponentDef[] componentDefs;
+    private final Constructor<?>[] constructors;
+    // ids of the components executed by the thread sending to them
+    private final Set<String> fusedComponents = new HashSet<String>();
+
+    // copied from the builder
+    private final DataProvider dataProvider;
+    private final ExecutionMode executionMode;
+    private final boolean metricsEnabled;
+    private final Map<String, Object> runtimeProperties;
+    private final Map<Class<?>, SizeEstimator> sizeEstimators;
+    private final long networkByteCapacity;
+    private final boolean packetPoolEnabled;
+    private final boolean packetPoolDebug;
+    private final int[] adaptiveCapacity;
+    private final long adaptiveTotalCapacity;
+    private final int buildThreads;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    /**
+     * The definitions must be expanded and validated.
+     */
+    NetworkTemplate(NetworkBuilderImpl builder,
+            Collection<ComponentDef> componentDefs) throws Exception {
+        this.componentDefs = componentDefs
+                .toArray(new ComponentDef[componentDefs.size()]);
+        constructors = new Constructor<?>[this.componentDefs.length];
+        for (int i = 0; i < this.componentDefs.length; i++) {
+            ComponentDef componentDef = this.componentDefs[i];
+            constructors[i] = componentDef.getComponentType()
+                    .getComponentClass().getConstructor();
+            if (builder.isFusionEnabled() && isFusible(componentDef)) {
+                fusedComponents.add(componentDef.getId());
+            }
+            if (builder.isPacketPoolEnabled()) {
+                assertExclusivePackets(componentDef);
+            }
+        }
+
+        dataProvider = builder.getDataProvider();
+        executionMode = builder.getExecutionMode();
+        metricsEnabled = builder.isMetricsEnabled();
+        runtimeProperties = new HashMap<String, Object>(
+                builder.getRuntimeProperties());
+        sizeEstimators = new LinkedHashMap<Class<?>, SizeEstimator>(
+                builder.getSizeEstimators());
+        networkByteCapacity = builder.getNetworkByteCapacity();
+        packetPoolEnabled = builder.isPacketPoolEnabled();
+        packetPoolDebug = builder.isPacketPoolDebug();
+        adaptiveCapacity = builder.getAdaptiveCapacity();
+        adaptiveTotalCapacity = builder.getAdaptiveTotalCapacity();
+        buildThreads = builder.getBuildThreads();
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public Network newInstance() throws Exception {
+        RtNetwork rtNetwork = new RtNetwork(String.valueOf(System
+                .currentTimeMillis()), executionMode);
+        rtNetwork.getRuntimeProperties().putAll(runtimeProperties);
+        rtNetwork.setWaitStrategy(WaitStrategy.fromProperty(runtimeProperties
+                .get(WaitStrategy.RUNTIME_PROPERTY)));
+        if (metricsEnabled) {
+            rtNetwork.enableMetrics();
+        }
+        for (Map.Entry<Class<?>, SizeEstimator> entry : sizeEstimators
+                .entrySet()) {
+            rtNetwork.getPacketSizes().register(entry.getKey(),
+                    entry.getValue());
+        }
+        if (networkByteCapacity > 0) {
+            rtNetwork.setByteCapacity(networkByteCapacity);
+        }
+        if (packetPoolEnabled) {
+            rtNetwork.setPacketPool(new PacketPool(
+                    PacketPool.DEFAULT_MAX_POOLED, packetPoolDebug));
+        }
+        if (adaptiveCapacity != null) {
+            rtNetwork.setCapacityTuner(new CapacityTuner(adaptiveCapacity[0],
+                    adaptiveCapacity[1], adaptiveTotalCapacity));
+        }
+        if (buildThreads > 1
+                && componentDefs.length >= PARALLEL_BUILD_THRESHOLD) {
+            ExecutorService executor = Executors
+                    .newFixedThreadPool(buildThreads);
+            try {
+                build(rtNetwork, executor);
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            build(rtNetwork, null);
+        }
+        return rtNetwork;
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void createOrderedStages(RtNetwork rtNetwork,
+            Map<String, RtComponent> rtComponents) {
+        for (ComponentDef componentDef : componentDefs) {
+            if (!componentDef.isOrdered() || componentDef.getReplicas() == null) {
+                continue;
+            }
+            List<ComponentDef> replicas = componentDef.getReplicas();
+            RtOrderedStage stage = new RtOrderedStage(rtNetwork,
+                    componentDef.getId(), replicas.size() + 1,
+                    RtOrderedStage.DEFAULT_WINDOW);
+            rtComponents.get(componentDef.getId()).setOrderedStage(stage, 0);
+            for (int i = 0; i < replicas.size(); i++) {
+                rtComponents.get(replicas.get(i).getId()).setOrderedStage(
+                        stage, i + 1);
+            }
+        }
+    }
+
+    private RtInPort createRtInPort(InPortDef inPortDef, RtComponent rtComponent) {
+        RtInPort rtInPort;
+        if (rtComponent.getOrderedStage() != null) {
+            rtInPort = new RtOrderedInPort(inPortDef.getName(), rtComponent,
+                    inPortDef.getIndex(), inPortDef.getCapacity(),
+                    inPortDef.getSenderCount(), rtComponent.getOrderedStage(),
+                    rtComponent.getOrderedWorker());
+        } else if (inPortDef.getPrimitiveType() != null) {
+            rtInPort = new RtPrimitiveInPort(inPortDef.getName(), rtComponent,
+                    inPortDef.getIndex(), inPortDef.getCapacity(),
+                    inPortDef.getPrimitiveType());
+        } else if (inPortDef.isBinary()) {
+            rtInPort = new RtBinaryInPort(inPortDef.getName(), rtComponent,
+                    inPortDef.getIndex(), inPortDef.getCapacity(),
+                    inPortDef.getBinaryCapacity());
+        } else {
+            rtInPort = new RtInPort(inPortDef.getName(), rtComponent,
+                    inPortDef.getIndex(), inPortDef.getCapacity(),
+                    inPortDef.getSenderCount());
+        }
+        if (inPortDef.getWaitStrategy() != null) {
+            rtInPort.setWaitStrategy(inPortDef.getWaitStrategy());
+        }
+        if (inPortDef.getByteCapacity() > 0) {
+            rtInPort.setByteCapacity(inPortDef.getByteCapacity());
+        } else if (!inPortDef.isCapacitySet() && !inPortDef.isBinary()
+                && inPortDef.getPrimitiveType() == null
+                && rtComponent.getRtNetwork().getCapacityTuner() != null) {
+            rtInPort.setAdaptiveCapacity(rtComponent.getRtNetwork()
+                    .getCapacityTuner());
+        }
+        return rtInPort;
+    }
+
+    /**
+     * Queued packets are returned to the packet pool when an in port is reset
+     * or closed, so no packet may be queued at several in ports.
+     */
+    private static void assertExclusivePackets(ComponentDef componentDef)
+            throws Exception {
+        for (OutPortDef outPortDef : componentDef.getConnectedOutDefs()) {
+            ConnectionType.Kind kind = outPortDef.getConnectionType()
+                    .getKind();
+            if (kind == ConnectionType.Kind.BROADCAST) {
+                throw new Exception(
+                        "packet pool cannot be used with broadcast connections, sender="
+                                + componentDef.getId() + ", port="
+                                + outPortDef.getName());
+            }
+        }
+    }
+
+    private boolean isFusible(ComponentDef componentDef) {
+        ComponentType componentType = componentDef.getComponentType();
+        // Replicas must run on threads of their own.
+        if (componentType.isActive() || componentDef.isReplicated()
+                || !componentType.getComponentClass().isAnnotationPresent(
+                        Fusible.class)) {
+            return false;
+        }
+        if (componentDef.getConnectedArrayInDefs() != null
+                && !componentDef.getConnectedArrayInDefs().isEmpty()) {
+            return false;
+        }
+        Map<String, InPortDef> connectedSingleIns = componentDef
+                .getConnectedSingleInDefs();
+        if (connectedSingleIns == null) {
+            return false;
+        }
+        // Initializers never block, so only the connected in ports count.
+        // Each of them may be fed by several senders. Binary packets must be
+        // copied into their ring, primitive values need their port.
+        int senders = 0;
+        for (InPortDef inPortDef : connectedSingleIns.values()) {
+            if (inPortDef.isBinary() || inPortDef.getPrimitiveType() != null) {
+                return false;
+            }
+            senders += inPortDef.getSenderCount();
+        }
+        return senders == 1;
+    }
+
+    /**
+     * Creates the components and their ports. Every step is done for all
+     * components before the next one starts, the steps are split into slices
+     * of components if an executor is given.
+     */
+    private void build(final RtNetwork rtNetwork, ExecutorService executor)
+            throws Exception {
+        final RtComponent[] rtComponentArray = new RtComponent[componentDefs.length];
+        forEachComponent(executor, new ComponentStep() {
+            void run(int i) throws Exception {
+                rtComponentArray[i] = createRtComponent(rtNetwork, i);
+            }
+        });
+
+        final Map<String, RtComponent> rtComponents = new HashMap<String, RtComponent>(
+                componentDefs.length * 2);
+        for (int i = 0; i < componentDefs.length; i++) {
+            rtComponents.put(componentDefs[i].getId(), rtComponentArray[i]);
+        }
+        createOrderedStages(rtNetwork, rtComponents);
+        rtNetwork.setRtComponents(rtComponents);
+
+        forEachComponent(executor, new ComponentStep() {
+            void run(int i) throws Exception {
+                createInPorts(componentDefs[i], rtComponentArray[i]);
+            }
+        });
+        // Out ports look up the in ports of their receivers.
+        forEachComponent(executor, new ComponentStep() {
+            void run(int i) throws Exception {
+                createOutPorts(componentDefs[i], rtComponentArray[i],
+                        rtComponents);
+            }
+        });
+        forEachComponent(executor, new ComponentStep() {
+            void run(int i) {
+                rtComponentArray[i].freezePorts();
+            }
+        });
+    }
+
+    private void forEachComponent(ExecutorService executor,
+            final ComponentStep step) throws Exception {
+        if (executor == null) {
+            for (int i = 0; i < componentDefs.length; i++) {
+                step.run(i);
+            }
+            return;
+        }
+        int sliceSize = Math.max(1, componentDefs.length
+                / (buildThreads * SLICES_PER_THREAD));
+        List<Future<?>> slices = new ArrayList<Future<?>>();
+        for (int from = 0; from < componentDefs.length; from += sliceSize) {
+            final int sliceFrom = from;
+            final int sliceTo = Math.min(from + sliceSize, componentDefs.length);
+            slices.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = sliceFrom; i < sliceTo; i++) {
+                        step.run(i);
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> slice : slices) {
+                slice.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> slice : slices) {
+                slice.cancel(false);
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    private RtComponent createRtComponent(RtNetwork rtNetwork, int i)
+            throws Exception {
+        ComponentDef componentDef = componentDefs[i];
+        ComponentType componentType = componentDef.getComponentType();
+        Component component = (Component) constructors[i].newInstance();
+
+        RtComponent rtComponent = new RtComponent(rtNetwork,
+                componentDef.getId(), component, componentType);
+
+        dataProvider.initComponent(componentType, component, rtComponent);
+        return rtComponent;
+    }
+
+    private void createInPorts(ComponentDef componentDef,
+            RtComponent rtComponent) throws Exception {
+        // single in ports
+        Map<String, InPortDef> connectedSingleIns = componentDef
+                .getConnectedSingleInDefs();
+        if (connectedSingleIns != null) {
+            for (InPortDef inPortDef : connectedSingleIns.values()) {
+
+                InPort inPort;
+                String inPortName = inPortDef.getName();
+
+                if (inPortDef.isInitializer()) {
+                    inPort = new RtInitPort(inPortName, rtComponent, -1,
+                            inPortDef.getInitPacket(), inPortDef.isStatic());
+                } else if (fusedComponents.contains(componentDef.getId())) {
+                    inPort = new RtFusedInPort(inPortName, rtComponent, -1);
+                } else {
+                    inPort = createRtInPort(inPortDef, rtComponent);
+                }
+
+                dataProvider.initInPort(componentDef.getComponentType(),
+                        rtComponent.getComponent(),
+                        inPortDef.getPortType(), inPort);
+
+                rtComponent.addInPort(inPortName, inPort);
+            }
+        }
+
+        // initialize free single in ports
+        for (InPortType inPortType : componentDef.getFreeSingleInDefs()
+                .values()) {
+            String inPortName = inPortType.getName();
+            InPort inPort = new RtNullPort(inPortName, rtComponent, -1);
+
+            dataProvider.initInPort(componentDef.getComponentType(),
+                    rtComponent.getComponent(), inPortType, inPort);
+
+            rtComponent.addInPort(inPortName, inPort);
+        }
+
+        // ArrayInPorts
+        Map<String, PortDefArray<InPortDef>> connectedArrayIns = componentDef
+                .getConnectedArrayInDefs();
+        if (connectedArrayIns != null) {
+            for (PortDefArray<InPortDef> inPortDefs : connectedArrayIns
+                    .values()) {
+                InPortType inPortType = null;
+                String inPortName = null;
+
+                // validated to have no gaps
+                List<InPort> inPorts = new ArrayList<InPort>(
+                        Collections.<InPort> nCopies(inPortDefs.length(),
+                                null));
+
+                for (InPortDef inPortDef : inPortDefs) {
+
+                    int index = inPortDef.getIndex();
+                    if (inPortType == null) {
+                        inPortType = inPortDef.getPortType();
+                        inPortName = inPortDef.getName();
+                    }
+
+                    InPort inPort;
+                    if (inPortDef.isInitializer()) {
+                        inPort = new RtInitPort(inPortName, rtComponent,
+                                index, inPortDef.getInitPacket(),
+                                inPortDef.isStatic());
+                    } else {
+                        inPort = createRtInPort(inPortDef, rtComponent);
+                    }
+                    inPorts.set(index, inPort);
+                }
+
+                dataProvider.initInPortArray(
+                        componentDef.getComponentType(),
+                        rtComponent.getComponent(), inPortType, inPorts);
+                rtComponent.addInPorts(inPortName, inPorts);
+            }
+        }
+
+        // initialize free inPortArrays
+        for (InPortType inPort : componentDef.getFreeArrayInDefs().values()) {
+            List<InPort> inPorts = Collections.emptyList();
+
+            dataProvider.initInPortArray(componentDef.getComponentType(),
+                    rtComponent.getComponent(), inPort, inPorts);
+
+            rtComponent.addInPorts(inPort.getName(), inPorts);
+        }
+    }
+
+    private void createOutPorts(ComponentDef componentDef,
+            RtComponent rtComponent, Map<String, RtComponent> rtComponents)
+            throws Exception {
+        Map<String, OutPortDef> connectedSingleOuts = componentDef
+                .getConnectedSingleOutDefs();
+        if (connectedSingleOuts != null) {
+            for (OutPortDef outPortDef : connectedSingleOuts.values()) {
+
+                String outPortName = outPortDef.getName();
+                RtOutPort rtOutPort = createRtOutPort(outPortDef,
+                        rtComponent, -1, rtComponents);
+
+                dataProvider.initOutPort(componentDef.getComponentType(),
+                        rtComponent.getComponent(),
+                        outPortDef.getPortType(), rtOutPort);
+
+                rtComponent.addOutPort(outPortName, rtOutPort);
+            }
+        }
+
+        // initialize free single out ports
+        for (OutPortType outPortType : componentDef.getFreeSingleOutDefs()
+                .values()) {
+
+            String outPortName = outPortType.getName();
+            OutPort outPort = new RtNullPort(outPortName, rtComponent, -1);
+
+            dataProvider.initOutPort(componentDef.getComponentType(),
+                    rtComponent.getComponent(), outPortType, outPort);
+
+            rtComponent.addOutPort(outPortName, outPort);
+        }
+
+        // ArrayOutPorts
+        Map<String, PortDefArray<OutPortDef>> connectedArrayOuts = componentDef
+                .getConnectedArrayOutDefs();
+        if (connectedArrayOuts != null) {
+            for (PortDefArray<OutPortDef> outPortDefs : connectedArrayOuts
+                    .values()) {
+                OutPortType outPortType = null;
+                String outPortName = null;
+
+                // validated to have no gaps
+                List<OutPort> outPorts = new ArrayList<OutPort>(
+                        Collections.<OutPort> nCopies(
+                                outPortDefs.length(), null));
+
+                for (OutPortDef outPortDef : outPortDefs) {
+
+                    int index = outPortDef.getIndex();
+                    if (outPortType == null) {
+                        outPortType = outPortDef.getPortType();
+                        outPortName = outPortDef.getName();
+                    }
+
+                    outPorts.set(index, createRtOutPort(outPortDef,
+                            rtComponent, index, rtComponents));
+                }
+
+                dataProvider.initOutPortArray(
+                        componentDef.getComponentType(),
+                        rtComponent.getComponent(), outPortType, outPorts);
+
+                rtComponent.addOutPorts(outPortName, outPorts);
+            }
+        }
+
+        // initialize all free outPortArrays
+        for (OutPortType outPortType : componentDef.getFreeArrayOutDefs()
+                .values()) {
+            List<OutPort> outPorts = Collections.emptyList();
+
+            dataProvider.initOutPortArray(componentDef.getComponentType(),
+                    rtComponent.getComponent(), outPortType, outPorts);
+
+            rtComponent.addOutPorts(outPortType.getName(), outPorts);
+        }
+    }
+
+    private RtOutPort createRtOutPort(OutPortDef outPortDef,
+            RtComponent rtComponent, int index,
+            Map<String, RtComponent> rtComponents) {
+        RtInPort[] targets = new RtInPort[outPortDef.getTargetCount()];
+        for (int i = 0; i < targets.length; i++) {
+            RtComponent receiver = rtComponents.get(outPortDef
+                    .getReceiverName(i));
+            if (outPortDef.getInIndex(i) == -1) {
+                targets[i] = (RtInPort) receiver.getInPort(outPortDef
+                        .getInPortName(i));
+            } else {
+                targets[i] = (RtInPort) receiver.getInPorts(
+                        outPortDef.getInPortName(i)).get(
+                        outPortDef.getInIndex(i));
+            }
+        }
+
+        RtOutPort rtOutPort;
+        if (rtComponent.getOrderedStage() != null) {
+            rtOutPort = new RtOrderedOutPort(outPortDef.getName(), rtComponent,
+                    index, targets[0], rtComponent.getOrderedStage(),
+                    rtComponent.getOrderedWorker());
+        } else if (outPortDef.getConnectionType() == ConnectionType.POINT_TO_POINT
+                && targets[0] instanceof RtPrimitiveInPort) {
+            rtOutPort = new RtPrimitiveOutPort(outPortDef.getName(),
+                    rtComponent, index, (RtPrimitiveInPort) targets[0]);
+        } else if (outPortDef.getConnectionType() == ConnectionType.POINT_TO_POINT
+                && outPortDef.isBatching()
+                && !(targets[0] instanceof RtFusedInPort)) {
+            RtBatchingOutPort batchingOutPort = new RtBatchingOutPort(
+                    outPortDef.getName(), rtComponent, index, targets[0],
+                    outPortDef.getBatchSize(), outPortDef.getFlushMicros());
+            if (outPortDef.getFlushMicros() > 0) {
+                rtComponent.getRtNetwork().getBatchFlusher().register(
+                        batchingOutPort);
+            }
+            rtOutPort = batchingOutPort;
+        } else if (outPortDef.getConnectionType() == ConnectionType.POINT_TO_POINT) {
+            rtOutPort = new RtOutPort(outPortDef.getName(), rtComponent,
+                    index, targets[0]);
+        } else {
+            rtOutPort = new RtFanOutPort(outPortDef.getName(), rtComponent,
+                    index, targets, outPortDef.getConnectionType());
+        }
+
+        for (RtInPort rtInPort : targets) {
+            rtInPort.addRtOutPort(rtOutPort);
+        }
+        return rtOutPort;
+    }
+
+    private static abstract class ComponentStep {
+
+        abstract void run(int componentIndex) throws Exception;
+    }
+}
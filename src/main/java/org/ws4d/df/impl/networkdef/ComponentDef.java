@@ -15,13 +15,17 @@
  */
 package org.ws4d.df.impl.networkdef;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.ws4d.df.api.comp.type.ComponentType;
 import org.ws4d.df.api.comp.type.InPortType;
 import org.ws4d.df.api.comp.type.OutPortType;
 import org.ws4d.df.api.exception.PortNotFoundException;
+import org.ws4d.df.impl.runtime.ConnectionType;
+import org.ws4d.df.impl.runtime.PrimitivePortType;
 
 public class ComponentDef {
 
@@ -50,9 +54,16 @@ public class ComponentDef {
 	// Created In and Out PortDefs while defining connections
 
 	private Map<String, InPortDef> connectedSingleInDefs = null;
-	private Map<String, Map<Integer, InPortDef>> connectedArrayInDefs = null;
+	private Map<String, PortDefArray<InPortDef>> connectedArrayInDefs = null;
 	private Map<String, OutPortDef> connectedSingleOutDefs = null;
-	private Map<String, Map<Integer, OutPortDef>> connectedArrayOutDefs = null;
+	private Map<String, PortDefArray<OutPortDef>> connectedArrayOutDefs = null;
+
+	// Replication of stateless components
+
+	private int parallelism = 1;
+	private boolean ordered = false;
+	private ComponentDef replicaOf = null;
+	private List<ComponentDef> replicas = null;
 
 	// -----------------------------------------------------------------------------------------------------------
 	//
@@ -124,7 +135,7 @@ public class ComponentDef {
 		return connectedSingleInDefs;
 	}
 
-	public Map<String, Map<Integer, InPortDef>> getConnectedArrayInDefs() {
+	public Map<String, PortDefArray<InPortDef>> getConnectedArrayInDefs() {
 		return connectedArrayInDefs;
 	}
 
@@ -132,10 +143,48 @@ public class ComponentDef {
 		return connectedSingleOutDefs;
 	}
 
-	public Map<String, Map<Integer, OutPortDef>> getConnectedArrayOutDefs() {
+	public Map<String, PortDefArray<OutPortDef>> getConnectedArrayOutDefs() {
 		return connectedArrayOutDefs;
 	}
 
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * True if the copies of this component emit their results in the order of
+	 * their input.
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * The component this one was copied from, or null.
+	 */
+	public ComponentDef getReplicaOf() {
+		return replicaOf;
+	}
+
+	/**
+	 * The copies of this component, or null if it was not replicated yet.
+	 */
+	public List<ComponentDef> getReplicas() {
+		return replicas;
+	}
+
+	public boolean isReplicated() {
+		return replicaOf != null || replicas != null;
+	}
+
 	// -------------------------------------------------------------------------
 	// public methods
 	// -------------------------------------------------------------------------
@@ -172,67 +221,88 @@ public class ComponentDef {
 	}
 
 	public void connectInPort(String inPortName, int index) throws Exception {
+		InPortDef inPortDef;
 		if (index == -1) {
 			// (Validation) in port exists and is a single port.
 			assertSingleInPortName(inPortName);
 
-			// (Validation) in port must not have been connected.
-			if ((connectedSingleInDefs != null)
-					&& (connectedSingleInDefs.get(inPortName) != null)) {
-				throw new Exception("in port already connected or initialized");
+			inPortDef = connectedSingleInDefs != null ? connectedSingleInDefs
+					.get(inPortName) : null;
+			if (inPortDef == null) {
+				inPortDef = new InPortDef(allSingleInTypes.get(inPortName));
+				connectSingleInPort(inPortDef);
 			}
 
-			connectSingleInPort(new InPortDef(allSingleInTypes.get(inPortName)));
-
 		} else {
 			// (Validation) in port exists and is an array port.
 			assertArrayInPortName(inPortName);
 
-			// (Validation) in port must not have been connected.
-			if ((connectedArrayInDefs != null)
-					&& (connectedArrayInDefs.get(inPortName) != null)
-					&& (connectedArrayInDefs.get(inPortName).get(index) != null)) {
-				throw new Exception("in port already connected or initialized");
+			inPortDef = (connectedArrayInDefs != null)
+					&& (connectedArrayInDefs.get(inPortName) != null) ? connectedArrayInDefs
+					.get(inPortName).get(index) : null;
+			if (inPortDef == null) {
+				inPortDef = new InPortDef(allArrayInTypes.get(inPortName),
+						index);
+				connectArrayInPort(inPortDef);
 			}
+		}
 
-			connectArrayInPort(new InPortDef(allArrayInTypes.get(inPortName),
-					index));
+		// (Validation) in port must not have been initialized. Several out
+		// ports may be connected to it (fan-in).
+		if (inPortDef.isInitializer()) {
+			throw new Exception("in port already initialized");
 		}
+		inPortDef.addSender();
 	}
 
 	public void connectOutPort(String outPortName, int outIndex,
 			ComponentDef receiver, String inPortName, int inIndex)
 			throws Exception {
+		connectOutPort(outPortName, outIndex, receiver, inPortName, inIndex,
+				ConnectionType.POINT_TO_POINT);
+	}
+
+	public void connectOutPort(String outPortName, int outIndex,
+			ComponentDef receiver, String inPortName, int inIndex,
+			ConnectionType connectionType) throws Exception {
 		if (outIndex == -1) {
 			// (Validation) out port exists and is a single port.
 			assertSingleOutPortName(outPortName);
 
-			// (Validation) out port must not have been connected.
-			if ((connectedSingleOutDefs != null)
-					&& (connectedSingleOutDefs.get(outPortName) != null)) {
-				throw new Exception("already connected");
-			}
-
 			InPortDef inPort = receiver.getInPort(inPortName, inIndex);
-			connectSingleOutPort(new OutPortDef(
-					allSingleOutTypes.get(outPortName), outIndex,
-					receiver.getId(), inPort));
+			OutPortDef outPortDef = connectedSingleOutDefs != null ? connectedSingleOutDefs
+					.get(outPortName) : null;
+			if (outPortDef != null) {
+				// (Validation) out port must not have been connected or be a
+				// fan-out of the same type.
+				addTarget(outPortDef, receiver, inPort, connectionType,
+						"already connected");
+			} else {
+				outPortDef = new OutPortDef(allSingleOutTypes.get(outPortName),
+						outIndex, receiver.getId(), inPort, connectionType);
+				connectSingleOutPort(outPortDef);
+			}
+			inPort.addSenderPort(this, outPortDef);
 
 		} else {
 			// (Validation) out port exists and is an array port.
 			assertArrayOutPortName(outPortName);
 
-			// (Validation) out port must not have been connected.
-			if ((connectedArrayOutDefs != null)
-					&& (connectedArrayOutDefs.get(outPortName) != null)
-					&& (connectedArrayOutDefs.get(outPortName).get(outIndex) != null)) {
-				throw new Exception("out port already connected or initialized");
-			}
-
 			InPortDef inPort = receiver.getInPort(inPortName, inIndex);
-			connectArrayOutPort(new OutPortDef(
-					allArrayOutTypes.get(outPortName), outIndex,
-					receiver.getId(), inPort));
+			OutPortDef outPortDef = (connectedArrayOutDefs != null)
+					&& (connectedArrayOutDefs.get(outPortName) != null) ? connectedArrayOutDefs
+					.get(outPortName).get(outIndex) : null;
+			if (outPortDef != null) {
+				// (Validation) out port must not have been connected or be a
+				// fan-out of the same type.
+				addTarget(outPortDef, receiver, inPort, connectionType,
+						"out port already connected or initialized");
+			} else {
+				outPortDef = new OutPortDef(allArrayOutTypes.get(outPortName),
+						outIndex, receiver.getId(), inPort, connectionType);
+				connectArrayOutPort(outPortDef);
+			}
+			inPort.addSenderPort(this, outPortDef);
 		}
 	}
 
@@ -251,41 +321,88 @@ public class ComponentDef {
 		}
 
 		if (connectedArrayInDefs != null) {
-			for (Map<Integer, InPortDef> connectedArrayItemIns : connectedArrayInDefs
+			for (PortDefArray<InPortDef> connectedArrayItemIns : connectedArrayInDefs
 					.values()) {
-				int maxIndex = 0;
-				for (int index : connectedArrayItemIns.keySet()) {
-					if (index > maxIndex) {
-						maxIndex = index;
-					}
-				}
-				if (maxIndex + 1 != connectedArrayItemIns.size()) {
+				if (connectedArrayItemIns.hasGaps()) {
 					throw new Exception("gaps detected");
 				}
 			}
 		}
 
 		if (connectedArrayOutDefs != null) {
-			for (Map<Integer, OutPortDef> connectedArrayItemOuts : connectedArrayOutDefs
+			for (PortDefArray<OutPortDef> connectedArrayItemOuts : connectedArrayOutDefs
 					.values()) {
-				int maxIndex = 0;
-				for (int index : connectedArrayItemOuts.keySet()) {
-					if (index > maxIndex) {
-						maxIndex = index;
-					}
-				}
-				if (maxIndex + 1 != connectedArrayItemOuts.size()) {
+				if (connectedArrayItemOuts.hasGaps()) {
 					throw new Exception("gaps detected");
 				}
 			}
 		}
+
+		// (Validation) an in port holds at least one packet, and a byte
+		// capacity of 0 means none.
+		for (InPortDef inPortDef : getConnectedInDefs()) {
+			if (inPortDef.getCapacity() == null
+					|| inPortDef.getCapacity().intValue() < 1
+					|| inPortDef.getByteCapacity() < 0) {
+				throw new Exception(
+						"in port capacity must be positive and byte capacity not negative, name="
+								+ id + "." + inPortDef.getName());
+			}
+		}
+
+		// (Validation) a binary or primitive connection has one sender and a
+		// plain receiver, its ring is written and read in order.
+		for (InPortDef inPortDef : getConnectedInDefs()) {
+			if (inPortDef.isBinary()
+					&& (inPortDef.getSenderCount() != 1 || ordered)) {
+				throw new Exception(
+						"binary in port needs one sender and an unordered receiver, name="
+								+ id + "." + inPortDef.getName());
+			}
+			if (inPortDef.getPrimitiveType() != null
+					&& (inPortDef.getSenderCount() != 1 || ordered || inPortDef
+							.isBinary())) {
+				throw new Exception(
+						"primitive in port needs one sender and an unordered receiver, name="
+								+ id + "." + inPortDef.getName());
+			}
+		}
+
+		// (Validation) a primitive out port sends point-to-point to a
+		// primitive in port.
+		for (OutPortDef outPortDef : getConnectedOutDefs()) {
+			if (outPortDef.getPortType() instanceof PrimitivePortType
+					&& (ordered
+							|| outPortDef.getConnectionType() != ConnectionType.POINT_TO_POINT || outPortDef
+							.getInPort(0).getPrimitiveType() == null)) {
+				throw new Exception(
+						"primitive out port must be connected point-to-point to a primitive in port, name="
+								+ id + "." + outPortDef.getName());
+			}
+		}
+
+		// (Validation) a batching out port sends point-to-point to a plain in
+		// port, which takes the batch in one step.
+		for (OutPortDef outPortDef : getConnectedOutDefs()) {
+			if (outPortDef.isBatching()
+					&& (ordered
+							|| outPortDef.getConnectionType() != ConnectionType.POINT_TO_POINT
+							|| outPortDef.getInPort(0).isBinary() || outPortDef
+							.getInPort(0).getPrimitiveType() != null)) {
+				throw new Exception(
+						"batching out port must be connected point-to-point to a plain in port, name="
+								+ id + "." + outPortDef.getName());
+			}
+		}
 	}
 
 	public InPortDef getInPort(String inPortName, int index) {
 		if (index == -1) {
-			return connectedSingleInDefs.get(inPortName);
+			return connectedSingleInDefs != null ? connectedSingleInDefs
+					.get(inPortName) : null;
 		} else {
-			if (connectedArrayInDefs != null) {
+			if (connectedArrayInDefs != null
+					&& connectedArrayInDefs.get(inPortName) != null) {
 				return connectedArrayInDefs.get(inPortName).get(index);
 			} else {
 				return null;
@@ -293,6 +410,95 @@ public class ComponentDef {
 		}
 	}
 
+	public OutPortDef getOutPort(String outPortName, int index) {
+		if (index == -1) {
+			return connectedSingleOutDefs != null ? connectedSingleOutDefs
+					.get(outPortName) : null;
+		} else {
+			if (connectedArrayOutDefs != null
+					&& connectedArrayOutDefs.get(outPortName) != null) {
+				return connectedArrayOutDefs.get(outPortName).get(index);
+			} else {
+				return null;
+			}
+		}
+	}
+
+	public List<InPortDef> getConnectedInDefs() {
+		List<InPortDef> inPortDefs = new ArrayList<InPortDef>();
+		if (connectedSingleInDefs != null) {
+			inPortDefs.addAll(connectedSingleInDefs.values());
+		}
+		if (connectedArrayInDefs != null) {
+			for (PortDefArray<InPortDef> arrayInDefs : connectedArrayInDefs
+					.values()) {
+				for (InPortDef inPortDef : arrayInDefs) {
+					inPortDefs.add(inPortDef);
+				}
+			}
+		}
+		return inPortDefs;
+	}
+
+	public List<OutPortDef> getConnectedOutDefs() {
+		List<OutPortDef> outPortDefs = new ArrayList<OutPortDef>();
+		if (connectedSingleOutDefs != null) {
+			outPortDefs.addAll(connectedSingleOutDefs.values());
+		}
+		if (connectedArrayOutDefs != null) {
+			for (PortDefArray<OutPortDef> arrayOutDefs : connectedArrayOutDefs
+					.values()) {
+				for (OutPortDef outPortDef : arrayOutDefs) {
+					outPortDefs.add(outPortDef);
+				}
+			}
+		}
+		return outPortDefs;
+	}
+
+	/**
+	 * Creates a copy of this component with the same initializers and in port
+	 * settings. Connections are copied by the network definition.
+	 */
+	public ComponentDef createReplica(String replicaId) throws Exception {
+		ComponentDef replica = new ComponentDef(replicaId, componentType);
+		for (InPortDef inPortDef : getConnectedInDefs()) {
+			if (inPortDef.isInitializer()) {
+				replica.initialize(inPortDef.getName(), inPortDef.getIndex(),
+						inPortDef.getInitPacket(), inPortDef.isStatic());
+			}
+		}
+		addReplica(replica);
+		return replica;
+	}
+
+	// The following add definitions as they are, without validating them,
+	// for loading a saved definition.
+
+	void addReplica(ComponentDef replica) {
+		replica.replicaOf = this;
+		if (replicas == null) {
+			replicas = new ArrayList<ComponentDef>();
+		}
+		replicas.add(replica);
+	}
+
+	void addInPortDef(InPortDef inPortDef) {
+		if (inPortDef.getIndex() == -1) {
+			connectSingleInPort(inPortDef);
+		} else {
+			connectArrayInPort(inPortDef);
+		}
+	}
+
+	void addOutPortDef(OutPortDef outPortDef) {
+		if (outPortDef.getIndex() == -1) {
+			connectSingleOutPort(outPortDef);
+		} else {
+			connectArrayOutPort(outPortDef);
+		}
+	}
+
 	// -------------------------------------------------------------------------
 	// private
 	// -------------------------------------------------------------------------
@@ -323,6 +529,19 @@ public class ComponentDef {
 		}
 	}
 
+	private void addTarget(OutPortDef outPortDef, ComponentDef receiver,
+			InPortDef inPort, ConnectionType connectionType, String message)
+			throws Exception {
+		if (connectionType == ConnectionType.POINT_TO_POINT
+				|| !connectionType.equals(outPortDef.getConnectionType())) {
+			throw new Exception(message);
+		}
+		if (outPortDef.isTarget(inPort)) {
+			throw new Exception("already connected to this in port");
+		}
+		outPortDef.addTarget(receiver.getId(), inPort);
+	}
+
 	private void connectSingleInPort(InPortDef inPortDef) {
 		String inPortName = inPortDef.getName();
 
@@ -339,18 +558,18 @@ public class ComponentDef {
 		int index = inPortDef.getIndex();
 
 		if (connectedArrayInDefs == null) {
-			connectedArrayInDefs = new HashMap<String, Map<Integer, InPortDef>>();
+			connectedArrayInDefs = new HashMap<String, PortDefArray<InPortDef>>();
 		}
 
-		Map<Integer, InPortDef> connectedArrayItemIns = connectedArrayInDefs
+		PortDefArray<InPortDef> connectedArrayItemIns = connectedArrayInDefs
 				.get(inPortName);
 
 		if (connectedArrayItemIns == null) {
-			connectedArrayItemIns = new HashMap<Integer, InPortDef>();
+			connectedArrayItemIns = new PortDefArray<InPortDef>();
 			connectedArrayInDefs.put(inPortName, connectedArrayItemIns);
 		}
 
-		connectedArrayItemIns.put(index, inPortDef);
+		connectedArrayItemIns.set(index, inPortDef);
 		freeArrayInTypes.remove(inPortName);
 	}
 
@@ -370,18 +589,18 @@ public class ComponentDef {
 		int index = outPortDef.getIndex();
 
 		if (connectedArrayOutDefs == null) {
-			connectedArrayOutDefs = new HashMap<String, Map<Integer, OutPortDef>>();
+			connectedArrayOutDefs = new HashMap<String, PortDefArray<OutPortDef>>();
 		}
 
-		Map<Integer, OutPortDef> connectedArrayItemOuts = connectedArrayOutDefs
+		PortDefArray<OutPortDef> connectedArrayItemOuts = connectedArrayOutDefs
 				.get(inPortName);
 
 		if (connectedArrayItemOuts == null) {
-			connectedArrayItemOuts = new HashMap<Integer, OutPortDef>();
+			connectedArrayItemOuts = new PortDefArray<OutPortDef>();
 			connectedArrayOutDefs.put(inPortName, connectedArrayItemOuts);
 		}
 
-		connectedArrayItemOuts.put(index, outPortDef);
+		connectedArrayItemOuts.set(index, outPortDef);
 		freeArrayOutTypes.remove(inPortName);
 	}
 }
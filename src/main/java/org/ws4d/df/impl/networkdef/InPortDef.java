@@ -15,8 +15,13 @@
  */
 package org.ws4d.df.impl.networkdef;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.ws4d.df.api.comp.type.InPortType;
 import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.runtime.PrimitivePortType;
+import org.ws4d.df.impl.runtime.WaitStrategy;
 
 public class InPortDef {
 
@@ -29,6 +34,18 @@ public class InPortDef {
     private final InPortType portType;
     private final int index;
     private Integer capacity = NetworkBuilderImpl.DEFAULT_CAPACITY;
+    private boolean capacitySet = false;
+    // 0 if the bytes held are not bounded
+    private long byteCapacity = 0;
+    // 0 unless packets are passed through an off-heap ring of this size
+    private int binaryCapacity = 0;
+    // null for the default of the network
+    private WaitStrategy waitStrategy = null;
+    // number of out ports connected to this in port
+    private int senderCount = 0;
+    // the out ports connected to this in port and their components
+    private final List<ComponentDef> senderDefs = new ArrayList<ComponentDef>(1);
+    private final List<OutPortDef> senderPorts = new ArrayList<OutPortDef>(1);
 
     // -------------------------------------------------------------------------
     // constructors
@@ -73,12 +90,89 @@ public class InPortDef {
         return portType;
     }
 
+    /**
+     * With a byte or binary capacity and no capacity set, the bytes are the
+     * bound and the packet count only limits the size of the queue.
+     */
     public Integer getCapacity() {
+        if (!capacitySet && (byteCapacity > 0 || binaryCapacity > 0)) {
+            return NetworkBuilderImpl.DEFAULT_BYTE_BOUNDED_CAPACITY;
+        }
         return capacity;
     }
 
     public void setCapacity(Integer capacity) {
         this.capacity = capacity;
+        this.capacitySet = true;
+    }
+
+    /**
+     * Returns true if the capacity was set explicitly rather than defaulted.
+     */
+    public boolean isCapacitySet() {
+        return capacitySet;
+    }
+
+    public long getByteCapacity() {
+        return byteCapacity;
+    }
+
+    public void setByteCapacity(long byteCapacity) {
+        this.byteCapacity = byteCapacity;
+    }
+
+    public boolean isBinary() {
+        return binaryCapacity > 0;
+    }
+
+    public int getBinaryCapacity() {
+        return binaryCapacity;
+    }
+
+    public void setBinaryCapacity(int binaryCapacity) {
+        this.binaryCapacity = binaryCapacity;
+    }
+
+    /**
+     * Returns int.class, long.class or double.class if the port type declares
+     * a primitive payload, null otherwise.
+     */
+    public Class<?> getPrimitiveType() {
+        return portType instanceof PrimitivePortType ? ((PrimitivePortType) portType)
+                .getPrimitiveType() : null;
+    }
+
+    public int getSenderCount() {
+        return senderCount;
+    }
+
+    public void addSender() {
+        senderCount++;
+    }
+
+    List<ComponentDef> getSenderDefs() {
+        return senderDefs;
+    }
+
+    List<OutPortDef> getSenderPorts() {
+        return senderPorts;
+    }
+
+    /**
+     * Records the out port of the given component that delivers to this in
+     * port. Called for every target an out port gets.
+     */
+    void addSenderPort(ComponentDef sender, OutPortDef outPortDef) {
+        senderDefs.add(sender);
+        senderPorts.add(outPortDef);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
     }
 
     // -------------------------------------------------------------------------
@@ -15,12 +15,23 @@
  */
 package org.ws4d.df.impl.networkdef;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.ws4d.df.api.comp.type.ComponentType;
 import org.ws4d.df.api.network.ConnectionValidator;
 import org.ws4d.df.api.network.NetworkBuilder;
+import org.ws4d.df.impl.runtime.ConnectionType;
+import org.ws4d.df.impl.runtime.Stateless;
+import org.ws4d.df.impl.runtime.WaitStrategy;
 
 public class NetworkDef {
 
@@ -30,6 +41,12 @@ public class NetworkDef {
 
 	private final NetworkBuilder networkBuilder;
 	private final Map<String, ComponentDef> componentDefs = new HashMap<String, ComponentDef>();
+	// set once the definition has been compiled into a template
+	private boolean frozen = false;
+	// components changed since they were validated last
+	private final Set<ComponentDef> unvalidated = new LinkedHashSet<ComponentDef>();
+	// components with batching out ports, their targets must stay plain
+	private final Set<ComponentDef> batchingSenders = new HashSet<ComponentDef>();
 
 	// -------------------------------------------------------------------------
 	// constructors
@@ -53,6 +70,7 @@ public class NetworkDef {
 
 	public void addComponent(String componentName, Class<?> componentClass)
 			throws Exception {
+		assertNotFrozen();
 
 		// (Validation) Component name must be unique.
 		if (componentDefs.get(componentName) != null) {
@@ -71,40 +89,90 @@ public class NetworkDef {
 					"component types returns null for a get*Ports() method");
 		}
 
-		componentDefs.put(componentName, new ComponentDef(componentName, type));
+		ComponentDef componentDef = new ComponentDef(componentName, type);
+		componentDefs.put(componentName, componentDef);
+		unvalidated.add(componentDef);
 	}
 
 	public void setCapacity(String receiverName, String inPortName, int index,
 			int capacity) throws Exception {
-		InPortDef inPort = null;
-		ComponentDef receiver = componentDefs.get(receiverName);
-		if (receiver == null) {
-			throw new Exception("component not found");
+		assertNotFrozen();
+		getConnectedInPort(receiverName, inPortName, index).setCapacity(
+				capacity);
+		unvalidated.add(componentDefs.get(receiverName));
+	}
+
+	public void setByteCapacity(String receiverName, String inPortName,
+			int index, long byteCapacity) throws Exception {
+		assertNotFrozen();
+		getConnectedInPort(receiverName, inPortName, index).setByteCapacity(
+				byteCapacity);
+		unvalidated.add(componentDefs.get(receiverName));
+	}
+
+	public void setBinaryCapacity(String receiverName, String inPortName,
+			int index, int binaryCapacity) throws Exception {
+		assertNotFrozen();
+		if (binaryCapacity < 1) {
+			throw new Exception("binary capacity must be positive");
 		}
+		getConnectedInPort(receiverName, inPortName, index).setBinaryCapacity(
+				binaryCapacity);
+		unvalidated.add(componentDefs.get(receiverName));
+		unvalidated.addAll(batchingSenders);
+	}
 
-		if (index == -1) {
-			inPort = receiver.getConnectedSingleInDefs().get(inPortName);
-			if (inPort == null) {
-				throw new Exception("port not found or not connected");
-			}
-		} else {
-			Map<Integer, InPortDef> inPorts = receiver
-					.getConnectedArrayInDefs().get(inPortName);
-			if (inPorts == null) {
-				throw new Exception("arrayport not found or not connected");
-			}
-			inPort = inPorts.get(index);
-			if (inPort == null) {
-				throw new Exception(
-						"index in arrayport not found or not connected");
-			}
+	public void setBatching(String senderName, String outPortName, int index,
+			int batchSize, long flushMicros) throws Exception {
+		assertNotFrozen();
+		if (batchSize < 1 || flushMicros < 0) {
+			throw new Exception(
+					"batch size must be positive and flush interval not negative");
 		}
+		OutPortDef outPort = getConnectedOutPort(senderName, outPortName,
+				index);
+		outPort.setBatchSize(batchSize);
+		outPort.setFlushMicros(flushMicros);
+		ComponentDef sender = componentDefs.get(senderName);
+		batchingSenders.add(sender);
+		unvalidated.add(sender);
+	}
 
-		inPort.setCapacity(capacity);
+	public void setWaitStrategy(String receiverName, String inPortName,
+			int index, WaitStrategy waitStrategy) throws Exception {
+		assertNotFrozen();
+		getConnectedInPort(receiverName, inPortName, index).setWaitStrategy(
+				waitStrategy);
+		unvalidated.add(componentDefs.get(receiverName));
+	}
+
+	public void setParallelism(String componentName, int parallelism,
+			boolean ordered) throws Exception {
+		assertNotFrozen();
+		ComponentDef componentDef = componentDefs.get(componentName);
+		if (componentDef == null) {
+			throw new Exception("component not found");
+		}
+		if (parallelism < 1) {
+			throw new Exception("parallelism must be at least 1");
+		}
+
+		// (Validation) only passive, stateless components may be replicated.
+		ComponentType type = componentDef.getComponentType();
+		if (parallelism > 1
+				&& (type.isActive() || !type.getComponentClass()
+						.isAnnotationPresent(Stateless.class))) {
+			throw new Exception("component is not passive and stateless, name="
+					+ componentName);
+		}
+		componentDef.setParallelism(parallelism);
+		componentDef.setOrdered(ordered);
+		unvalidated.add(componentDef);
 	}
 
 	public void initialize(String receiverName, String inPortName, int index,
 			Object packet, boolean isStatic) throws Exception {
+		assertNotFrozen();
 
 		ComponentDef receiver = componentDefs.get(receiverName);
 		if (receiver == null) {
@@ -118,11 +186,20 @@ public class NetworkDef {
 		}
 
 		receiver.initialize(inPortName, index, packet, isStatic);
+		unvalidated.add(receiver);
 	}
 
 	public void connect(String senderName, String outPortName, int outIndex,
 			String receiverName, String inPortName, int inIndex)
 			throws Exception {
+		connect(senderName, outPortName, outIndex, receiverName, inPortName,
+				inIndex, ConnectionType.POINT_TO_POINT);
+	}
+
+	public void connect(String senderName, String outPortName, int outIndex,
+			String receiverName, String inPortName, int inIndex,
+			ConnectionType connectionType) throws Exception {
+		assertNotFrozen();
 
 		// (Validation) Components must have been registered.
 		ComponentDef sender = componentDefs.get(senderName);
@@ -143,12 +220,239 @@ public class NetworkDef {
 
 		receiver.connectInPort(inPortName, inIndex);
 		sender.connectOutPort(outPortName, outIndex, receiver, inPortName,
-				inIndex);
+				inIndex, connectionType);
+		unvalidated.add(sender);
+		unvalidated.add(receiver);
 	}
 
+	/**
+	 * Adds the copies of all components with a parallelism greater than one.
+	 * A copy gets the name of the component followed by "#" and its number.
+	 * Every out port sending to a replicated component delivers to all
+	 * copies: a point-to-point connection becomes
+	 * {@link ConnectionType#ROUND_ROBIN}, a round-robin or hash-partitioned
+	 * one keeps its type and a broadcast is rejected. All copies send to the
+	 * receivers of the component.
+	 */
+	public void expandParallelism() throws Exception {
+		for (ComponentDef componentDef : new ArrayList<ComponentDef>(
+				componentDefs.values())) {
+			if (componentDef.getParallelism() > 1
+					&& componentDef.getReplicas() == null) {
+				replicate(componentDef);
+			}
+		}
+	}
+
+	/**
+	 * Validates the components changed since the last validation, so a
+	 * definition built up in steps is not validated from scratch each time.
+	 */
 	public void validate() throws Exception {
-		for (ComponentDef componentDef : componentDefs.values()) {
-			componentDef.validate();
+		Iterator<ComponentDef> iterator = unvalidated.iterator();
+		while (iterator.hasNext()) {
+			iterator.next().validate();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Rejects all further changes of this definition.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+
+	public void save(File file) throws IOException {
+		NetworkDefFile.write(this, file);
+	}
+
+	/**
+	 * Loads a definition written by {@link #save(File)} into this empty
+	 * definition. The loaded components are not validated again.
+	 */
+	public void load(File file) throws Exception {
+		assertNotFrozen();
+		if (!componentDefs.isEmpty()) {
+			throw new Exception("network definition is not empty");
+		}
+		NetworkDefFile.read(file, this,
+				networkBuilder.getComponentTypeRegistry());
+	}
+
+	void addLoadedComponent(ComponentDef componentDef) {
+		componentDefs.put(componentDef.getId(), componentDef);
+		for (OutPortDef outPortDef : componentDef.getConnectedOutDefs()) {
+			if (outPortDef.isBatching()) {
+				batchingSenders.add(componentDef);
+				break;
+			}
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// private
+	// -------------------------------------------------------------------------
+
+	private void assertNotFrozen() throws Exception {
+		if (frozen) {
+			throw new Exception("network definition is compiled");
+		}
+	}
+
+	private void replicate(ComponentDef componentDef) throws Exception {
+		String id = componentDef.getId();
+		for (int i = 1; i < componentDef.getParallelism(); i++) {
+			String replicaId = id + "#" + i;
+
+			// (Validation) Component name must be unique.
+			if (componentDefs.get(replicaId) != null) {
+				throw new Exception("Component name must be unique.");
+			}
+			ComponentDef replica = componentDef.createReplica(replicaId);
+			componentDefs.put(replicaId, replica);
+			unvalidated.add(replica);
+		}
+		List<ComponentDef> replicas = componentDef.getReplicas();
+		if (componentDef.isOrdered()) {
+			assertOrderedStage(componentDef);
+		}
+
+		for (InPortDef inPortDef : componentDef.getConnectedInDefs()) {
+			if (inPortDef.isInitializer()) {
+				continue;
+			}
+			String inPortName = inPortDef.getName();
+			int inIndex = inPortDef.getIndex();
+
+			List<ComponentDef> senderDefs = inPortDef.getSenderDefs();
+			List<OutPortDef> senders = inPortDef.getSenderPorts();
+			for (int s = 0; s < senders.size(); s++) {
+				OutPortDef sender = senders.get(s);
+				// (Validation) fan-out ports can not be split again, and a
+				// broadcast to the copies would process every packet
+				// several times.
+				if (sender.getTargetCount() != 1
+						|| sender.getConnectionType() == ConnectionType.BROADCAST) {
+					throw new Exception(
+							"replicated component must be connected point-to-point, name="
+									+ id);
+				}
+				unvalidated.add(senderDefs.get(s));
+			}
+
+			for (int s = 0; s < senders.size(); s++) {
+				OutPortDef sender = senders.get(s);
+				if (sender.getConnectionType() == ConnectionType.POINT_TO_POINT) {
+					sender.setConnectionType(ConnectionType.ROUND_ROBIN);
+				}
+				for (ComponentDef replica : replicas) {
+					replica.connectInPort(inPortName, inIndex);
+					InPortDef replicaInPort = replica.getInPort(inPortName,
+							inIndex);
+					sender.addTarget(replica.getId(), replicaInPort);
+					replicaInPort.addSenderPort(senderDefs.get(s), sender);
+				}
+			}
+			for (ComponentDef replica : replicas) {
+				InPortDef replicaInPort = replica.getInPort(inPortName, inIndex);
+				replicaInPort.setCapacity(inPortDef.getCapacity());
+				replicaInPort.setByteCapacity(inPortDef.getByteCapacity());
+				replicaInPort.setBinaryCapacity(inPortDef.getBinaryCapacity());
+				replicaInPort.setWaitStrategy(inPortDef.getWaitStrategy());
+			}
+		}
+
+		for (OutPortDef outPortDef : componentDef.getConnectedOutDefs()) {
+			for (ComponentDef replica : replicas) {
+				for (int t = 0; t < outPortDef.getTargetCount(); t++) {
+					ComponentDef receiver = componentDefs.get(outPortDef
+							.getReceiverName(t));
+					receiver.connectInPort(outPortDef.getInPortName(t),
+							outPortDef.getInIndex(t));
+					unvalidated.add(receiver);
+					replica.connectOutPort(outPortDef.getName(),
+							outPortDef.getIndex(), receiver,
+							outPortDef.getInPortName(t),
+							outPortDef.getInIndex(t),
+							outPortDef.getConnectionType());
+				}
+				OutPortDef replicaOutPort = replica.getOutPort(
+						outPortDef.getName(), outPortDef.getIndex());
+				replicaOutPort.setBatchSize(outPortDef.getBatchSize());
+				replicaOutPort.setFlushMicros(outPortDef.getFlushMicros());
+				if (replicaOutPort.isBatching()) {
+					batchingSenders.add(replica);
+				}
+			}
+		}
+	}
+
+	private void assertOrderedStage(ComponentDef componentDef)
+			throws Exception {
+		// (Validation) exactly one sender, one in port and one out port, so
+		// the input order is defined and the results have one destination.
+		int inPorts = 0;
+		for (InPortDef inPortDef : componentDef.getConnectedInDefs()) {
+			if (!inPortDef.isInitializer()) {
+				inPorts++;
+				if (inPortDef.getIndex() != -1
+						|| inPortDef.getSenderCount() != 1) {
+					inPorts = -1;
+					break;
+				}
+			}
+		}
+		List<OutPortDef> outPortDefs = componentDef.getConnectedOutDefs();
+		if (inPorts != 1
+				|| outPortDefs.size() != 1
+				|| outPortDefs.get(0).getIndex() != -1
+				|| outPortDefs.get(0).getConnectionType() != ConnectionType.POINT_TO_POINT) {
+			throw new Exception(
+					"ordered component needs one single in port with one sender and one single out port, name="
+							+ componentDef.getId());
+		}
+	}
+
+	private InPortDef getConnectedInPort(String receiverName,
+			String inPortName, int index) throws Exception {
+		InPortDef inPort = null;
+		ComponentDef receiver = componentDefs.get(receiverName);
+		if (receiver == null) {
+			throw new Exception("component not found");
+		}
+
+		if (index == -1) {
+			inPort = receiver.getConnectedSingleInDefs().get(inPortName);
+			if (inPort == null) {
+				throw new Exception("port not found or not connected");
+			}
+		} else {
+			PortDefArray<InPortDef> inPorts = receiver
+					.getConnectedArrayInDefs().get(inPortName);
+			if (inPorts == null) {
+				throw new Exception("arrayport not found or not connected");
+			}
+			inPort = inPorts.get(index);
+			if (inPort == null) {
+				throw new Exception(
+						"index in arrayport not found or not connected");
+			}
+		}
+
+		return inPort;
+	}
+
+	private OutPortDef getConnectedOutPort(String senderName,
+			String outPortName, int index) throws Exception {
+		ComponentDef sender = componentDefs.get(senderName);
+		if (sender == null) {
+			throw new Exception("component not found");
+		}
+		OutPortDef outPort = sender.getOutPort(outPortName, index);
+		if (outPort == null) {
+			throw new Exception("port not found or not connected");
 		}
+		return outPort;
 	}
 }
@@ -0,0 +1,472 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.networkdef;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ws4d.df.api.comp.type.ComponentType;
+import org.ws4d.df.api.comp.type.ComponentTypeRegistry;
+import org.ws4d.df.api.comp.type.InPortType;
+import org.ws4d.df.api.comp.type.OutPortType;
+import org.ws4d.df.impl.runtime.ConnectionType;
+import org.ws4d.df.impl.runtime.KeyExtractor;
+import org.ws4d.df.impl.runtime.WaitStrategy;
+
+/**
+ * Binary file format of a {@link NetworkDef}. A file holds a table of all
+ * names, followed by the components with their in ports and then by the out
+ * ports of all components, which refer to names by their position in the
+ * table. Init packets and key extractors are stored in Java serialization.
+ * <p>
+ * Files are read from a memory-mapped buffer straight into component and port
+ * definitions. The definition is trusted to have been valid when it was
+ * written, only references that cannot be resolved are rejected.
+ * <p>
+ * Files must come from a trusted source. Reading the init packets and key
+ * extractors may instantiate any serializable class visible to the
+ * components, so a crafted file can run code. The checks of the counts only
+ * keep a truncated or damaged file from allocating huge arrays.
+ */
+public final class NetworkDefFile {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    // "DFND"
+    public static final int MAGIC = 0x44464e44;
+    public static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NONE = -1;
+    private static final byte CONNECTED = 0;
+    private static final byte INITIALIZER = 1;
+    // least bytes of a name and of a component with its out port count
+    private static final int MIN_NAME_BYTES = 4;
+    private static final int MIN_COMPONENT_BYTES = 25;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    private NetworkDefFile() {
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public static void write(NetworkDef networkDef, File file)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toBytes(networkDef));
+        } finally {
+            out.close();
+        }
+    }
+
+    public static byte[] toBytes(NetworkDef networkDef) throws IOException {
+        // Originals are followed by their replicas, so the order of the
+        // replicas is kept.
+        List<ComponentDef> componentDefs = new ArrayList<ComponentDef>();
+        for (ComponentDef componentDef : networkDef.getComponentDefs()
+                .values()) {
+            if (componentDef.getReplicaOf() == null) {
+                componentDefs.add(componentDef);
+                if (componentDef.getReplicas() != null) {
+                    componentDefs.addAll(componentDef.getReplicas());
+                }
+            }
+        }
+
+        Map<String, Integer> names = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(componentDefs.size());
+        for (ComponentDef componentDef : componentDefs) {
+            writeComponent(componentDef, out, names);
+        }
+        for (ComponentDef componentDef : componentDefs) {
+            List<OutPortDef> outPortDefs = componentDef.getConnectedOutDefs();
+            out.writeInt(outPortDefs.size());
+            for (OutPortDef outPortDef : outPortDefs) {
+                writeOutPort(outPortDef, out, names);
+            }
+        }
+        out.flush();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(
+                body.size() + 16 * names.size());
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(names.size());
+        for (String name : names.keySet()) {
+            writeBytes(name.getBytes(UTF_8), header);
+        }
+        header.flush();
+        body.writeTo(file);
+        return file.toByteArray();
+    }
+
+    /**
+     * Adds the components of the file to the empty network definition.
+     */
+    public static void read(File file, NetworkDef networkDef,
+            ComponentTypeRegistry registry) throws Exception {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            // The mapping stays valid after the file is closed.
+            randomAccessFile.close();
+        }
+        read(buffer, networkDef, registry);
+    }
+
+    public static void read(ByteBuffer buffer, NetworkDef networkDef,
+            ComponentTypeRegistry registry) throws Exception {
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+            throw new IOException("not a network definition file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported network definition version "
+                    + version);
+        }
+        ComponentDef[] componentDefs;
+        try {
+            String[] names = new String[readCount(buffer, MIN_NAME_BYTES)];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = new String(readBytes(buffer), UTF_8);
+            }
+
+            componentDefs = new ComponentDef[readCount(buffer,
+                    MIN_COMPONENT_BYTES)];
+            Map<String, ComponentDef> byId = new LinkedHashMap<String, ComponentDef>(
+                    componentDefs.length * 2);
+            for (int i = 0; i < componentDefs.length; i++) {
+                componentDefs[i] = readComponent(buffer, names, byId, registry);
+            }
+            for (ComponentDef componentDef : componentDefs) {
+                int outPorts = buffer.getInt();
+                for (int i = 0; i < outPorts; i++) {
+                    readOutPort(buffer, names, componentDef, byId);
+                }
+            }
+        } catch (RuntimeException e) {
+            // truncated buffer, reference out of range or unknown enum name
+            throw new IOException("corrupt network definition file", e);
+        }
+        // Nothing is added to the definition unless the whole file is read.
+        for (ComponentDef componentDef : componentDefs) {
+            networkDef.addLoadedComponent(componentDef);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static void writeComponent(ComponentDef componentDef,
+            DataOutputStream out, Map<String, Integer> names)
+            throws IOException {
+        out.writeInt(ref(componentDef.getId(), names));
+        out.writeInt(ref(componentDef.getComponentType().getComponentClass()
+                .getName(), names));
+        out.writeInt(componentDef.getParallelism());
+        out.writeBoolean(componentDef.isOrdered());
+        out.writeInt(componentDef.getReplicaOf() != null ? ref(componentDef
+                .getReplicaOf().getId(), names) : NONE);
+
+        List<InPortDef> inPortDefs = componentDef.getConnectedInDefs();
+        out.writeInt(inPortDefs.size());
+        for (InPortDef inPortDef : inPortDefs) {
+            out.writeInt(ref(inPortDef.getName(), names));
+            out.writeInt(inPortDef.getIndex());
+            if (inPortDef.isInitializer()) {
+                out.writeByte(INITIALIZER);
+                out.writeBoolean(inPortDef.isStatic());
+                writeBytes(serialize(inPortDef.getInitPacket(),
+                        componentDef.getId() + "." + inPortDef.getName()), out);
+            } else {
+                out.writeByte(CONNECTED);
+                out.writeBoolean(inPortDef.isCapacitySet());
+                out.writeInt(inPortDef.isCapacitySet() ? inPortDef
+                        .getCapacity() : 0);
+                out.writeLong(inPortDef.getByteCapacity());
+                out.writeInt(inPortDef.getBinaryCapacity());
+                out.writeInt(inPortDef.getWaitStrategy() != null ? ref(
+                        inPortDef.getWaitStrategy().name(), names) : NONE);
+            }
+        }
+    }
+
+    private static void writeOutPort(OutPortDef outPortDef,
+            DataOutputStream out, Map<String, Integer> names)
+            throws IOException {
+        out.writeInt(ref(outPortDef.getName(), names));
+        out.writeInt(outPortDef.getIndex());
+        ConnectionType connectionType = outPortDef.getConnectionType();
+        out.writeInt(ref(connectionType.getKind().name(), names));
+        if (connectionType.getKind() == ConnectionType.Kind.HASH_PARTITIONED) {
+            writeBytes(serialize(connectionType.getKeyExtractor(),
+                    outPortDef.getName()), out);
+        }
+        out.writeInt(outPortDef.getBatchSize());
+        out.writeLong(outPortDef.getFlushMicros());
+        out.writeInt(outPortDef.getTargetCount());
+        for (int t = 0; t < outPortDef.getTargetCount(); t++) {
+            out.writeInt(ref(outPortDef.getReceiverName(t), names));
+            out.writeInt(ref(outPortDef.getInPortName(t), names));
+            out.writeInt(outPortDef.getInIndex(t));
+        }
+    }
+
+    private static ComponentDef readComponent(ByteBuffer buffer,
+            String[] names, Map<String, ComponentDef> byId,
+            ComponentTypeRegistry registry) throws Exception {
+        String id = names[buffer.getInt()];
+        String className = names[buffer.getInt()];
+        ComponentType componentType = registry.get(loadClass(className));
+        if (componentType == null) {
+            throw new IOException("no component type for " + className);
+        }
+        ComponentDef componentDef = new ComponentDef(id, componentType);
+        componentDef.setParallelism(buffer.getInt());
+        componentDef.setOrdered(buffer.get() != 0);
+        int replicaOf = buffer.getInt();
+        if (replicaOf != NONE) {
+            ComponentDef original = byId.get(names[replicaOf]);
+            if (original == null) {
+                throw new IOException("replica before its component, name="
+                        + id);
+            }
+            original.addReplica(componentDef);
+        }
+        if (byId.put(id, componentDef) != null) {
+            throw new IOException("Component name must be unique, name=" + id);
+        }
+
+        int inPorts = buffer.getInt();
+        for (int i = 0; i < inPorts; i++) {
+            String name = names[buffer.getInt()];
+            int index = buffer.getInt();
+            InPortType portType = index == -1 ? componentType
+                    .getSingleInPorts().get(name) : componentType
+                    .getArrayInPorts().get(name);
+            if (portType == null) {
+                throw new IOException("no in port " + id + "." + name);
+            }
+            InPortDef inPortDef;
+            if (buffer.get() == INITIALIZER) {
+                boolean isStatic = buffer.get() != 0;
+                inPortDef = new InPortDef(portType, index,
+                        deserialize(readBytes(buffer), componentType),
+                        isStatic);
+            } else {
+                inPortDef = new InPortDef(portType, index);
+                boolean capacitySet = buffer.get() != 0;
+                int capacity = buffer.getInt();
+                if (capacitySet) {
+                    inPortDef.setCapacity(capacity);
+                }
+                inPortDef.setByteCapacity(buffer.getLong());
+                inPortDef.setBinaryCapacity(buffer.getInt());
+                int waitStrategy = buffer.getInt();
+                if (waitStrategy != NONE) {
+                    inPortDef.setWaitStrategy(WaitStrategy
+                            .valueOf(names[waitStrategy]));
+                }
+            }
+            componentDef.addInPortDef(inPortDef);
+        }
+        return componentDef;
+    }
+
+    private static void readOutPort(ByteBuffer buffer, String[] names,
+            ComponentDef sender, Map<String, ComponentDef> byId)
+            throws Exception {
+        String name = names[buffer.getInt()];
+        int index = buffer.getInt();
+        ComponentType componentType = sender.getComponentType();
+        ConnectionType connectionType = readConnectionType(buffer, names,
+                componentType);
+        int batchSize = buffer.getInt();
+        long flushMicros = buffer.getLong();
+        OutPortType portType = index == -1 ? componentType
+                .getSingleOutPorts().get(name) : componentType
+                .getArrayOutPorts().get(name);
+        if (portType == null) {
+            throw new IOException("no out port " + sender.getId() + "." + name);
+        }
+
+        OutPortDef outPortDef = null;
+        int targets = buffer.getInt();
+        for (int t = 0; t < targets; t++) {
+            String receiverName = names[buffer.getInt()];
+            String inPortName = names[buffer.getInt()];
+            int inIndex = buffer.getInt();
+            ComponentDef receiver = byId.get(receiverName);
+            InPortDef inPort = receiver != null ? receiver.getInPort(
+                    inPortName, inIndex) : null;
+            if (inPort == null) {
+                throw new IOException("no in port " + receiverName + "."
+                        + inPortName + " for " + sender.getId() + "." + name);
+            }
+            // Each target counts as a sender of its in port, like a connect.
+            inPort.addSender();
+            if (outPortDef == null) {
+                outPortDef = new OutPortDef(portType, index, receiverName,
+                        inPort, connectionType);
+            } else {
+                outPortDef.addTarget(receiverName, inPort);
+            }
+            inPort.addSenderPort(sender, outPortDef);
+        }
+        if (outPortDef == null) {
+            throw new IOException("out port without target "
+                    + sender.getId() + "." + name);
+        }
+        outPortDef.setBatchSize(batchSize);
+        outPortDef.setFlushMicros(flushMicros);
+        sender.addOutPortDef(outPortDef);
+    }
+
+    private static ConnectionType readConnectionType(ByteBuffer buffer,
+            String[] names, ComponentType componentType) throws Exception {
+        switch (ConnectionType.Kind.valueOf(names[buffer.getInt()])) {
+        case BROADCAST:
+            return ConnectionType.BROADCAST;
+        case ROUND_ROBIN:
+            return ConnectionType.ROUND_ROBIN;
+        case HASH_PARTITIONED:
+            return ConnectionType.hashPartitioned((KeyExtractor) deserialize(
+                    readBytes(buffer), componentType));
+        default:
+            return ConnectionType.POINT_TO_POINT;
+        }
+    }
+
+    private static int ref(String name, Map<String, Integer> names) {
+        Integer ref = names.get(name);
+        if (ref == null) {
+            ref = names.size();
+            names.put(name, ref);
+        }
+        return ref;
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutputStream out)
+            throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[readCount(buffer, 1)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the number of the following entries, which take at least the
+     * given number of bytes each. A corrupt count fails here instead of
+     * allocating more than the buffer could hold.
+     */
+    private static int readCount(ByteBuffer buffer, int minEntryBytes)
+            throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minEntryBytes) {
+            throw new IOException("corrupt network definition file, count "
+                    + count + " exceeds the remaining " + buffer.remaining()
+                    + " bytes");
+        }
+        return count;
+    }
+
+    private static byte[] serialize(Object packet, String port)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(packet);
+            out.close();
+        } catch (IOException e) {
+            throw new IOException("packet of " + port
+                    + " cannot be serialized", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Resolves the classes of the packet by the class loader of the
+     * component, which may differ from the loader of the runtime.
+     */
+    private static Object deserialize(byte[] bytes,
+            final ComponentType componentType) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes)) {
+            @Override
+            protected Class<?> resolveClass(java.io.ObjectStreamClass desc)
+                    throws IOException, ClassNotFoundException {
+                ClassLoader loader = componentType.getComponentClass()
+                        .getClassLoader();
+                if (loader != null) {
+                    try {
+                        return Class.forName(desc.getName(), false, loader);
+                    } catch (ClassNotFoundException e) {
+                        // fall back to the default lookup
+                    }
+                }
+                return super.resolveClass(desc);
+            }
+        };
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Class<?> loadClass(String className)
+            throws ClassNotFoundException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = NetworkDefFile.class.getClassLoader();
+        }
+        return Class.forName(className, false, loader);
+    }
+}
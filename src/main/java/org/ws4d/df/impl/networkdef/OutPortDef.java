@@ -15,7 +15,11 @@
  */
 package org.ws4d.df.impl.networkdef;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.ws4d.df.api.comp.type.OutPortType;
+import org.ws4d.df.impl.runtime.ConnectionType;
 
 public class OutPortDef {
 
@@ -23,20 +27,30 @@ public class OutPortDef {
     // instance members
     // -------------------------------------------------------------------------
 
-    private final String receiverName;
+    private final List<String> receiverNames = new ArrayList<String>(1);
     private final OutPortType portType;
-    private final InPortDef inPort;
+    private final List<InPortDef> inPorts = new ArrayList<InPortDef>(1);
     private final int index;
+    private ConnectionType connectionType;
+    // 0 unless packets are sent in batches of up to this size
+    private int batchSize = 0;
+    private long flushMicros = 0;
 
     // -------------------------------------------------------------------------
     // constructors
     // -------------------------------------------------------------------------
 
     public OutPortDef(OutPortType portType, int index, String receiverName, InPortDef inPort) {
-        this.receiverName = receiverName;
+        this(portType, index, receiverName, inPort,
+                ConnectionType.POINT_TO_POINT);
+    }
+
+    public OutPortDef(OutPortType portType, int index, String receiverName,
+            InPortDef inPort, ConnectionType connectionType) {
         this.portType = portType;
         this.index = index;
-        this.inPort = inPort;
+        this.connectionType = connectionType;
+        addTarget(receiverName, inPort);
     }
 
     // -------------------------------------------------------------------------
@@ -52,18 +66,83 @@ public class OutPortDef {
     }
 
     public String getReceiverName() {
-        return receiverName;
+        return getReceiverName(0);
     }
 
     public String getInPortName() {
-        return inPort.getName();
+        return getInPortName(0);
     }
 
     public int getInIndex() {
-        return inPort.getIndex();
+        return getInIndex(0);
+    }
+
+    public ConnectionType getConnectionType() {
+        return connectionType;
+    }
+
+    public void setConnectionType(ConnectionType connectionType) {
+        this.connectionType = connectionType;
+    }
+
+    public boolean isBatching() {
+        return batchSize > 1;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Time the oldest packet of a batch may wait before the batch is flushed,
+     * 0 to flush only full batches and on close.
+     */
+    public long getFlushMicros() {
+        return flushMicros;
+    }
+
+    public void setFlushMicros(long flushMicros) {
+        this.flushMicros = flushMicros;
+    }
+
+    public int getTargetCount() {
+        return inPorts.size();
+    }
+
+    public String getReceiverName(int target) {
+        return receiverNames.get(target);
+    }
+
+    public String getInPortName(int target) {
+        return inPorts.get(target).getName();
+    }
+
+    public int getInIndex(int target) {
+        return inPorts.get(target).getIndex();
+    }
+
+    public InPortDef getInPort(int target) {
+        return inPorts.get(target);
     }
 
     public OutPortType getPortType() {
         return portType;
     }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public boolean isTarget(InPortDef inPort) {
+        return inPorts.contains(inPort);
+    }
+
+    public void addTarget(String receiverName, InPortDef inPort) {
+        receiverNames.add(receiverName);
+        inPorts.add(inPort);
+    }
 }
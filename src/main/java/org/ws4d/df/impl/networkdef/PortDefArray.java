@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.networkdef;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The defs of the connected indices of one array port, stored densely by
+ * index instead of in a map of boxed indices.
+ */
+public class PortDefArray<T> implements Iterable<T> {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private Object[] defs = new Object[4];
+    // highest index + 1
+    private int length = 0;
+    // number of indices with a def
+    private int size = 0;
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns null if the index is not connected.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        return index >= 0 && index < length ? (T) defs[index] : null;
+    }
+
+    public void set(int index, T def) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("negative port index "
+                    + index);
+        }
+        if (index >= defs.length) {
+            defs = Arrays.copyOf(defs, Math.max(defs.length * 2, index + 1));
+        }
+        if (defs[index] == null) {
+            size++;
+        }
+        defs[index] = def;
+        length = Math.max(length, index + 1);
+    }
+
+    /**
+     * Number of connected indices.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Highest connected index + 1.
+     */
+    public int length() {
+        return length;
+    }
+
+    public boolean hasGaps() {
+        return size != length;
+    }
+
+    // -------------------------------------------------------------------------
+    // Iterable interface
+    // -------------------------------------------------------------------------
+
+    /**
+     * Iterates the defs in the order of their indices.
+     */
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            private int next = skipGaps(0);
+
+            public boolean hasNext() {
+                return next < length;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (next >= length) {
+                    throw new NoSuchElementException();
+                }
+                T def = (T) defs[next];
+                next = skipGaps(next + 1);
+                return def;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private int skipGaps(int index) {
+        while (index < length && defs[index] == null) {
+            index++;
+        }
+        return index;
+    }
+}
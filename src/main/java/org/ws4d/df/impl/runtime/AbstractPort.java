@@ -15,10 +15,12 @@
  */
 package org.ws4d.df.impl.runtime;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.ws4d.df.api.comp.ComponentContext;
+import org.ws4d.df.api.comp.InPort;
 import org.ws4d.df.api.comp.Port;
 
 public abstract class AbstractPort implements Port {
@@ -30,7 +32,7 @@ public abstract class AbstractPort implements Port {
     private final String name;
     private final int index;
     protected final RtComponent component;
-    private boolean isClosed = false;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
 
     // -------------------------------------------------------------------------
     // constructors
@@ -47,7 +49,7 @@ public abstract class AbstractPort implements Port {
     // -------------------------------------------------------------------------
     
     public void reset() {
-        isClosed = false;
+        isClosed.set(false);
     }
 
     // -------------------------------------------------------------------------
@@ -67,20 +69,32 @@ public abstract class AbstractPort implements Port {
     }
 
     public void close() {
-        isClosed = true;
-        if (component.getRtNetwork().getPortTracer() != null) {
-        	component.getRtNetwork().getPortTracer().port_close(this);
-        }
+        markClosed();
     }
 
     public boolean isClosed() {
-        return isClosed;
+        return isClosed.get();
     }
 
     // -------------------------------------------------------------------------
     // private
     // -------------------------------------------------------------------------
     
+    /**
+     * Closes this port. Returns false if it has already been closed, so that
+     * subclasses can run their close actions exactly once.
+     */
+    protected boolean markClosed() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return false;
+        }
+        component.portClosed(this instanceof InPort);
+        if (component.getRtNetwork().getPortTracer() != null) {
+            component.getRtNetwork().getPortTracer().port_close(this);
+        }
+        return true;
+    }
+
     protected void logException(Level level, String msg, Exception e) {
     	Logger logger = component.getLogger();
     	if (logger != null) {
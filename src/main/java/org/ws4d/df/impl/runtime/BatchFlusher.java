@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Flushes the batches of {@link RtBatchingOutPort}s whose oldest packet has
+ * waited for the flush interval of the port. One daemon thread per network
+ * checks all registered ports while the network runs, and it never waits for
+ * a full in port. The thread parks without a timeout while no port holds a
+ * pending batch, and it ends with the run, so an idle network holds none.
+ */
+public class BatchFlusher implements Runnable {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final String networkId;
+    private final List<RtBatchingOutPort> ports = new CopyOnWriteArrayList<RtBatchingOutPort>();
+    private volatile long tickNanos = Long.MAX_VALUE;
+    // ports holding at least one packet
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+    // set while the thread parks until a batch opens
+    private volatile boolean idle = false;
+    // the thread of the current run, null between runs
+    private volatile Thread thread = null;
+    private boolean terminated = false;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public BatchFlusher(String networkId) {
+        this.networkId = networkId;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Registers a port with a flush interval.
+     */
+    public synchronized void register(RtBatchingOutPort port) {
+        ports.add(port);
+        // check twice per interval, so no packet waits much longer than it
+        tickNanos = Math.min(tickNanos, Math.max(port.getFlushNanos() / 2,
+                1000L));
+        port.setFlusher(this);
+    }
+
+    /**
+     * Starts the thread for a run of the network.
+     */
+    public synchronized void start() {
+        if (thread == null && !terminated && !ports.isEmpty()) {
+            thread = new Thread(this, "BatchFlusher-" + networkId);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Ends the thread of the current run. Ports closed by the run have
+     * flushed their batches.
+     */
+    public synchronized void stop() {
+        Thread current = thread;
+        thread = null;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    /**
+     * Ends the thread for good.
+     */
+    public synchronized void shutdown() {
+        terminated = true;
+        stop();
+    }
+
+    /**
+     * Called by a port when the first packet enters its empty batch.
+     */
+    void batchOpened() {
+        pendingBatches.incrementAndGet();
+        if (idle) {
+            Thread current = thread;
+            if (current != null) {
+                LockSupport.unpark(current);
+            }
+        }
+    }
+
+    /**
+     * Called by a port when its batch has been emptied.
+     */
+    void batchClosed() {
+        pendingBatches.decrementAndGet();
+    }
+
+    public void run() {
+        Thread current = Thread.currentThread();
+        while (thread == current) {
+            if (pendingBatches.get() == 0) {
+                idle = true;
+                // batchOpened reads idle after counting, so either side sees
+                // the other
+                if (pendingBatches.get() == 0 && thread == current) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                continue;
+            }
+            LockSupport.parkNanos(this, tickNanos);
+            long now = System.nanoTime();
+            for (RtBatchingOutPort port : ports) {
+                port.flushIfStale(now);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.List;
+
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * Port tracer that is notified once per batch moved by
+ * {@link BatchOutPort#sendAll} and {@link BatchInPort#drainTo}. Plain
+ * {@link PortTracer}s get one callback per packet instead.
+ */
+public interface BatchPortTracer extends PortTracer {
+
+    void port_sendAll(OutPort outPort, List<Object> packets);
+
+    void port_recvAll(InPort inPort, List<Object> packets);
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Number of bytes that the packets queued in one in port, or in all in ports
+ * of a network, may keep alive. A packet is always admitted if nothing is
+ * held, so a packet larger than the budget can not block a connection
+ * forever.
+ */
+public class ByteBudget {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final long capacity;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+    // Threads waiting for bytes to be released
+    private final ConcurrentLinkedQueue<Thread> waitingThreads = new ConcurrentLinkedQueue<Thread>();
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public ByteBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public boolean tryAcquire(long bytes) {
+        return tryAcquire(bytes, false);
+    }
+
+    /**
+     * @param force admit the bytes even if they exceed the budget
+     */
+    public boolean tryAcquire(long bytes, boolean force) {
+        while (true) {
+            long current = used.get();
+            if (!force && current > 0 && current + bytes > capacity) {
+                return false;
+            }
+            if (used.compareAndSet(current, current + bytes)) {
+                long newUsed = current + bytes;
+                long mark = highWaterMark.get();
+                while (newUsed > mark
+                        && !highWaterMark.compareAndSet(mark, newUsed)) {
+                    mark = highWaterMark.get();
+                }
+                return true;
+            }
+        }
+    }
+
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+        if (!waitingThreads.isEmpty()) {
+            for (Thread thread : waitingThreads) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Releases up to the given number of bytes, no more than are held, and
+     * returns how many were released.
+     */
+    public long releaseAtMost(long bytes) {
+        while (true) {
+            long current = used.get();
+            long released = Math.min(current, bytes);
+            if (released <= 0) {
+                return 0;
+            }
+            if (used.compareAndSet(current, current - released)) {
+                release(0);
+                return released;
+            }
+        }
+    }
+
+    /**
+     * Releases all bytes and returns how many were held.
+     */
+    public long releaseAll() {
+        long bytes = used.getAndSet(0);
+        release(0);
+        return bytes;
+    }
+
+    public void addWaitingThread(Thread thread) {
+        waitingThreads.add(thread);
+    }
+
+    public void removeWaitingThread(Thread thread) {
+        waitingThreads.remove(thread);
+    }
+}
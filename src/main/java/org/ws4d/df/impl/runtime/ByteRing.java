@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Single-producer/single-consumer ring of binary packets in one preallocated
+ * direct buffer. The producer copies a packet into contiguous free space and
+ * gets a view of it, the consumer releases the views in the order they were
+ * written. A packet that does not fit before the end of the buffer starts at
+ * its beginning, and the skipped bytes are freed together with it.
+ */
+public final class ByteRing {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    // end positions and views of the unreleased packets by sequence number
+    private final long[] ends;
+    private final ByteBuffer[] views;
+    private final int mask;
+    // written by the producer only
+    private volatile long tail;
+    private long written;
+    private volatile long highWaterMark;
+    // written by the consumer only
+    private volatile long head;
+    private volatile long released;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    /**
+     * @param maxPackets number of packets that may be written but not yet
+     *            released
+     */
+    public ByteRing(int capacity, int maxPackets) {
+        if (capacity < 1 || maxPackets < 1) {
+            throw new IllegalArgumentException("capacity must be positive: "
+                    + capacity + ", " + maxPackets);
+        }
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.capacity = capacity;
+        int size = Integer.highestOneBit(maxPackets);
+        if (size < maxPackets) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.ends = new long[size];
+        this.views = new ByteBuffer[size];
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Bytes held by unreleased packets, including skipped bytes.
+     */
+    public long getBytesHeld() {
+        long currentHead = head;
+        return tail - currentHead;
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Copies the remaining bytes of a byte[] or {@link ByteBuffer} into the
+     * ring and returns a view of them, or null if there is not enough space.
+     * The position of a given buffer is not changed.
+     */
+    public ByteBuffer tryWrite(Object packet) {
+        int length;
+        if (packet instanceof byte[]) {
+            length = ((byte[]) packet).length;
+        } else if (packet instanceof ByteBuffer) {
+            length = ((ByteBuffer) packet).remaining();
+        } else {
+            throw new IllegalArgumentException(
+                    "binary connections carry byte[] and ByteBuffer only: "
+                            + (packet == null ? null : packet.getClass()));
+        }
+        if (length > capacity) {
+            throw new IllegalArgumentException("packet of " + length
+                    + " bytes exceeds the binary capacity " + capacity);
+        }
+        if (written - released > mask) {
+            return null;
+        }
+        long currentTail = tail;
+        int start = (int) (currentTail % capacity);
+        int skip = start + length > capacity ? capacity - start : 0;
+        long end = currentTail + skip + length;
+        if (end - head > capacity) {
+            return null;
+        }
+        if (skip > 0) {
+            start = 0;
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        view.limit(start + length);
+        view.position(start);
+        view = view.slice();
+        if (packet instanceof byte[]) {
+            view.put((byte[]) packet);
+        } else {
+            view.put(((ByteBuffer) packet).duplicate());
+        }
+        view.flip();
+
+        int slot = (int) written & mask;
+        ends[slot] = end;
+        views[slot] = view;
+        written++;
+        tail = end;
+        long held = end - head;
+        if (held > highWaterMark) {
+            highWaterMark = held;
+        }
+        return view;
+    }
+
+    /**
+     * Frees the oldest unreleased packet, which must be the given view.
+     */
+    public void release(ByteBuffer view) {
+        long seq = released;
+        int slot = (int) seq & mask;
+        if (view == null || views[slot] != view) {
+            throw new IllegalStateException(
+                    "binary packets must be released once and in the order received");
+        }
+        views[slot] = null;
+        head = ends[slot];
+        released = seq + 1;
+    }
+
+    /**
+     * Frees all packets. Neither side may access the ring concurrently.
+     */
+    public void clear() {
+        Arrays.fill(views, null);
+        head = tail;
+        released = written;
+    }
+}
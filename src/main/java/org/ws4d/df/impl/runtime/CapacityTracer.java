@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * Port tracer that is also told when an in port with adaptive capacity
+ * changes its capacity, see {@link CapacityTuner}.
+ */
+public interface CapacityTracer extends PortTracer {
+
+    void port_capacityChanged(InPort inPort, int oldCapacity, int newCapacity);
+}
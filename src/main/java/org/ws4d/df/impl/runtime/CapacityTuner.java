@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapts the capacity of in ports to the backpressure observed on them. Each
+ * adaptive in port reports, once per interval, how long its senders were
+ * blocked on a full queue, how long its receiver waited on an empty one and
+ * the lowest and highest queue size its receiver saw:
+ * <ul>
+ * <li>If senders blocked while the receiver drained the queue at times, the
+ * capacity is doubled so the queue can absorb bursts.</li>
+ * <li>If senders blocked and the queue never ran low, the receiver is the
+ * bottleneck and a larger queue only adds latency, so the capacity is
+ * halved.</li>
+ * <li>If senders never blocked and the queue stayed below a quarter of its
+ * capacity, the capacity is halved.</li>
+ * </ul>
+ * Capacities stay within the minimum and maximum, and the sum of the
+ * capacities of all adaptive ports stays within the total capacity.
+ */
+public class CapacityTuner {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    public static final long DEFAULT_INTERVAL_NANOS = 10000000L;
+
+    // share of the interval senders must have been blocked to count as
+    // stalled
+    private static final int STALL_RATIO = 20;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final int minCapacity;
+    private final int maxCapacity;
+    // Long.MAX_VALUE if the capacities are not bounded in total
+    private final long totalCapacity;
+    private final long intervalNanos;
+    private final AtomicLong allocated = new AtomicLong();
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public CapacityTuner(int minCapacity, int maxCapacity, long totalCapacity) {
+        this(minCapacity, maxCapacity, totalCapacity, DEFAULT_INTERVAL_NANOS);
+    }
+
+    /**
+     * @param totalCapacity bound of the summed capacities, 0 for none
+     */
+    public CapacityTuner(int minCapacity, int maxCapacity, long totalCapacity,
+            long intervalNanos) {
+        if (minCapacity < 1 || maxCapacity < minCapacity) {
+            throw new IllegalArgumentException("invalid capacity range: "
+                    + minCapacity + ".." + maxCapacity);
+        }
+        this.minCapacity = minCapacity;
+        this.maxCapacity = maxCapacity;
+        this.totalCapacity = totalCapacity > 0 ? totalCapacity
+                : Long.MAX_VALUE;
+        this.intervalNanos = intervalNanos;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public int getMinCapacity() {
+        return minCapacity;
+    }
+
+    public int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Sum of the capacities of all adaptive in ports.
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Registers an in port and returns its initial capacity. The minimum
+     * capacity is granted even if it exceeds the total capacity.
+     */
+    public int register(int capacity) {
+        int initial = Math.max(minCapacity, Math.min(maxCapacity, capacity));
+        allocated.addAndGet(minCapacity);
+        long granted = reserve(initial - minCapacity);
+        return minCapacity + (int) granted;
+    }
+
+    /**
+     * Returns the new capacity of an in port for the backpressure observed in
+     * the last interval, after reserving or releasing the difference.
+     */
+    public int adapt(int capacity, long blockedSendNanos,
+            long blockedReceiveNanos, int lowWaterMark, int highWaterMark,
+            long elapsedNanos) {
+        boolean stalled = blockedSendNanos * STALL_RATIO > elapsedNanos;
+        int target = capacity;
+        if (stalled) {
+            if (blockedReceiveNanos > 0 || lowWaterMark <= 1) {
+                target = capacity * 2;
+            } else if (lowWaterMark > capacity / 2) {
+                target = capacity / 2;
+            }
+        } else if (blockedSendNanos == 0 && highWaterMark < capacity / 4) {
+            target = capacity / 2;
+        }
+        target = Math.max(minCapacity, Math.min(maxCapacity, target));
+        if (target > capacity) {
+            return capacity + (int) reserve(target - capacity);
+        }
+        if (target < capacity) {
+            allocated.addAndGet(target - capacity);
+        }
+        return target;
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private long reserve(long wanted) {
+        while (true) {
+            long current = allocated.get();
+            long granted = Math.max(0,
+                    Math.min(wanted, totalCapacity - current));
+            if (granted == 0
+                    || allocated.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+    }
+}
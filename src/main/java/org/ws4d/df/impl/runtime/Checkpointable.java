@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.io.Serializable;
+
+/**
+ * Implemented by components whose state is saved by a {@link Checkpointer}.
+ * <p>
+ * Other components are paused only between two executes or while they wait
+ * for the first packet of an execute, so a restored checkpoint never holds
+ * half of an execute of theirs. A Checkpointable component may also be
+ * paused inside an execute that has received or sent packets, at the end of
+ * a send or while it waits for a packet, so its state must account for every
+ * packet sent and received so far. Components that do not return from
+ * execute() while they send, like most active ones, have to be
+ * Checkpointable, checkpoints time out otherwise.
+ */
+public interface Checkpointable {
+
+    /**
+     * Returns the state of the component. Called while the network is
+     * paused; the state is serialized after the network has been resumed, so
+     * mutable state must be copied.
+     */
+    Serializable checkpoint();
+
+    /**
+     * Sets the state returned by {@link #checkpoint()}. Called before the
+     * network is started.
+     */
+    void restore(Serializable state);
+}
@@ -0,0 +1,557 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.ws4d.df.api.comp.Component;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.comp.Port;
+
+/**
+ * Takes checkpoints of a running network and restores the latest one into a
+ * network that has not been started yet.
+ * <p>
+ * A checkpoint pauses every component between two executes or while it
+ * waits for the first packet of an execute, {@link Checkpointable}
+ * components also at the end of a send or while they wait for any packet.
+ * Senders that find a full queue meanwhile put their packets aside instead
+ * of waiting, so no component waits for a paused one. While the network is
+ * paused, the queued packets, the states of {@link Checkpointable}
+ * components and the closed ports are collected. They are serialized and
+ * written by a background thread after the network has been resumed, so
+ * packets must not be modified once they have been sent.
+ * <p>
+ * All checkpoints of a checkpointer go to one file. Entries that have not
+ * changed since the previous checkpoint are written as references to it. A
+ * checkpoint counts once it has been written completely, a restore uses the
+ * latest complete one.
+ * <p>
+ * Only networks of plain connections are supported: no fused, ordered,
+ * batching, primitive or binary ports, no byte capacities and no packet
+ * pool.
+ * <p>
+ * Checkpoint files must come from a trusted source. States and packets are
+ * restored with Java serialization, which may instantiate any serializable
+ * class visible to the components, so a crafted file can run code.
+ */
+public class Checkpointer {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    // "DFCP"
+    public static final int MAGIC = 0x44464350;
+    public static final int VERSION = 1;
+    public static final long DEFAULT_PAUSE_TIMEOUT_MILLIS = 10000;
+
+    private static final int CHECKPOINT = 0x43504e54;
+    private static final int COMMIT = 0x434d4954;
+    private static final byte STATE = 0;
+    private static final byte PACKETS = 1;
+    private static final byte CLOSED_IN_PORT = 2;
+    private static final byte CLOSED_OUT_PORT = 3;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final RtNetwork rtNetwork;
+    private final DataOutputStream out;
+    private final ExecutorService writer;
+    private long pauseTimeoutMillis = DEFAULT_PAUSE_TIMEOUT_MILLIS;
+    // guarded by this
+    private long nextId = 1;
+    private boolean closed = false;
+    // digests of the entries of the last checkpoint written, and the first
+    // write error, only used by the writer thread
+    private Map<String, byte[]> digests = new HashMap<String, byte[]>();
+    private IOException writeError = null;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Creates or overwrites the given file.
+     */
+    public Checkpointer(RtNetwork rtNetwork, File file) throws IOException {
+        assertSupported(rtNetwork);
+        this.rtNetwork = rtNetwork;
+        out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+        final String name = "Checkpointer-" + rtNetwork.getNetworkId();
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public long getPauseTimeoutMillis() {
+        return pauseTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a checkpoint waits for all components to reach a safe
+     * point. The components that got there wait as well.
+     */
+    public void setPauseTimeoutMillis(long pauseTimeoutMillis) {
+        if (pauseTimeoutMillis < 1) {
+            throw new IllegalArgumentException(
+                    "pause timeout must be positive");
+        }
+        this.pauseTimeoutMillis = pauseTimeoutMillis;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Pauses the network, collects the checkpoint and resumes the network.
+     * The returned future yields the number of the checkpoint once it has
+     * been written.
+     *
+     * @throws TimeoutException if the components did not reach a safe point
+     *             within the pause timeout, the network runs on then
+     */
+    public synchronized Future<Long> checkpoint() throws TimeoutException {
+        if (closed) {
+            throw new IllegalStateException("checkpointer is closed");
+        }
+        if (!rtNetwork.pause(TimeUnit.MILLISECONDS
+                .toNanos(pauseTimeoutMillis))) {
+            throw new TimeoutException("network did not pause within "
+                    + pauseTimeoutMillis + " ms");
+        }
+        final List<Entry> entries = new ArrayList<Entry>();
+        try {
+            collect(entries);
+        } finally {
+            rtNetwork.resume();
+        }
+        final long id = nextId++;
+        return writer.submit(new Callable<Long>() {
+            public Long call() throws IOException {
+                write(id, entries);
+                return id;
+            }
+        });
+    }
+
+    /**
+     * Waits for the pending checkpoints to be written and closes the file.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+    }
+
+    /**
+     * Restores the latest complete checkpoint of the given file into a
+     * network built from the same definition. The network must not be
+     * running. Returns the number of the checkpoint, or 0 if the file holds
+     * none. The file must be trusted, see above.
+     */
+    public static long restore(RtNetwork rtNetwork, File file)
+            throws Exception {
+        assertSupported(rtNetwork);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024));
+        long id = 0;
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a checkpoint file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported checkpoint version "
+                        + version);
+            }
+            while (true) {
+                Map<String, Entry> next = new LinkedHashMap<String, Entry>();
+                long nextId;
+                try {
+                    nextId = readCheckpoint(in, entries, next);
+                } catch (EOFException e) {
+                    // the last checkpoint has not been written completely
+                    break;
+                }
+                if (nextId < 0) {
+                    break;
+                }
+                id = nextId;
+                entries = next;
+            }
+        } finally {
+            in.close();
+        }
+        if (id > 0) {
+            apply(rtNetwork, entries.values());
+        }
+        return id;
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static void assertSupported(RtNetwork rtNetwork) {
+        if (rtNetwork.getByteBudget() != null) {
+            throw new UnsupportedOperationException(
+                    "Checkpoints do not support byte capacities.");
+        }
+        if (rtNetwork.getPacketPool() != null) {
+            throw new UnsupportedOperationException(
+                    "Checkpoints do not support pooled packets.");
+        }
+        for (RtComponent rtComponent : rtNetwork.getRtComponents().values()) {
+            for (InPort inPort : rtComponent.getAllInPorts()) {
+                Class<?> type = inPort.getClass();
+                if (type == RtInPort.class
+                        && !((RtInPort) inPort).hasByteCapacity()
+                        || type == RtInitPort.class
+                        || type == RtNullPort.class) {
+                    continue;
+                }
+                throw new UnsupportedOperationException(
+                        "Checkpoints do not support the in port "
+                                + portKey(rtComponent, inPort));
+            }
+            for (OutPort outPort : rtComponent.getAllOutPorts()) {
+                Class<?> type = outPort.getClass();
+                if (type != RtOutPort.class && type != RtFanOutPort.class
+                        && type != RtNullPort.class) {
+                    throw new UnsupportedOperationException(
+                            "Checkpoints do not support the out port "
+                                    + portKey(rtComponent, outPort));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the entries while the network is paused.
+     */
+    private void collect(List<Entry> entries) {
+        for (RtComponent rtComponent : rtNetwork.getRtComponents().values()) {
+            Component component = rtComponent.getComponent();
+            if (component instanceof Checkpointable) {
+                entries.add(new Entry(STATE, rtComponent.getComponentId(),
+                        ((Checkpointable) component).checkpoint()));
+            }
+            for (InPort inPort : rtComponent.getAllInPorts()) {
+                if (inPort instanceof RtInPort) {
+                    Object[] packets = ((RtInPort) inPort).snapshotPackets();
+                    if (packets.length > 0) {
+                        entries.add(new Entry(PACKETS, portKey(rtComponent,
+                                inPort), packets));
+                    }
+                }
+                if (inPort.isClosed() && !(inPort instanceof RtNullPort)) {
+                    entries.add(new Entry(CLOSED_IN_PORT, portKey(
+                            rtComponent, inPort), null));
+                }
+            }
+            for (OutPort outPort : rtComponent.getAllOutPorts()) {
+                if (outPort.isClosed() && !(outPort instanceof RtNullPort)) {
+                    entries.add(new Entry(CLOSED_OUT_PORT, portKey(
+                            rtComponent, outPort), null));
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes all entries before writing, so a packet that cannot be
+     * serialized leaves no partial checkpoint in the file.
+     */
+    private void write(long id, List<Entry> entries) throws IOException {
+        if (writeError != null) {
+            throw new IOException("checkpoint file is broken", writeError);
+        }
+        MessageDigest messageDigest = newDigest();
+        Map<String, byte[]> nextDigests = new HashMap<String, byte[]>(
+                entries.size() * 2);
+        List<byte[]> changed = new ArrayList<byte[]>(entries.size());
+        for (Entry entry : entries) {
+            byte[] bytes = entry.value != null ? serialize(entry.value, entry)
+                    : NO_BYTES;
+            byte[] digest = messageDigest.digest(bytes);
+            nextDigests.put(entry.mapKey(), digest);
+            byte[] previous = digests.get(entry.mapKey());
+            changed.add(previous != null
+                    && MessageDigest.isEqual(previous, digest) ? null : bytes);
+        }
+        try {
+            out.writeInt(CHECKPOINT);
+            out.writeLong(id);
+            out.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                byte[] bytes = changed.get(i);
+                out.writeByte(entry.kind);
+                out.writeUTF(entry.key);
+                out.writeBoolean(bytes != null);
+                if (bytes != null) {
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            out.writeInt(COMMIT);
+            out.flush();
+        } catch (IOException e) {
+            writeError = e;
+            throw e;
+        }
+        digests = nextDigests;
+    }
+
+    /**
+     * Reads the next checkpoint into the given map, taking unchanged entries
+     * from the previous checkpoint. Returns its number, or -1 at the end of
+     * the file.
+     */
+    private static long readCheckpoint(DataInputStream in,
+            Map<String, Entry> previous, Map<String, Entry> next)
+            throws IOException {
+        int marker;
+        try {
+            marker = in.readInt();
+        } catch (EOFException e) {
+            return -1;
+        }
+        if (marker != CHECKPOINT) {
+            throw new IOException("corrupt checkpoint file");
+        }
+        long id = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(in.readByte(), in.readUTF(), null);
+            if (in.readBoolean()) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                entry.bytes = bytes;
+            } else {
+                Entry unchanged = previous.get(entry.mapKey());
+                if (unchanged == null) {
+                    throw new IOException("checkpoint " + id
+                            + " refers to a missing entry " + entry.key);
+                }
+                entry.bytes = unchanged.bytes;
+            }
+            next.put(entry.mapKey(), entry);
+        }
+        if (in.readInt() != COMMIT) {
+            throw new IOException("corrupt checkpoint file");
+        }
+        return id;
+    }
+
+    private static void apply(RtNetwork rtNetwork, Iterable<Entry> entries)
+            throws Exception {
+        Map<String, RtComponent> rtComponents = rtNetwork.getRtComponents();
+        Map<String, InPort> inPorts = new HashMap<String, InPort>();
+        Map<String, OutPort> outPorts = new HashMap<String, OutPort>();
+        for (RtComponent rtComponent : rtComponents.values()) {
+            for (InPort inPort : rtComponent.getAllInPorts()) {
+                inPorts.put(portKey(rtComponent, inPort), inPort);
+            }
+            for (OutPort outPort : rtComponent.getAllOutPorts()) {
+                outPorts.put(portKey(rtComponent, outPort), outPort);
+            }
+        }
+
+        rtNetwork.prepareRestore();
+        Set<RtComponent> woken = new LinkedHashSet<RtComponent>();
+        List<Port> closedPorts = new ArrayList<Port>();
+        for (Entry entry : entries) {
+            if (entry.kind == STATE) {
+                RtComponent rtComponent = rtComponents.get(entry.key);
+                if (rtComponent == null
+                        || !(rtComponent.getComponent() instanceof Checkpointable)) {
+                    throw new Exception("no checkpointable component "
+                            + entry.key);
+                }
+                ((Checkpointable) rtComponent.getComponent())
+                        .restore((Serializable) deserialize(entry.bytes,
+                                rtComponent));
+            } else if (entry.kind == PACKETS) {
+                InPort inPort = inPorts.get(entry.key);
+                if (!(inPort instanceof RtInPort)) {
+                    throw new Exception("no in port " + entry.key);
+                }
+                RtInPort rtInPort = (RtInPort) inPort;
+                rtInPort.restorePackets((Object[]) deserialize(entry.bytes,
+                        rtInPort.getReceiver()));
+                woken.add(rtInPort.getReceiver());
+            } else {
+                Port port = entry.kind == CLOSED_IN_PORT ? inPorts
+                        .get(entry.key) : outPorts.get(entry.key);
+                if (port == null) {
+                    throw new Exception("no port " + entry.key);
+                }
+                closedPorts.add(port);
+            }
+        }
+        // Out ports first, so receivers drain their restored packets before
+        // they close.
+        for (Port port : closedPorts) {
+            if (port instanceof OutPort) {
+                port.close();
+            }
+        }
+        for (Port port : closedPorts) {
+            if (port instanceof InPort) {
+                port.close();
+            }
+        }
+        for (RtComponent rtComponent : woken) {
+            rtNetwork.addRestoredComponent(rtComponent);
+        }
+    }
+
+    private static String portKey(RtComponent rtComponent, Port port) {
+        String key = rtComponent.getComponentId() + "." + port.getName();
+        return port.getIndex() >= 0 ? key + "[" + port.getIndex() + "]" : key;
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (Exception e) {
+            throw new IOException("no SHA-1 digest", e);
+        }
+    }
+
+    private static byte[] serialize(Object value, Entry entry)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+        } catch (IOException e) {
+            throw new IOException((entry.kind == STATE ? "state of "
+                    : "packets of ") + entry.key + " cannot be serialized", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Resolves classes by the class loader of the component, which may
+     * differ from the loader of the runtime.
+     */
+    private static Object deserialize(byte[] bytes, RtComponent rtComponent)
+            throws Exception {
+        final ClassLoader loader = rtComponent.getComponent().getClass()
+                .getClassLoader();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc)
+                    throws IOException, ClassNotFoundException {
+                if (loader != null) {
+                    try {
+                        return Class.forName(desc.getName(), false, loader);
+                    } catch (ClassNotFoundException e) {
+                        // fall back to the default lookup
+                    }
+                }
+                return super.resolveClass(desc);
+            }
+        };
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Entry {
+
+        private final byte kind;
+        private final String key;
+        // null for a closed port
+        private final Object value;
+        // set when read
+        private byte[] bytes;
+
+        Entry(byte kind, String key, Object value) {
+            this.kind = kind;
+            this.key = key;
+            this.value = value;
+        }
+
+        String mapKey() {
+            return kind + key;
+        }
+    }
+}
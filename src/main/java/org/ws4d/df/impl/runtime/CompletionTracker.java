@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects the components that closed during one run of a network. Every
+ * component is reported at most once per run, so the supervising thread
+ * handles each closed component exactly once and in O(1).
+ */
+public class CompletionTracker {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final ConcurrentLinkedQueue<RtComponent> closedComponents = new ConcurrentLinkedQueue<RtComponent>();
+    private volatile Thread supervisor = null;
+    // set if the network is terminated during the run
+    private volatile boolean terminated = false;
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Prepares a new run. Must be called by the supervising thread before any
+     * of the components is started. The close reports of the previous run
+     * are invalidated by the run counter of the network.
+     */
+    public void reset() {
+        closedComponents.clear();
+        terminated = false;
+        supervisor = Thread.currentThread();
+    }
+
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Returns false if the component has already been reported in this run.
+     */
+    public boolean componentClosed(RtComponent rtComponent) {
+        if (!rtComponent.reportClosed()) {
+            return false;
+        }
+        closedComponents.offer(rtComponent);
+        LockSupport.unpark(supervisor);
+        return true;
+    }
+
+    /**
+     * Ends the run, the supervising thread stops waiting for the components.
+     */
+    public void terminate() {
+        terminated = true;
+        Thread current = supervisor;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    /**
+     * Blocks the supervising thread until the next closed component is
+     * available. Returns null once the run has been terminated.
+     */
+    public RtComponent awaitClosed() {
+        RtComponent rtComponent;
+        while ((rtComponent = closedComponents.poll()) == null) {
+            if (terminated) {
+                return null;
+            }
+            LockSupport.park(this);
+        }
+        return rtComponent;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ws4d.df.api.comp.ComponentState;
+
+/**
+ * Metrics of one {@link RtComponent}: a histogram of the execute() times and
+ * the time spent ACTIVE and INACTIVE.
+ * <p>
+ * The state is mostly changed by the thread of the component, but also by
+ * the network, so a change swaps the current state atomically and adds the
+ * time of the previous one. Neither takes a lock.
+ */
+public final class ComponentMetrics {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    private static final int OTHER = 0;
+    private static final int ACTIVE = 1;
+    private static final int INACTIVE = 2;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final String name;
+    private final Histogram executeNanos;
+
+    private final long base = System.nanoTime();
+    // the start of the current state relative to base, shifted left by two,
+    // and the state in the low two bits
+    private final AtomicLong current = new AtomicLong(OTHER);
+    private final AtomicLong activeNanos = new AtomicLong();
+    private final AtomicLong inactiveNanos = new AtomicLong();
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public ComponentMetrics(String name) {
+        this(name, new Histogram());
+    }
+
+    private ComponentMetrics(String name, Histogram executeNanos) {
+        this.name = name;
+        this.executeNanos = executeNanos;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    public Histogram getExecuteNanos() {
+        return executeNanos;
+    }
+
+    public long getActiveNanos() {
+        return activeNanos.get();
+    }
+
+    public long getInactiveNanos() {
+        return inactiveNanos.get();
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public void executed(long nanos) {
+        executeNanos.record(nanos);
+    }
+
+    public void stateChanged(ComponentState newState) {
+        int code = code(newState);
+        if ((int) (current.get() & 3) == code) {
+            return;
+        }
+        long now = System.nanoTime() - base;
+        account(current.getAndSet(now << 2 | code), now);
+    }
+
+    /**
+     * Returns a detached copy of these metrics that includes the time spent
+     * in the current state so far.
+     */
+    public ComponentMetrics snapshot() {
+        ComponentMetrics copy = new ComponentMetrics(name,
+                executeNanos.snapshot());
+        long state = current.get();
+        long running = Math.max(0, System.nanoTime() - base - (state >> 2));
+        copy.activeNanos.set(activeNanos.get()
+                + ((state & 3) == ACTIVE ? running : 0));
+        copy.inactiveNanos.set(inactiveNanos.get()
+                + ((state & 3) == INACTIVE ? running : 0));
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [executions=" + executeNanos.getCount()
+                + ", meanExecuteNanos=" + (long) executeNanos.getMean()
+                + ", p99ExecuteNanos=" + executeNanos.getPercentile(99)
+                + ", activeNanos=" + getActiveNanos() + ", inactiveNanos="
+                + getInactiveNanos() + "]";
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static int code(ComponentState state) {
+        if (state == ComponentState.ACTIVE) {
+            return ACTIVE;
+        } else if (state == ComponentState.INACTIVE) {
+            return INACTIVE;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Adds the time of a state that ended now. Another thread may have
+     * started its state a little later than this one measured now.
+     */
+    private void account(long previous, long now) {
+        long nanos = Math.max(0, now - (previous >> 2));
+        int code = (int) (previous & 3);
+        if (code == ACTIVE) {
+            activeNanos.addAndGet(nanos);
+        } else if (code == INACTIVE) {
+            inactiveNanos.addAndGet(nanos);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+/**
+ * Type of a connection from one out port to its in ports. An out port that
+ * is connected several times with the same type delivers its packets to all
+ * of these in ports according to the type.
+ */
+public final class ConnectionType {
+
+    public enum Kind {
+        POINT_TO_POINT, BROADCAST, ROUND_ROBIN, HASH_PARTITIONED
+    }
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    /**
+     * One out port, one in port (default).
+     */
+    public static final ConnectionType POINT_TO_POINT = new ConnectionType(
+            Kind.POINT_TO_POINT, null);
+
+    /**
+     * Every packet is delivered to every in port. The packet is not copied,
+     * so receivers must not modify it.
+     */
+    public static final ConnectionType BROADCAST = new ConnectionType(
+            Kind.BROADCAST, null);
+
+    /**
+     * Packets are delivered to the open in ports in turn.
+     */
+    public static final ConnectionType ROUND_ROBIN = new ConnectionType(
+            Kind.ROUND_ROBIN, null);
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final Kind kind;
+    private final KeyExtractor keyExtractor;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    private ConnectionType(Kind kind, KeyExtractor keyExtractor) {
+        this.kind = kind;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * Every packet is delivered to the in port selected by the hash code of
+     * its key. Packets with a null key go to the first in port. Once one of
+     * the in ports is closed, the out port is closed and drops all further
+     * packets.
+     */
+    public static ConnectionType hashPartitioned(KeyExtractor keyExtractor) {
+        if (keyExtractor == null) {
+            throw new IllegalArgumentException("keyExtractor is null");
+        }
+        return new ConnectionType(Kind.HASH_PARTITIONED, keyExtractor);
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public KeyExtractor getKeyExtractor() {
+        return keyExtractor;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ConnectionType)) {
+            return false;
+        }
+        ConnectionType other = (ConnectionType) obj;
+        return kind == other.kind && keyExtractor == other.keyExtractor;
+    }
+
+    @Override
+    public int hashCode() {
+        return kind.hashCode()
+                + (keyExtractor != null ? 31 * keyExtractor.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return kind.toString();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+/**
+ * Selects how the components of a network are executed.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Every component runs its own thread (default).
+     */
+    THREAD_PER_COMPONENT,
+
+    /**
+     * Components are scheduled as tasks on a fixed pool sized to the number
+     * of cores whenever their in ports have data. A component that blocks in
+     * receive() or send() occupies a pool worker; the pool compensates with a
+     * spare worker while it is blocked. Networks whose components mostly
+     * block thus still need about one thread per component and run better
+     * with {@link #VIRTUAL_THREADS}.
+     */
+    POOLED,
+
+    /**
+     * Every component runs on its own virtual thread. Requires a Java 21 or
+     * newer runtime.
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with power-of-two buckets, bucket i counts the values in
+ * [2^(i-1), 2^i). Recording must be done by one thread at a time, readers see
+ * a consistent view of every single field but not across fields.
+ */
+public final class Histogram {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    private static final int BUCKETS = 64;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    // index 0: count, 1: sum, 2: max
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public long getCount() {
+        return totals.get(0);
+    }
+
+    public long getSum() {
+        return totals.get(1);
+    }
+
+    public long getMax() {
+        return totals.get(2);
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count > 0 ? (double) getSum() / count : 0.0;
+    }
+
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public static int getBuckets() {
+        return BUCKETS;
+    }
+
+    /**
+     * Upper bound of the bucket that contains the given percentile (0..100).
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return 0;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = BUCKETS - Long.numberOfLeadingZeros(value);
+        if (bucket == BUCKETS) {
+            bucket = BUCKETS - 1;
+        }
+        buckets.lazySet(bucket, buckets.get(bucket) + 1);
+        totals.lazySet(0, totals.get(0) + 1);
+        totals.lazySet(1, totals.get(1) + value);
+        if (value > totals.get(2)) {
+            totals.lazySet(2, value);
+        }
+    }
+
+    /**
+     * Returns a detached copy of this histogram.
+     */
+    public Histogram snapshot() {
+        Histogram copy = new Histogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            copy.buckets.set(i, buckets.get(i));
+        }
+        for (int i = 0; i < 3; i++) {
+            copy.totals.set(i, totals.get(i));
+        }
+        return copy;
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static long upperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import org.ws4d.df.api.comp.InPort;
+
+/**
+ * In port of a primitive connection, see {@link PrimitivePortType}.
+ */
+public interface IntInPort extends InPort {
+
+    /**
+     * Blocks like {@link #receive()} until a value is available and returns
+     * it without boxing, or returns closedValue if the port is closed.
+     */
+    int receiveInt(int closedValue);
+
+    /**
+     * Blocks like {@link #receive()} until at least one value is available
+     * and then moves up to max values into the given array. Returns the
+     * number of values moved, 0 if the port is closed.
+     */
+    int receiveInts(int[] values, int offset, int max);
+}
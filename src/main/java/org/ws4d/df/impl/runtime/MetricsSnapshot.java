@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of all metrics of a network, keyed by component id and
+ * by in port name ({@code component.port} or {@code component.port[index]}).
+ * Reorder buffers of ordered parallel stages are keyed by component id.
+ */
+public final class MetricsSnapshot {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final long timestamp;
+    private final Map<String, ComponentMetrics> componentMetrics;
+    private final Map<String, PortMetrics> portMetrics;
+    private final Map<String, ReorderMetrics> reorderMetrics;
+    private final long bytesHeld;
+    private final long bytesHighWaterMark;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public MetricsSnapshot(long timestamp,
+            Map<String, ComponentMetrics> componentMetrics,
+            Map<String, PortMetrics> portMetrics,
+            Map<String, ReorderMetrics> reorderMetrics, long bytesHeld,
+            long bytesHighWaterMark) {
+        this.timestamp = timestamp;
+        this.componentMetrics = Collections.unmodifiableMap(componentMetrics);
+        this.portMetrics = Collections.unmodifiableMap(portMetrics);
+        this.reorderMetrics = Collections.unmodifiableMap(reorderMetrics);
+        this.bytesHeld = bytesHeld;
+        this.bytesHighWaterMark = bytesHighWaterMark;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Time of the snapshot in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, ComponentMetrics> getComponentMetrics() {
+        return componentMetrics;
+    }
+
+    public Map<String, PortMetrics> getPortMetrics() {
+        return portMetrics;
+    }
+
+    public Map<String, ReorderMetrics> getReorderMetrics() {
+        return reorderMetrics;
+    }
+
+    /**
+     * Bytes held by the packets queued in all in ports, 0 unless the network
+     * has a byte capacity.
+     */
+    public long getBytesHeld() {
+        return bytesHeld;
+    }
+
+    public long getBytesHighWaterMark() {
+        return bytesHighWaterMark;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (ComponentMetrics metrics : componentMetrics.values()) {
+            sb.append(metrics).append('\n');
+        }
+        for (PortMetrics metrics : portMetrics.values()) {
+            sb.append(metrics).append('\n');
+        }
+        for (ReorderMetrics metrics : reorderMetrics.values()) {
+            sb.append(metrics).append('\n');
+        }
+        if (bytesHighWaterMark > 0) {
+            sb.append("network [bytesHeld=").append(bytesHeld)
+                    .append(", bytesHighWaterMark=")
+                    .append(bytesHighWaterMark).append("]\n");
+        }
+        return sb.toString();
+    }
+}
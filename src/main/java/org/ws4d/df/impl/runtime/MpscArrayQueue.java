@@ -0,0 +1,347 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi-producer/single-consumer array queue. Producers claim slots
+ * with a CAS on the tail and then fill them, the consumer reads them in order.
+ * <p>
+ * A slot that has been claimed but not yet filled reads as empty. This is
+ * safe because the producer signals the receiver after filling it. Slots are
+ * filled with volatile writes, so the park/unpark handshake in
+ * {@link RtInPort} cannot lose a wake-up.
+ * <p>
+ * Like {@link SpscRingBuffer}, an adaptive queue starts with an array for its
+ * initial capacity and moves on to larger arrays linked by a jump marker. The
+ * tail holds the index shifted left by one; the producer that grows the array
+ * sets the low bit, so the other producers wait until the new array is in
+ * place.
+ */
+public final class MpscArrayQueue extends MpscArrayQueueFields implements
+        PacketQueue {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    private static final AtomicLongFieldUpdater<MpscArrayQueueProducerFields> TAIL = AtomicLongFieldUpdater
+            .newUpdater(MpscArrayQueueProducerFields.class, "tail");
+
+    // left in the slot of the first packet that went into the next array
+    private static final Object JUMP = new Object();
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    // only read if the queue is adaptive
+    private volatile int capacity;
+    private final int maxCapacity;
+    private final boolean adaptive;
+    // array size needed for the maximum capacity
+    private final int maxSize;
+    // Each array has one slot more than its size for the link to the next
+    // array. The producer array is published by the write of the tail.
+    private AtomicReferenceArray<Object> producerBuffer;
+    private int producerMask;
+    private AtomicReferenceArray<Object> consumerBuffer;
+    private int consumerMask;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Creates a queue with a fixed capacity.
+     */
+    public MpscArrayQueue(int capacity) {
+        this(capacity, capacity, false);
+    }
+
+    /**
+     * Creates an adaptive queue.
+     *
+     * @param maxCapacity capacity the queue may grow to, see
+     *            {@link #setCapacity(int)}
+     */
+    public MpscArrayQueue(int capacity, int maxCapacity) {
+        this(capacity, maxCapacity, true);
+    }
+
+    private MpscArrayQueue(int capacity, int maxCapacity, boolean adaptive) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: "
+                    + capacity);
+        }
+        if (maxCapacity < capacity) {
+            throw new IllegalArgumentException("maxCapacity " + maxCapacity
+                    + " is less than capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxCapacity = maxCapacity;
+        this.adaptive = adaptive;
+        this.maxSize = SpscRingBuffer.sizeFor(maxCapacity);
+        // A growable array must keep a free slot for the jump marker.
+        int size = capacity == maxCapacity ? maxSize : Math.min(maxSize,
+                SpscRingBuffer.sizeFor(capacity + 1));
+        this.producerBuffer = new AtomicReferenceArray<Object>(size + 1);
+        this.producerMask = size - 1;
+        this.consumerBuffer = producerBuffer;
+        this.consumerMask = producerMask;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Size of the array producers currently write to.
+     */
+    int arraySize() {
+        return producerMask + 1;
+    }
+
+    // -------------------------------------------------------------------------
+    // PacketQueue interface
+    // -------------------------------------------------------------------------
+
+    public int capacity() {
+        return adaptive ? capacity : maxCapacity;
+    }
+
+    public int maxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the queue has a fixed capacity
+     */
+    public void setCapacity(int capacity) {
+        if (!adaptive) {
+            throw new UnsupportedOperationException("capacity is fixed");
+        }
+        if (capacity < 1 || capacity > maxCapacity) {
+            throw new IllegalArgumentException("capacity out of range: "
+                    + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public int size() {
+        long currentHead = head;
+        return (int) ((tail >> 1) - currentHead);
+    }
+
+    public boolean isEmpty() {
+        return head == tail >> 1;
+    }
+
+    public boolean offer(Object packet) {
+        if (packet == null) {
+            throw new NullPointerException("packet is null");
+        }
+        return offer(packet, null, 0, 1) == 1;
+    }
+
+    public int offer(Object[] packets, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (packets[offset + i] == null) {
+                throw new NullPointerException("packet is null");
+            }
+        }
+        return offer(null, packets, offset, length);
+    }
+
+    public Object poll() {
+        long currentHead = head;
+        AtomicReferenceArray<Object> buffer = consumerBuffer;
+        int offset = (int) currentHead & consumerMask;
+        Object packet = buffer.get(offset);
+        if (packet == null) {
+            // empty, or the producer has not filled the slot yet
+            return null;
+        }
+        if (packet == JUMP) {
+            buffer = jump(buffer, offset);
+            offset = (int) currentHead & consumerMask;
+            packet = buffer.get(offset);
+        }
+        buffer.lazySet(offset, null);
+        head = currentHead + 1;
+        return packet;
+    }
+
+    public int drainTo(Collection<Object> packets, int max) {
+        int count = 0;
+        Object packet;
+        while (count < max && (packet = poll()) != null) {
+            packets.add(packet);
+            count++;
+        }
+        return count;
+    }
+
+    public Object[] toArray() {
+        long currentHead = head;
+        Object[] packets = new Object[(int) ((tail >> 1) - currentHead)];
+        AtomicReferenceArray<Object> buffer = consumerBuffer;
+        int mask = consumerMask;
+        for (int i = 0; i < packets.length; i++) {
+            Object packet = buffer.get((int) (currentHead + i) & mask);
+            if (packet == JUMP) {
+                buffer = next(buffer);
+                mask = buffer.length() - 2;
+                packet = buffer.get((int) (currentHead + i) & mask);
+            }
+            packets[i] = packet;
+        }
+        return packets;
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // drain
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Queues the single packet, or as many of the given packets as fit.
+     */
+    private int offer(Object packet, Object[] packets, int offset, int length) {
+        long producerIndex;
+        long currentTail;
+        int count;
+        AtomicReferenceArray<Object> buffer;
+        int mask;
+        while (true) {
+            producerIndex = tail;
+            if ((producerIndex & 1) != 0) {
+                // another producer is growing the array
+                Thread.yield();
+                continue;
+            }
+            currentTail = producerIndex >> 1;
+            long queued = currentTail - head;
+            count = (int) Math.min((adaptive ? capacity : maxCapacity)
+                    - queued, length);
+            if (count <= 0) {
+                return 0;
+            }
+            // read after the tail, which publishes a new array
+            buffer = producerBuffer;
+            mask = producerMask;
+            if (mask + 1 < maxSize && queued + count > mask) {
+                if (TAIL.compareAndSet(this, producerIndex, producerIndex + 1)) {
+                    grow(buffer, mask, currentTail, (int) queued, packet,
+                            packets, offset, count);
+                    tail = (currentTail + count) << 1;
+                    return count;
+                }
+            } else if (TAIL.compareAndSet(this, producerIndex, producerIndex
+                    + (count << 1))) {
+                break;
+            }
+        }
+        if (packets == null) {
+            buffer.set((int) currentTail & mask, packet);
+        } else {
+            for (int i = 0; i < count; i++) {
+                buffer.set((int) (currentTail + i) & mask, packets[offset
+                        + i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Moves the producers to an array that holds the queued packets plus the
+     * new ones, which are written to it before the jump marker. The slot at
+     * the tail is free, because a growable array is never filled. Called
+     * while the low bit of the tail is set.
+     */
+    private void grow(AtomicReferenceArray<Object> buffer, int mask,
+            long currentTail, int queued, Object packet, Object[] packets,
+            int offset, int count) {
+        int size = Math.max(2 * (mask + 1),
+                SpscRingBuffer.sizeFor(queued + count + 1));
+        size = Math.min(maxSize, size);
+        AtomicReferenceArray<Object> next = new AtomicReferenceArray<Object>(
+                size + 1);
+        int nextMask = size - 1;
+        if (packets == null) {
+            next.lazySet((int) currentTail & nextMask, packet);
+        } else {
+            for (int i = 0; i < count; i++) {
+                next.lazySet((int) (currentTail + i) & nextMask,
+                        packets[offset + i]);
+            }
+        }
+        producerBuffer = next;
+        producerMask = nextMask;
+        buffer.lazySet(mask + 1, next);
+        buffer.set((int) currentTail & mask, JUMP);
+    }
+
+    private AtomicReferenceArray<Object> jump(
+            AtomicReferenceArray<Object> buffer, int offset) {
+        AtomicReferenceArray<Object> next = next(buffer);
+        buffer.lazySet(offset, null);
+        buffer.lazySet(buffer.length() - 1, null);
+        consumerBuffer = next;
+        consumerMask = next.length() - 2;
+        return next;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<Object> next(
+            AtomicReferenceArray<Object> buffer) {
+        return (AtomicReferenceArray<Object>) buffer.get(buffer.length() - 1);
+    }
+}
+
+// -----------------------------------------------------------------------------
+// padded index fields
+// -----------------------------------------------------------------------------
+
+abstract class MpscArrayQueuePad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class MpscArrayQueueProducerFields extends MpscArrayQueuePad0 {
+    // claimed by the producers with a CAS, see MpscArrayQueue
+    volatile long tail;
+}
+
+abstract class MpscArrayQueuePad1 extends MpscArrayQueueProducerFields {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class MpscArrayQueueConsumerFields extends MpscArrayQueuePad1 {
+    // written by the consumer only
+    volatile long head;
+}
+
+abstract class MpscArrayQueueFields extends MpscArrayQueueConsumerFields {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
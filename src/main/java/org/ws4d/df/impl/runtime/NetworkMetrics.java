@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the metrics of all components, in ports and ordered parallel
+ * stages of a network. Only
+ * present if metrics were enabled when the network was built.
+ */
+public class NetworkMetrics {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final Map<String, ComponentMetrics> componentMetrics = new ConcurrentHashMap<String, ComponentMetrics>();
+    private final Map<String, PortMetrics> portMetrics = new ConcurrentHashMap<String, PortMetrics>();
+    private final Map<String, ReorderMetrics> reorderMetrics = new ConcurrentHashMap<String, ReorderMetrics>();
+    // null if the network has no byte capacity
+    private volatile ByteBudget byteBudget = null;
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public void setByteBudget(ByteBudget byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    public ComponentMetrics registerComponent(String componentId) {
+        ComponentMetrics metrics = new ComponentMetrics(componentId);
+        componentMetrics.put(componentId, metrics);
+        return metrics;
+    }
+
+    public PortMetrics registerInPort(String componentId, String portName,
+            int index, int capacity, int senders) {
+        String name = componentId + "." + portName
+                + (index >= 0 ? "[" + index + "]" : "");
+        PortMetrics metrics = new PortMetrics(name, capacity, senders > 1);
+        portMetrics.put(name, metrics);
+        return metrics;
+    }
+
+    public ReorderMetrics registerOrderedStage(String componentId, int window) {
+        ReorderMetrics metrics = new ReorderMetrics(componentId, window);
+        reorderMetrics.put(componentId, metrics);
+        return metrics;
+    }
+
+    public ComponentMetrics getComponentMetrics(String componentId) {
+        return componentMetrics.get(componentId);
+    }
+
+    public PortMetrics getPortMetrics(String name) {
+        return portMetrics.get(name);
+    }
+
+    public ReorderMetrics getReorderMetrics(String componentId) {
+        return reorderMetrics.get(componentId);
+    }
+
+    /**
+     * Copies all metrics. Safe to call from any thread while the network is
+     * running.
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, ComponentMetrics> components = new TreeMap<String, ComponentMetrics>();
+        for (Map.Entry<String, ComponentMetrics> entry : componentMetrics
+                .entrySet()) {
+            components.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, PortMetrics> ports = new TreeMap<String, PortMetrics>();
+        for (Map.Entry<String, PortMetrics> entry : portMetrics.entrySet()) {
+            ports.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, ReorderMetrics> stages = new TreeMap<String, ReorderMetrics>();
+        for (Map.Entry<String, ReorderMetrics> entry : reorderMetrics
+                .entrySet()) {
+            stages.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        ByteBudget budget = byteBudget;
+        return new MetricsSnapshot(System.currentTimeMillis(), components,
+                ports, stages, budget != null ? budget.getUsed() : 0,
+                budget != null ? budget.getHighWaterMark() : 0);
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ws4d.df.api.comp.ComponentContext;
+
+/**
+ * Reusable packet instances of a network, one free list per packet class.
+ * Components get the pool with {@link #get(ComponentContext)}, acquire
+ * packets from it instead of allocating them and release them once they are
+ * consumed. Packets still queued when an in port is reset or closed are
+ * returned to the pool. A packet must therefore have a single receiver,
+ * networks with broadcast connections cannot have a pool.
+ * <p>
+ * In debug mode the pool records where each outstanding packet was acquired,
+ * and the network logs the packets that were neither released nor returned
+ * whenever it is reset or terminated.
+ */
+public class PacketPool {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    public static final String RUNTIME_PROPERTY = "org.ws4d.df.packetPool";
+
+    // packets kept per class
+    public static final int DEFAULT_MAX_POOLED = 1024;
+
+    /**
+     * Returns the pool of the network of the given component, or null if the
+     * network has none.
+     */
+    public static PacketPool get(ComponentContext context) {
+        return (PacketPool) context.getRuntimeProperty(RUNTIME_PROPERTY);
+    }
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final int maxPooled;
+    private final boolean debug;
+    private final ConcurrentHashMap<Class<?>, FreeList> freeLists = new ConcurrentHashMap<Class<?>, FreeList>();
+    // outstanding packets and where they were acquired, in debug mode only
+    private final Map<Object, Throwable> outstanding;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public PacketPool(int maxPooled, boolean debug) {
+        this.maxPooled = maxPooled;
+        this.debug = debug;
+        this.outstanding = debug ? Collections
+                .synchronizedMap(new IdentityHashMap<Object, Throwable>())
+                : null;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Acquisitions served from a free list.
+     */
+    public long getHits() {
+        long hits = 0;
+        for (FreeList freeList : freeLists.values()) {
+            hits += freeList.hits();
+        }
+        return hits;
+    }
+
+    /**
+     * Acquisitions that had to allocate a new packet.
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (FreeList freeList : freeLists.values()) {
+            misses += freeList.misses();
+        }
+        return misses;
+    }
+
+    /**
+     * Released packets dropped because their free list was full.
+     */
+    public long getDiscards() {
+        long discards = 0;
+        for (FreeList freeList : freeLists.values()) {
+            discards += freeList.discards();
+        }
+        return discards;
+    }
+
+    /**
+     * Returns where the outstanding packets were acquired, empty unless in
+     * debug mode.
+     */
+    public List<Throwable> getOutstanding() {
+        if (!debug) {
+            return Collections.emptyList();
+        }
+        synchronized (outstanding) {
+            return new ArrayList<Throwable>(outstanding.values());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns a pooled packet of the given class, or a new one created with
+     * its public no-argument constructor.
+     */
+    public <T> T acquire(Class<T> type) {
+        FreeList freeList = freeLists.get(type);
+        if (freeList == null) {
+            freeList = new FreeList(maxPooled);
+            FreeList existing = freeLists.putIfAbsent(type, freeList);
+            if (existing != null) {
+                freeList = existing;
+            }
+        }
+        Object packet = freeList.poll();
+        if (packet == null) {
+            try {
+                packet = type.newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("packet class " + type
+                        + " needs a public no-argument constructor", e);
+            }
+        }
+        if (debug) {
+            outstanding.put(packet, new Throwable("acquired by "
+                    + Thread.currentThread().getName()));
+        }
+        return type.cast(packet);
+    }
+
+    /**
+     * Returns a consumed packet to the pool, recycling it first if it is
+     * {@link Recyclable}. In debug mode a packet that is not outstanding is
+     * rejected, it has been released twice or was not acquired here.
+     */
+    public void release(Object packet) {
+        if (debug && outstanding.remove(packet) == null) {
+            throw new IllegalStateException(
+                    "packet released twice or not acquired from this pool: "
+                            + packet);
+        }
+        recycle(packet);
+    }
+
+    /**
+     * Logs every outstanding packet as a leak and forgets it. Does nothing
+     * unless in debug mode. Returns the number of leaks.
+     */
+    public int reportLeaks(Logger logger) {
+        if (!debug) {
+            return 0;
+        }
+        List<Throwable> leaks;
+        synchronized (outstanding) {
+            leaks = new ArrayList<Throwable>(outstanding.values());
+            outstanding.clear();
+        }
+        for (Throwable leak : leaks) {
+            logger.log(Level.WARNING, "packet neither released nor returned",
+                    leak);
+        }
+        return leaks.size();
+    }
+
+    /**
+     * Returns a packet that was still queued. Packets of classes never
+     * acquired from the pool are ignored.
+     */
+    void recycle(Object packet) {
+        FreeList freeList = freeLists.get(packet.getClass());
+        if (freeList == null) {
+            return;
+        }
+        if (debug) {
+            outstanding.remove(packet);
+        }
+        if (packet instanceof Recyclable) {
+            ((Recyclable) packet).recycle();
+        }
+        freeList.offer(packet);
+    }
+
+    @Override
+    public String toString() {
+        return "packetPool [hits=" + getHits() + ", misses=" + getMisses()
+                + ", discards=" + getDiscards() + "]";
+    }
+
+    // -------------------------------------------------------------------------
+    // free list
+    // -------------------------------------------------------------------------
+
+    /**
+     * Bounded stack of free packets. Its lock is held for a few instructions
+     * only, and the counters are read and updated under it.
+     */
+    private static final class FreeList {
+
+        private final Object[] packets;
+        private int size = 0;
+        private long hits = 0;
+        private long misses = 0;
+        private long discards = 0;
+
+        FreeList(int maxPooled) {
+            packets = new Object[maxPooled];
+        }
+
+        synchronized long hits() {
+            return hits;
+        }
+
+        synchronized long misses() {
+            return misses;
+        }
+
+        synchronized long discards() {
+            return discards;
+        }
+
+        synchronized Object poll() {
+            if (size == 0) {
+                misses++;
+                return null;
+            }
+            hits++;
+            Object packet = packets[--size];
+            packets[size] = null;
+            return packet;
+        }
+
+        synchronized void offer(Object packet) {
+            if (size == packets.length) {
+                discards++;
+            } else {
+                packets[size++] = packet;
+            }
+        }
+    }
+}
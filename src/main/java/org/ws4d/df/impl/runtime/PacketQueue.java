@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Collection;
+
+/**
+ * Bounded packet queue between the out ports feeding a connection and the
+ * receiving component.
+ */
+public interface PacketQueue {
+
+    int capacity();
+
+    int maxCapacity();
+
+    /**
+     * Changes the capacity within 1 and {@link #maxCapacity()}. If the queue
+     * holds more packets than the new capacity, offers fail until enough
+     * packets are polled.
+     *
+     * @throws UnsupportedOperationException if the queue has a fixed capacity
+     */
+    void setCapacity(int capacity);
+
+    int size();
+
+    boolean isEmpty();
+
+    /**
+     * Returns false instead of blocking if the queue is full.
+     */
+    boolean offer(Object packet);
+
+    /**
+     * Queues as many of the given packets as fit and publishes them in one
+     * step. Returns the number of packets queued.
+     */
+    int offer(Object[] packets, int offset, int length);
+
+    /**
+     * Returns null instead of blocking if the queue is empty.
+     */
+    Object poll();
+
+    /**
+     * Moves up to max packets into the given collection in one step. Returns
+     * the number of packets moved.
+     */
+    int drainTo(Collection<Object> packets, int max);
+
+    /**
+     * Copies the queued packets in order without removing them. Only
+     * consistent while neither producers nor the consumer use the queue.
+     */
+    Object[] toArray();
+
+    void clear();
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Size estimators of a network by packet type. The estimator of a packet is
+ * the one registered for its class, else for the nearest super class or
+ * interface, else a rough default based on the length of arrays, strings and
+ * buffers.
+ */
+public class PacketSizes {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    public static final SizeEstimator DEFAULT_ESTIMATOR = new SizeEstimator() {
+
+        public long estimateSize(Object packet) {
+            if (packet instanceof byte[]) {
+                return 16 + ((byte[]) packet).length;
+            } else if (packet instanceof String) {
+                return 40 + 2L * ((String) packet).length();
+            } else if (packet instanceof ByteBuffer) {
+                ByteBuffer buffer = (ByteBuffer) packet;
+                return 48 + (buffer.isDirect() ? 0 : buffer.capacity());
+            } else if (packet instanceof char[]) {
+                return 16 + 2L * ((char[]) packet).length;
+            } else if (packet instanceof int[]) {
+                return 16 + 4L * ((int[]) packet).length;
+            } else if (packet instanceof long[]) {
+                return 16 + 8L * ((long[]) packet).length;
+            } else if (packet instanceof double[]) {
+                return 16 + 8L * ((double[]) packet).length;
+            } else if (packet instanceof Object[]) {
+                return 16 + 4L * ((Object[]) packet).length;
+            }
+            return 16;
+        }
+    };
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final Map<Class<?>, SizeEstimator> registered = new ConcurrentHashMap<Class<?>, SizeEstimator>();
+    // resolved estimators of all packet classes seen so far
+    private final Map<Class<?>, SizeEstimator> resolved = new ConcurrentHashMap<Class<?>, SizeEstimator>();
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public void register(Class<?> packetType, SizeEstimator estimator) {
+        registered.put(packetType, estimator);
+        resolved.clear();
+    }
+
+    public long estimate(Object packet) {
+        if (packet == null) {
+            return 0;
+        }
+        Class<?> type = packet.getClass();
+        SizeEstimator estimator = resolved.get(type);
+        if (estimator == null) {
+            estimator = resolve(type);
+            if (estimator == null) {
+                estimator = DEFAULT_ESTIMATOR;
+            }
+            resolved.put(type, estimator);
+        }
+        return estimator.estimateSize(packet);
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private SizeEstimator resolve(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            SizeEstimator estimator = registered.get(c);
+            if (estimator != null) {
+                return estimator;
+            }
+        }
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                SizeEstimator estimator = resolve(i);
+                if (estimator != null) {
+                    return estimator;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of one {@link RtInPort}. The receiver side values are only written
+ * by the receiving thread, and so are the sender side values unless several
+ * out ports feed the in port. Only then updates need an atomic
+ * read-modify-write.
+ */
+public final class PortMetrics {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    // sender side
+    private static final int PACKETS_IN = 0;
+    private static final int HIGH_WATER_MARK = 1;
+    private static final int BLOCKED_SEND_NANOS = 2;
+    private static final int BLOCKED_SENDS = 3;
+    private static final int BYTES_HELD = 4;
+    private static final int BYTES_HIGH_WATER_MARK = 5;
+    // receiver side, one cache line apart from the sender side
+    private static final int PACKETS_OUT = 8;
+    private static final int BLOCKED_RECEIVE_NANOS = 9;
+    private static final int BLOCKED_RECEIVES = 10;
+
+    private static final int LENGTH = 11;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final String name;
+    // changes if the capacity adapts to the backpressure
+    private volatile int capacity;
+    private final boolean multipleSenders;
+    private final AtomicLongArray values = new AtomicLongArray(LENGTH);
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public PortMetrics(String name, int capacity, boolean multipleSenders) {
+        this.name = name;
+        this.capacity = capacity;
+        this.multipleSenders = multipleSenders;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getPacketsIn() {
+        return values.get(PACKETS_IN);
+    }
+
+    public long getPacketsOut() {
+        return values.get(PACKETS_OUT);
+    }
+
+    public long getHighWaterMark() {
+        return values.get(HIGH_WATER_MARK);
+    }
+
+    /**
+     * Time senders spent waiting for space in the queue (backpressure).
+     */
+    public long getBlockedSendNanos() {
+        return values.get(BLOCKED_SEND_NANOS);
+    }
+
+    public long getBlockedSends() {
+        return values.get(BLOCKED_SENDS);
+    }
+
+    /**
+     * Bytes held by the queued packets, 0 unless the port or the network has
+     * a byte capacity.
+     */
+    public long getBytesHeld() {
+        return values.get(BYTES_HELD);
+    }
+
+    public long getBytesHighWaterMark() {
+        return values.get(BYTES_HIGH_WATER_MARK);
+    }
+
+    /**
+     * Time the receiver spent waiting for packets (starvation).
+     */
+    public long getBlockedReceiveNanos() {
+        return values.get(BLOCKED_RECEIVE_NANOS);
+    }
+
+    public long getBlockedReceives() {
+        return values.get(BLOCKED_RECEIVES);
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public void packetsIn(int count, int queueSize) {
+        addSenderValue(PACKETS_IN, count);
+        long highWaterMark = values.get(HIGH_WATER_MARK);
+        if (queueSize > highWaterMark) {
+            if (!multipleSenders) {
+                values.lazySet(HIGH_WATER_MARK, queueSize);
+            } else {
+                while (queueSize > highWaterMark
+                        && !values.compareAndSet(HIGH_WATER_MARK,
+                                highWaterMark, queueSize)) {
+                    highWaterMark = values.get(HIGH_WATER_MARK);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the bytes currently held, called by senders and the receiver.
+     */
+    public void bytesHeld(long bytes, long highWaterMark) {
+        values.lazySet(BYTES_HELD, bytes);
+        long mark = values.get(BYTES_HIGH_WATER_MARK);
+        while (highWaterMark > mark
+                && !values.compareAndSet(BYTES_HIGH_WATER_MARK, mark,
+                        highWaterMark)) {
+            mark = values.get(BYTES_HIGH_WATER_MARK);
+        }
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void packetsOut(int count) {
+        add(PACKETS_OUT, count);
+    }
+
+    public void sendBlocked(long nanos) {
+        addSenderValue(BLOCKED_SEND_NANOS, nanos);
+        addSenderValue(BLOCKED_SENDS, 1);
+    }
+
+    public void receiveBlocked(long nanos) {
+        add(BLOCKED_RECEIVE_NANOS, nanos);
+        add(BLOCKED_RECEIVES, 1);
+    }
+
+    /**
+     * Returns a detached copy of these metrics.
+     */
+    public PortMetrics snapshot() {
+        PortMetrics copy = new PortMetrics(name, capacity, multipleSenders);
+        for (int i = 0; i < LENGTH; i++) {
+            copy.values.set(i, values.get(i));
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [in=" + getPacketsIn() + ", out=" + getPacketsOut()
+                + ", highWaterMark=" + getHighWaterMark() + "/" + capacity
+                + (getBytesHighWaterMark() > 0 ? ", bytesHeld="
+                        + getBytesHeld() + ", bytesHighWaterMark="
+                        + getBytesHighWaterMark() : "")
+                + ", blockedSendNanos=" + getBlockedSendNanos()
+                + ", blockedReceiveNanos=" + getBlockedReceiveNanos() + "]";
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void add(int index, long delta) {
+        values.lazySet(index, values.get(index) + delta);
+    }
+
+    private void addSenderValue(int index, long delta) {
+        if (multipleSenders) {
+            values.getAndAdd(index, delta);
+        } else {
+            add(index, delta);
+        }
+    }
+}
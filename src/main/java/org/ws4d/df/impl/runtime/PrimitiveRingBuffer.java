@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Collection;
+
+/**
+ * Single-producer/single-consumer ring buffer of int, long or double values
+ * stored unboxed in a long array. The primitive methods move values without
+ * allocating; the {@link PacketQueue} methods box and unbox them, so senders
+ * and receivers that use plain objects still work.
+ */
+public final class PrimitiveRingBuffer extends SpscRingBufferFields implements
+        PacketQueue {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    // int.class, long.class or double.class
+    private final Class<?> type;
+    private final int capacity;
+    private final int mask;
+    private final long[] buffer;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public PrimitiveRingBuffer(Class<?> type, int capacity) {
+        if (type != int.class && type != long.class && type != double.class) {
+            throw new IllegalArgumentException("not a primitive packet type: "
+                    + type);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: "
+                    + capacity);
+        }
+        this.type = type;
+        this.capacity = capacity;
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.buffer = new long[size];
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns false instead of blocking if the queue is full. The value must
+     * be in stored form, see {@link #encode(long)}.
+     */
+    public boolean offerLong(long value) {
+        long currentTail = tail;
+        int limit = capacity;
+        if (currentTail - headCache >= limit) {
+            headCache = head;
+            if (currentTail - headCache >= limit) {
+                return false;
+            }
+        }
+        buffer[(int) currentTail & mask] = value;
+        tail = currentTail + 1;
+        return true;
+    }
+
+    /**
+     * Removes the oldest value in stored form. The queue must not be empty.
+     */
+    public long pollLong() {
+        long currentHead = head;
+        long value = buffer[(int) currentHead & mask];
+        head = currentHead + 1;
+        return value;
+    }
+
+    /**
+     * Moves up to max values in stored form into the given array, see
+     * {@link #drainTo(Collection, int)}.
+     */
+    public int drainTo(long[] values, int offset, int max) {
+        long currentHead = head;
+        long available = tailCache - currentHead;
+        if (available < max) {
+            tailCache = tail;
+            available = tailCache - currentHead;
+        }
+        int count = (int) Math.min(available, max);
+        for (int i = 0; i < count; i++) {
+            values[offset + i] = buffer[(int) (currentHead + i) & mask];
+        }
+        head = currentHead + count;
+        return count;
+    }
+
+    // -------------------------------------------------------------------------
+    // PacketQueue interface
+    // -------------------------------------------------------------------------
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int maxCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the capacity is fixed
+     */
+    public void setCapacity(int capacity) {
+        throw new UnsupportedOperationException("capacity is fixed");
+    }
+
+    public int size() {
+        long currentHead = head;
+        return (int) (tail - currentHead);
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public boolean offer(Object packet) {
+        return offerLong(unbox(packet));
+    }
+
+    public int offer(Object[] packets, int offset, int length) {
+        int count = 0;
+        while (count < length && offerLong(unbox(packets[offset + count]))) {
+            count++;
+        }
+        return count;
+    }
+
+    public Object poll() {
+        if (isEmpty()) {
+            return null;
+        }
+        return box(pollLong());
+    }
+
+    public int drainTo(Collection<Object> packets, int max) {
+        int count = 0;
+        while (count < max && !isEmpty()) {
+            packets.add(box(pollLong()));
+            count++;
+        }
+        return count;
+    }
+
+    public Object[] toArray() {
+        long currentHead = head;
+        Object[] packets = new Object[(int) (tail - currentHead)];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = box(buffer[(int) (currentHead + i) & mask]);
+        }
+        return packets;
+    }
+
+    public void clear() {
+        head = tail;
+    }
+
+    // -------------------------------------------------------------------------
+    // conversion
+    // -------------------------------------------------------------------------
+
+    /**
+     * Converts a value to the stored form of the type of this queue.
+     */
+    public long encode(long value) {
+        if (type == double.class) {
+            return Double.doubleToRawLongBits(value);
+        }
+        return type == int.class ? (int) value : value;
+    }
+
+    public long encode(double value) {
+        if (type == double.class) {
+            return Double.doubleToRawLongBits(value);
+        }
+        return type == int.class ? (int) value : (long) value;
+    }
+
+    public long decodeLong(long stored) {
+        if (type == double.class) {
+            return (long) Double.longBitsToDouble(stored);
+        }
+        return stored;
+    }
+
+    public double decodeDouble(long stored) {
+        if (type == double.class) {
+            return Double.longBitsToDouble(stored);
+        }
+        return stored;
+    }
+
+    public Object box(long stored) {
+        if (type == int.class) {
+            return Integer.valueOf((int) stored);
+        } else if (type == long.class) {
+            return Long.valueOf(stored);
+        } else {
+            return Double.valueOf(Double.longBitsToDouble(stored));
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private long unbox(Object packet) {
+        if (packet == null) {
+            throw new NullPointerException("packet is null");
+        }
+        if (packet instanceof Double || packet instanceof Float) {
+            return encode(((Number) packet).doubleValue());
+        }
+        return encode(((Number) packet).longValue());
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of the reorder buffer of one {@link RtOrderedStage}. Only written
+ * while holding the lock of the stage.
+ */
+public final class ReorderMetrics {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    private static final int PACKETS = 0;
+    private static final int PACKETS_REORDERED = 1;
+    private static final int OCCUPANCY = 2;
+    private static final int HIGH_WATER_MARK = 3;
+    private static final int WINDOW_STALL_NANOS = 4;
+    private static final int WINDOW_STALLS = 5;
+
+    private static final int LENGTH = 6;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final String name;
+    private final int window;
+    private final AtomicLongArray values = new AtomicLongArray(LENGTH);
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public ReorderMetrics(String name, int window) {
+        this.name = name;
+        this.window = window;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of input packets that may be in the stage at the same time.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    public long getPackets() {
+        return values.get(PACKETS);
+    }
+
+    /**
+     * Results that arrived before the results of an earlier packet and had to
+     * be held back.
+     */
+    public long getPacketsReordered() {
+        return values.get(PACKETS_REORDERED);
+    }
+
+    /**
+     * Results currently held in the reorder buffer.
+     */
+    public long getOccupancy() {
+        return values.get(OCCUPANCY);
+    }
+
+    public long getHighWaterMark() {
+        return values.get(HIGH_WATER_MARK);
+    }
+
+    /**
+     * Time workers spent waiting for the window to move on.
+     */
+    public long getWindowStallNanos() {
+        return values.get(WINDOW_STALL_NANOS);
+    }
+
+    public long getWindowStalls() {
+        return values.get(WINDOW_STALLS);
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public void buffered(boolean reordered, int occupancy) {
+        add(PACKETS, 1);
+        if (reordered) {
+            add(PACKETS_REORDERED, 1);
+        }
+        occupancy(occupancy);
+    }
+
+    public void occupancy(int occupancy) {
+        values.lazySet(OCCUPANCY, occupancy);
+        if (occupancy > values.get(HIGH_WATER_MARK)) {
+            values.lazySet(HIGH_WATER_MARK, occupancy);
+        }
+    }
+
+    public void windowStalled(long nanos) {
+        add(WINDOW_STALL_NANOS, nanos);
+        add(WINDOW_STALLS, 1);
+    }
+
+    /**
+     * Returns a detached copy of these metrics.
+     */
+    public ReorderMetrics snapshot() {
+        ReorderMetrics copy = new ReorderMetrics(name, window);
+        for (int i = 0; i < LENGTH; i++) {
+            copy.values.set(i, values.get(i));
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [packets=" + getPackets() + ", reordered="
+                + getPacketsReordered() + ", occupancy=" + getOccupancy()
+                + ", highWaterMark=" + getHighWaterMark() + ", window="
+                + window + ", windowStallNanos=" + getWindowStallNanos() + "]";
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void add(int index, long delta) {
+        values.lazySet(index, values.get(index) + delta);
+    }
+}
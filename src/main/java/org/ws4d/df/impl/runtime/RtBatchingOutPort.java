@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * Out port that collects packets and hands them to its in port in batches,
+ * so the receiver is woken up once per batch instead of once per packet. A
+ * batch is flushed when it is full, when its oldest packet has waited for the
+ * flush interval (see {@link BatchFlusher}) and when the port is closed. The
+ * receiver gets the packets one by one as usual.
+ */
+public class RtBatchingOutPort extends RtOutPort {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final Object[] batch;
+    private int size = 0;
+    // 0 if batches are only flushed when full or closed
+    private final long flushNanos;
+    // time the oldest packet of the batch was sent
+    private long firstNanos;
+    // Held by the sender while it adds packets, the flusher only tries it.
+    private final ReentrantLock lock = new ReentrantLock();
+    // null if batches are only flushed when full or closed
+    private BatchFlusher flusher = null;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtBatchingOutPort(String name, RtComponent component, int index,
+            RtInPort rtInPort, int batchSize, long flushMicros) {
+        super(name, component, index, rtInPort);
+        this.batch = new Object[batchSize];
+        this.flushNanos = flushMicros * 1000L;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public int getBatchSize() {
+        return batch.length;
+    }
+
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    void setFlusher(BatchFlusher flusher) {
+        this.flusher = flusher;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void reset() {
+        lock.lock();
+        try {
+            if (size > 0) {
+                Arrays.fill(batch, 0, size, null);
+                size = 0;
+                batchClosed();
+            }
+        } finally {
+            lock.unlock();
+        }
+        super.reset();
+    }
+
+    /**
+     * Hands the batch to the in port, waiting for space if needed.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (size > 0) {
+                getRtInPort().appendAll(batch, 0, size);
+                Arrays.fill(batch, 0, size, null);
+                size = 0;
+                batchClosed();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the flusher. Queues as much of a batch whose oldest packet is
+     * due as fits, unless the sender is busy with the port.
+     */
+    void flushIfStale(long now) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (size > 0 && now - firstNanos >= flushNanos) {
+                int queued = getRtInPort().offerAll(batch, 0, size);
+                System.arraycopy(batch, queued, batch, 0, size - queued);
+                Arrays.fill(batch, size - queued, size, null);
+                size -= queued;
+                if (size == 0) {
+                    batchClosed();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // OutPort interface
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void send(Object packet) {
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_send(this, packet);
+        }
+
+        lock.lock();
+        try {
+            if (size == 0) {
+                firstNanos = System.nanoTime();
+                if (flusher != null) {
+                    flusher.batchOpened();
+                }
+            }
+            batch[size++] = packet;
+            if (size == batch.length) {
+                flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+        component.sent();
+    }
+
+    @Override
+    public void sendAll(Object[] packets) {
+        traceAll(packets);
+
+        // A whole array already is a batch, keep the order with the pending
+        // one.
+        lock.lock();
+        try {
+            flush();
+            getRtInPort().appendAll(packets, 0, packets.length);
+        } finally {
+            lock.unlock();
+        }
+        component.sent();
+    }
+
+    /**
+     * Flushes the batch first. The flusher holds the lock only for a
+     * non-blocking offer, and other threads close the ports of a component
+     * only while it does not run, so waiting for the lock cannot stall.
+     */
+    @Override
+    public void close() {
+        flush();
+        super.close();
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void batchClosed() {
+        if (flusher != null) {
+            flusher.batchClosed();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * In port of a binary connection. Each byte[] or {@link ByteBuffer} sent is
+ * copied into a preallocated off-heap {@link ByteRing}, and the receiver gets
+ * a view of the copy that it must release after use. The sender may reuse its
+ * array or buffer as soon as the send returns, so large payloads create no
+ * garbage.
+ * <p>
+ * The capacity of the port bounds the packets that are queued or received
+ * but not yet released.
+ */
+public class RtBinaryInPort extends RtInPort implements BinaryInPort {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final ByteRing ring;
+    // the sender, while it waits for space in the ring
+    private volatile Thread waitingWriter = null;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtBinaryInPort(String inPortName, RtComponent receiver, int index,
+            int capacity, int binaryCapacity) {
+        super(inPortName, receiver, index, capacity);
+        this.ring = new ByteRing(binaryCapacity, capacity);
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public int getBinaryCapacity() {
+        return ring.getCapacity();
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void reset() {
+        super.reset();
+        ring.clear();
+    }
+
+    @Override
+    public void append(Object packet) {
+        if (isClosed()) {
+            return;
+        }
+        ByteBuffer view = ring.tryWrite(packet);
+        if (view == null) {
+            view = awaitRing(packet);
+            if (view == null) {
+                return;
+            }
+        }
+        bytesHeld();
+        super.append(view);
+    }
+
+    @Override
+    public void appendAll(Object[] packets, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            append(packets[i]);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        Thread writerThread = waitingWriter;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // BinaryInPort interface
+    // -------------------------------------------------------------------------
+
+    public void release(ByteBuffer packet) {
+        ring.release(packet);
+        bytesHeld();
+        Thread writerThread = waitingWriter;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void bytesHeld() {
+        PortMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.bytesHeld(ring.getBytesHeld(), ring.getHighWaterMark());
+        }
+    }
+
+    private ByteBuffer awaitRing(Object packet) {
+        PortMetrics metrics = getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        waitingWriter = Thread.currentThread();
+        try {
+            ByteBuffer view;
+            int round = 0;
+            while ((view = ring.tryWrite(packet)) == null) {
+                if (isClosed()) {
+                    return null;
+                }
+                getWaitStrategy().idle(this, round++);
+            }
+            return view;
+        } catch (InterruptedException e) {
+            logException(Level.SEVERE, "???", e);
+            return null;
+        } finally {
+            waitingWriter = null;
+            if (metrics != null) {
+                metrics.sendBlocked(System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -16,10 +16,13 @@
 package org.ws4d.df.impl.runtime;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -44,8 +47,19 @@ public class RtComponent extends Thread implements ComponentContext {
     private final Component component;
     private final ComponentType componentType;
     private final boolean isActiveComponent;
-
-    private ComponentState state = ComponentState.INITIALIZED;
+    private final boolean checkpointable;
+    // null if metrics are disabled
+    private final ComponentMetrics metrics;
+    // null unless this component is a worker of an ordered parallel stage
+    private RtOrderedStage orderedStage = null;
+    private int orderedWorker = -1;
+
+    private volatile ComponentState state = ComponentState.INITIALIZED;
+    // Number of restarts in reset mode, guarded by lock.
+    private int runs = 0;
+    // The run of the network in which the close of this component was
+    // reported, so a restart does not have to clear a flag per component.
+    private final AtomicInteger closeReportedRun = new AtomicInteger(-1);
     private Map<String, InPort> singleInPorts = null;
     private Map<String, List<InPort>> arrayInPorts = null;
     private Map<String, OutPort> singleOutPorts = null;
@@ -53,8 +67,38 @@ public class RtComponent extends Thread implements ComponentContext {
     private List<InPort> allInPorts = null;
     private List<OutPort> allOutPorts = null;
 
+    // Flat port tables, built by freezePorts() once all ports are added.
+    private InPort[] inPortTable = null;
+    private OutPort[] outPortTable = null;
+    private RtInPort[] rtInPorts = null;
+    private RtInitPort[] rtInitPorts = null;
+    private int initiallyOpenInPorts = 0;
+    private int initiallyOpenOutPorts = 0;
+
+    // Maintained by the ports so that the liveness checks are O(1).
+    private final AtomicInteger openInPorts = new AtomicInteger();
+    private final AtomicInteger openOutPorts = new AtomicInteger();
+    // RtInPorts that are open and whose sender is open
+    private final AtomicInteger liveInPorts = new AtomicInteger();
+    // RtInPorts with queued packets
+    private final AtomicInteger nonEmptyInPorts = new AtomicInteger();
+
     private final ReentrantLock lock;
     private final Condition runCondition;
+    // No monitors, a virtual thread waiting on a monitor pins its carrier.
+    private final ReentrantLock dataLock;
+    private final Condition dataCondition;
+
+    // Only used if the network runs on a scheduler.
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // Set once the current execute has received or sent a packet, only used
+    // by the thread running the component.
+    private boolean progressed = false;
+    private final Runnable scheduledRun = new Runnable() {
+        public void run() {
+            runScheduled();
+        }
+    };
 
     // -------------------------------------------------------------------------
     // constructors
@@ -68,8 +112,14 @@ public class RtComponent extends Thread implements ComponentContext {
         this.componentType = componentType;
         this.setName("[" + componentType.getName() + "] " + componentId);
         this.isActiveComponent = componentType.isActive();
+        this.checkpointable = component instanceof Checkpointable;
         lock = new ReentrantLock();
         runCondition = lock.newCondition();
+        dataLock = new ReentrantLock();
+        dataCondition = dataLock.newCondition();
+        NetworkMetrics networkMetrics = rtNetwork.getMetrics();
+        metrics = networkMetrics != null ? networkMetrics
+                .registerComponent(componentId) : null;
     }
 
     // -------------------------------------------------------------------------
@@ -80,6 +130,19 @@ public class RtComponent extends Thread implements ComponentContext {
         return rtNetwork;
     }
 
+    public RtOrderedStage getOrderedStage() {
+        return orderedStage;
+    }
+
+    public int getOrderedWorker() {
+        return orderedWorker;
+    }
+
+    public void setOrderedStage(RtOrderedStage orderedStage, int worker) {
+        this.orderedStage = orderedStage;
+        this.orderedWorker = worker;
+    }
+
     public Component getComponent() {
         return component;
     }
@@ -95,6 +158,9 @@ public class RtComponent extends Thread implements ComponentContext {
     private void setState(ComponentState state) {
         this.state = state;
 
+        if (metrics != null) {
+            metrics.stateChanged(state);
+        }
         if (rtNetwork.getComponentTracer() != null) {
             rtNetwork.getComponentTracer().changeState(this, this.state);
         }
@@ -105,39 +171,43 @@ public class RtComponent extends Thread implements ComponentContext {
     // -------------------------------------------------------------------------
 
     public void addInPort(String inPortName, InPort inPort) {
+        assertNotFrozen();
+
         if (singleInPorts == null) {
             singleInPorts = new HashMap<String, InPort>();
         }
 
         singleInPorts.put(inPortName, inPort);
-        allInPorts = null;
     }
 
     public void addInPorts(String inPortName, List<InPort> inPorts) {
+        assertNotFrozen();
+
         if (arrayInPorts == null) {
             arrayInPorts = new HashMap<String, List<InPort>>();
         }
 
         arrayInPorts.put(inPortName, inPorts);
-        allInPorts = null;
     }
 
     public void addOutPort(String outPortName, OutPort outPort) {
+        assertNotFrozen();
+
         if (singleOutPorts == null) {
             singleOutPorts = new HashMap<String, OutPort>();
         }
 
         singleOutPorts.put(outPortName, outPort);
-        allOutPorts = null;
     }
 
     public void addOutPorts(String outPortName, List<OutPort> outPorts) {
+        assertNotFrozen();
+
         if (arrayOutPorts == null) {
             arrayOutPorts = new HashMap<String, List<OutPort>>();
         }
 
         arrayOutPorts.put(outPortName, outPorts);
-        allOutPorts = null;
     }
 
     public InPort getInPort(String name) {
@@ -156,14 +226,59 @@ public class RtComponent extends Thread implements ComponentContext {
         return arrayOutPorts != null ? arrayOutPorts.get(name) : null;
     }
 
+    /**
+     * Builds the flat port tables and liveness counters. Must be called once
+     * all ports have been added and before the component is started.
+     */
+    public void freezePorts() {
+        List<InPort> inPortsList = collectInPorts();
+        List<OutPort> outPortsList = collectOutPorts();
+        inPortTable = inPortsList.toArray(new InPort[inPortsList.size()]);
+        outPortTable = outPortsList.toArray(new OutPort[outPortsList.size()]);
+        allInPorts = Collections.unmodifiableList(Arrays.asList(inPortTable));
+        allOutPorts = Collections.unmodifiableList(Arrays.asList(outPortTable));
+
+        List<RtInPort> rtInPortsList = new ArrayList<RtInPort>();
+        List<RtInitPort> rtInitPortsList = new ArrayList<RtInitPort>();
+        initiallyOpenInPorts = 0;
+        for (InPort inPort : inPortTable) {
+            if (inPort instanceof RtInPort) {
+                rtInPortsList.add((RtInPort) inPort);
+            } else if (inPort instanceof RtInitPort) {
+                rtInitPortsList.add((RtInitPort) inPort);
+            }
+            if (!inPort.isClosed()) {
+                initiallyOpenInPorts++;
+            }
+        }
+        initiallyOpenOutPorts = 0;
+        for (OutPort outPort : outPortTable) {
+            if (!outPort.isClosed()) {
+                initiallyOpenOutPorts++;
+            }
+        }
+        rtInPorts = rtInPortsList.toArray(new RtInPort[rtInPortsList.size()]);
+        rtInitPorts = rtInitPortsList.toArray(new RtInitPort[rtInitPortsList
+                .size()]);
+        resetCounters();
+    }
+
+    /**
+     * The in ports connected to an out port, in the order of
+     * {@link #getAllInPorts()}.
+     */
+    public RtInPort[] getRtInPorts() {
+        return rtInPorts;
+    }
+
     public void closeAllInPorts() {
-        for (InPort inPort : getAllInPorts()) {
+        for (InPort inPort : inPortTable) {
             inPort.close();
         }
     }
 
     public void closeAllOutPorts() {
-        for (OutPort outPort : getAllOutPorts()) {
+        for (OutPort outPort : outPortTable) {
             outPort.close();
         }
     }
@@ -178,20 +293,103 @@ public class RtComponent extends Thread implements ComponentContext {
     }
 
     public void runComponent() {
-        if (state == ComponentState.INITIALIZED) {
-            // This thread hasn't been started yet.
-            setState(ComponentState.ACTIVE);
-            super.start();
-        } else if (state == ComponentState.RESETTED) {
-            lock.lock();
-            setState(ComponentState.ACTIVE);
-            runCondition.signal();
+        lock.lock();
+        try {
+            if (state == ComponentState.INITIALIZED) {
+                // This thread hasn't been started yet.
+                setState(ComponentState.ACTIVE);
+                if (rtNetwork.getScheduler() != null) {
+                    schedule();
+                } else if (rtNetwork.getExecutionMode()
+                        == ExecutionMode.VIRTUAL_THREADS) {
+                    VirtualThreads.start(getName(), this);
+                } else {
+                    super.start();
+                }
+            } else if (state == ComponentState.RESETTED) {
+                setState(ComponentState.ACTIVE);
+                runs++;
+                if (rtNetwork.getScheduler() != null) {
+                    schedule();
+                } else {
+                    runCondition.signal();
+                }
+            } else {
+                throw new IllegalStateException("");
+            }
+        } finally {
             lock.unlock();
+        }
+    }
+
+    /**
+     * Called by an in port after it queued a packet and found no thread
+     * parked in its receive(). Starts the component if it is not running yet
+     * or wakes it up if it waits for data.
+     */
+    public void packetAvailable() {
+        ComponentState currentState = state;
+        if (currentState == ComponentState.INACTIVE) {
+            wakeUp();
+        } else if (currentState == ComponentState.INITIALIZED
+                || currentState == ComponentState.RESETTED) {
+            lock.lock();
+            try {
+                // Several in ports may race to start this component.
+                if (state == ComponentState.INITIALIZED
+                        || state == ComponentState.RESETTED) {
+                    runComponent();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wakes the component up if it waits for data. On a scheduler this
+     * enqueues the component instead.
+     */
+    public void wakeUp() {
+        if (rtNetwork.getScheduler() != null) {
+            if (state == ComponentState.INACTIVE) {
+                schedule();
+            }
         } else {
-            throw new IllegalStateException("");
+            dataLock.lock();
+            try {
+                dataCondition.signal();
+            } finally {
+                dataLock.unlock();
+            }
         }
     }
 
+    /**
+     * Runs execute() once in the calling thread. Used by
+     * {@link RtFusedInPort} for components that have no thread of their own.
+     */
+    public void executeInline() {
+        setState(ComponentState.ACTIVE);
+        execute();
+        if (allPortsClosed()) {
+            rtNetwork.componentClosed(this);
+        } else {
+            setState(ComponentState.INACTIVE);
+        }
+    }
+
+    public boolean reportClosed() {
+        int run = rtNetwork.getRun();
+        int reportedRun = closeReportedRun.get();
+        return reportedRun != run
+                && closeReportedRun.compareAndSet(reportedRun, run);
+    }
+
+    public boolean isCloseReported() {
+        return closeReportedRun.get() == rtNetwork.getRun();
+    }
+
     public void finish() {
         component.finish();
         setState(ComponentState.FINISHED);
@@ -202,14 +400,60 @@ public class RtComponent extends Thread implements ComponentContext {
             component.reset();
             setState(ComponentState.RESETTED);
         }
-        for (InPort inPort : getAllInPorts()) {
+        for (InPort inPort : inPortTable) {
             // todo that's dirty
             ((AbstractPort) inPort).reset();
         }
-        for (OutPort outPort : getAllOutPorts()) {
+        for (OutPort outPort : outPortTable) {
             // todo that's dirty
             ((AbstractPort) outPort).reset();
         }
+        resetCounters();
+    }
+
+    void portClosed(boolean isInPort) {
+        if (isInPort) {
+            openInPorts.decrementAndGet();
+        } else {
+            openOutPorts.decrementAndGet();
+        }
+    }
+
+    void inPortEnded() {
+        liveInPorts.decrementAndGet();
+    }
+
+    void inPortFilled() {
+        nonEmptyInPorts.incrementAndGet();
+    }
+
+    void inPortEmptied() {
+        nonEmptyInPorts.decrementAndGet();
+    }
+
+    /**
+     * Called by the in ports when the current execute has received packets.
+     */
+    void received() {
+        progressed = true;
+    }
+
+    /**
+     * Called by the out ports at the end of a send.
+     */
+    void sent() {
+        progressed = true;
+        rtNetwork.safePoint(this);
+    }
+
+    /**
+     * Returns true if a checkpoint may pause the component now. Inside an
+     * execute that has received or sent packets only a Checkpointable
+     * component can account for its progress, a restored plain component
+     * would execute for the same input again.
+     */
+    boolean isPausable() {
+        return checkpointable || !progressed;
     }
 
     public void terminate() {
@@ -256,24 +500,7 @@ public class RtComponent extends Thread implements ComponentContext {
         if (allInPorts != null) {
             return allInPorts;
         } else {
-            List<InPort> inPortsList = new ArrayList<InPort>();
-
-            if (singleInPorts != null) {
-                for (InPort inPort : singleInPorts.values()) {
-                    inPortsList.add(inPort);
-                }
-            }
-
-            if (arrayInPorts != null) {
-                for (List<InPort> inPorts : arrayInPorts.values()) {
-                    for (InPort inPort : inPorts) {
-                        inPortsList.add(inPort);
-                    }
-                }
-            }
-
-            allInPorts = Collections.unmodifiableList(inPortsList);
-            return allInPorts;
+            return Collections.unmodifiableList(collectInPorts());
         }
     }
 
@@ -281,24 +508,7 @@ public class RtComponent extends Thread implements ComponentContext {
         if (allOutPorts != null) {
             return allOutPorts;
         } else {
-            List<OutPort> outPortsList = new ArrayList<OutPort>();
-
-            if (singleOutPorts != null) {
-                for (OutPort outPort : singleOutPorts.values()) {
-                    outPortsList.add(outPort);
-                }
-            }
-
-            if (arrayOutPorts != null) {
-                for (List<OutPort> outPorts : arrayOutPorts.values()) {
-                    for (OutPort outPort : outPorts) {
-                        outPortsList.add(outPort);
-                    }
-                }
-            }
-
-            allOutPorts = Collections.unmodifiableList(outPortsList);
-            return allOutPorts;
+            return Collections.unmodifiableList(collectOutPorts());
         }
     }
 
@@ -308,25 +518,25 @@ public class RtComponent extends Thread implements ComponentContext {
 
     @Override
     public void run() {
+        int run = runs;
         while (true) {
             while (true) {
                 setState(ComponentState.ACTIVE);
-                try {
-                    component.execute();
-                } catch (Exception e) {
-                    logException(Level.SEVERE,
-                            "Uncaught Exception in component "
-                                    + component.getClass().getName(), e);
-                }
+                rtNetwork.safePoint(this);
+                execute();
                 if (allPortsClosed()) {
                     rtNetwork.componentClosed(this);
                     break;
                 }
-                synchronized (this) {
+                spinForData();
+                dataLock.lock();
+                try {
                     if (keepAlive()) {
                         setState(ComponentState.INACTIVE);
                         waitForData();
                     }
+                } finally {
+                    dataLock.unlock();
                 }
             }
             if (rtNetwork.isOneTimeMode()) {
@@ -334,9 +544,12 @@ public class RtComponent extends Thread implements ComponentContext {
             } else {
                 try {
                     lock.lock();
-                    if (state != ComponentState.TERMINATED) {
+                    // The network may have been restarted before this thread
+                    // got here.
+                    while (runs == run && state != ComponentState.TERMINATED) {
                         runCondition.await();
                     }
+                    run = runs;
                     lock.unlock();
                 } catch (Exception e) {
                     logException(Level.SEVERE, "???", e);
@@ -363,64 +576,159 @@ public class RtComponent extends Thread implements ComponentContext {
         }
     }
 
-    private boolean keepAlive() {
-        // Keep alive if all of the follow conditions hold:
-        // (1) At least one open connected in port.
-        // (2) Queue of (1) is empty.
-        // (3) Connected out port of (1) is open.
-        boolean keepAlive = false;
-        for (InPort inPort : getAllInPorts()) {
-            if (inPort instanceof RtInPort) {
-                RtInPort rtInPort = (RtInPort) inPort;
-                if (!rtInPort.isClosed() && rtInPort.getPacketCount() == 0
-                        && !rtInPort.getRtOutPort().isClosed()) {
-                    keepAlive = true;
-                    break;
-                }
-            }
+    private void execute() {
+        long start = metrics != null ? System.nanoTime() : 0;
+        try {
+            component.execute();
+        } catch (Exception e) {
+            logException(Level.SEVERE, "Uncaught Exception in component "
+                    + component.getClass().getName(), e);
+        }
+        progressed = false;
+        if (metrics != null) {
+            metrics.executed(System.nanoTime() - start);
         }
-        return keepAlive;
+        if (orderedStage != null) {
+            orderedStage.completed(orderedWorker);
+        }
+    }
+
+    private boolean keepAlive() {
+        // Keep alive if at least one open in port with an open sender has an
+        // empty queue. Queued packets of closed senders make this
+        // conservative, which doesn't matter as the component has data then.
+        int live = liveInPorts.get();
+        return live > 0 && live > nonEmptyInPorts.get();
     }
 
     private boolean allInPortsClosed() {
-        boolean allClosed = true;
-        for (InPort inPort : getAllInPorts()) {
-            if (!inPort.isClosed()) {
-                allClosed = false;
-                break;
+        return openInPorts.get() == 0;
+    }
+
+    private boolean allPortsClosed() {
+        return openInPorts.get() == 0 && openOutPorts.get() == 0;
+    }
+
+    private boolean hasData() {
+        if (nonEmptyInPorts.get() > 0) {
+            return true;
+        }
+        for (RtInitPort rtInitPort : rtInitPorts) {
+            if (!rtInitPort.isClosed()) {
+                return true;
             }
         }
-        return allClosed;
+        return false;
     }
 
-    private boolean allPortsClosed() {
-        boolean allClosed = allInPortsClosed();
-        if (allClosed) {
-            for (OutPort outPort : getAllOutPorts()) {
-                if (!outPort.isClosed()) {
-                    allClosed = false;
-                    break;
+    private void resetCounters() {
+        openInPorts.set(initiallyOpenInPorts);
+        openOutPorts.set(initiallyOpenOutPorts);
+        liveInPorts.set(rtInPorts.length);
+        nonEmptyInPorts.set(0);
+    }
+
+    private void assertNotFrozen() {
+        if (inPortTable != null) {
+            throw new IllegalStateException("Ports of " + componentId
+                    + " are frozen.");
+        }
+    }
+
+    private List<InPort> collectInPorts() {
+        List<InPort> inPortsList = new ArrayList<InPort>();
+
+        if (singleInPorts != null) {
+            for (InPort inPort : singleInPorts.values()) {
+                inPortsList.add(inPort);
+            }
+        }
+
+        if (arrayInPorts != null) {
+            for (List<InPort> inPorts : arrayInPorts.values()) {
+                for (InPort inPort : inPorts) {
+                    inPortsList.add(inPort);
                 }
             }
         }
-        return allClosed;
+
+        return inPortsList;
     }
 
-    private void waitForData() {
-        boolean hasData = false;
-        for (InPort inPort : getAllInPorts()) {
-            // todo dirty cast
-            if (((RuntimeInPort) inPort).getPacketCount() > 0) {
-                hasData = true;
-                break;
+    private List<OutPort> collectOutPorts() {
+        List<OutPort> outPortsList = new ArrayList<OutPort>();
+
+        if (singleOutPorts != null) {
+            for (OutPort outPort : singleOutPorts.values()) {
+                outPortsList.add(outPort);
             }
         }
-        if (!hasData) {
+
+        if (arrayOutPorts != null) {
+            for (List<OutPort> outPorts : arrayOutPorts.values()) {
+                for (OutPort outPort : outPorts) {
+                    outPortsList.add(outPort);
+                }
+            }
+        }
+
+        return outPortsList;
+    }
+
+    /**
+     * Spins as long as the wait strategy of the network allows, before the
+     * component goes INACTIVE and waits for a signal.
+     */
+    private void spinForData() {
+        WaitStrategy waitStrategy = rtNetwork.getWaitStrategy();
+        int round = 0;
+        while (waitStrategy.spin(round++) && keepAlive() && !hasData()) {
+        }
+    }
+
+    private void waitForData() {
+        if (!hasData()) {
             try {
-                wait();
+                dataCondition.await();
             } catch (InterruptedException e) {
                 logException(Level.SEVERE, "???", e);
             }
         }
     }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            rtNetwork.getScheduler().execute(scheduledRun);
+        }
+    }
+
+    /**
+     * Scheduler counterpart of one iteration of the loop in run(). Instead of
+     * waiting for data the component goes INACTIVE and is scheduled again by
+     * its in ports.
+     */
+    private void runScheduled() {
+        setState(ComponentState.ACTIVE);
+        rtNetwork.safePoint(this);
+        execute();
+        if (allPortsClosed()) {
+            scheduled.set(false);
+            rtNetwork.componentClosed(this);
+            return;
+        }
+        boolean idle = keepAlive() && !hasData();
+        if (idle) {
+            setState(ComponentState.INACTIVE);
+        }
+        scheduled.set(false);
+        if (!idle) {
+            schedule();
+        } else if (state == ComponentState.INACTIVE
+                && (!keepAlive() || hasData())) {
+            // Data arrived after the check above, but before the in ports
+            // could see the INACTIVE state. If the state changed meanwhile, an
+            // in port has already scheduled the component again.
+            schedule();
+        }
+    }
 }
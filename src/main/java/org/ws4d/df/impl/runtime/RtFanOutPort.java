@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * Out port connected to several in ports, see {@link ConnectionType}. Only
+ * used by the thread of its component, so the round-robin position needs no
+ * synchronization.
+ */
+public class RtFanOutPort extends RtOutPort {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final RtInPort[] rtInPorts;
+    private final ConnectionType connectionType;
+    private final KeyExtractor keyExtractor;
+    // in ports of an ordered stage number the packets in append order
+    private final boolean ordered;
+    private int next = 0;
+    // scratch space of sendAll, grouping packets by target
+    private int[] targets = new int[0];
+    private int[] groupEnds;
+    private Object[] grouped = new Object[0];
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtFanOutPort(String name, RtComponent component, int index,
+            RtInPort[] rtInPorts, ConnectionType connectionType) {
+        super(name, component, index, rtInPorts[0]);
+        this.rtInPorts = rtInPorts;
+        this.connectionType = connectionType;
+        this.keyExtractor = connectionType.getKeyExtractor();
+        this.ordered = rtInPorts[0] instanceof RtOrderedInPort;
+        this.groupEnds = new int[rtInPorts.length];
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    @Override
+    public RtInPort[] getRtInPorts() {
+        return rtInPorts;
+    }
+
+    public ConnectionType getConnectionType() {
+        return connectionType;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    @Override
+    public int getCapacity() {
+        int capacity = Integer.MAX_VALUE;
+        for (RtInPort rtInPort : rtInPorts) {
+            capacity = Math.min(capacity, rtInPort.getCapacity());
+        }
+        return capacity;
+    }
+
+    @Override
+    public int getPacketCount() {
+        int packetCount = 0;
+        for (RtInPort rtInPort : rtInPorts) {
+            packetCount = Math.max(packetCount, rtInPort.getPacketCount());
+        }
+        return packetCount;
+    }
+
+    @Override
+    public void reset() {
+        next = 0;
+        super.reset();
+    }
+
+    /**
+     * Closes this port once all of its in ports are closed. A
+     * hash-partitioned port closes with the first one, because the keys of
+     * its partition cannot go to another in port.
+     */
+    @Override
+    public void inPortClosed(RtInPort rtInPort) {
+        if (keyExtractor != null) {
+            close();
+            return;
+        }
+        for (RtInPort target : rtInPorts) {
+            if (!target.isClosed()) {
+                return;
+            }
+        }
+        close();
+    }
+
+    // -------------------------------------------------------------------------
+    // OutPort interface
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void send(Object packet) {
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_send(this, packet);
+        }
+
+        if (isClosed()) {
+            // dropped like packets for a closed in port
+        } else if (connectionType == ConnectionType.BROADCAST) {
+            for (RtInPort rtInPort : rtInPorts) {
+                rtInPort.append(packet);
+            }
+        } else {
+            rtInPorts[target(packet)].append(packet);
+        }
+        component.sent();
+    }
+
+    @Override
+    public void sendAll(Object[] packets) {
+        traceAll(packets);
+
+        if (isClosed()) {
+            // dropped like packets for a closed in port
+        } else if (connectionType == ConnectionType.BROADCAST) {
+            for (RtInPort rtInPort : rtInPorts) {
+                rtInPort.appendAll(packets, 0, packets.length);
+            }
+        } else if (ordered) {
+            for (Object packet : packets) {
+                rtInPorts[target(packet)].append(packet);
+            }
+        } else {
+            sendGrouped(packets);
+        }
+        component.sent();
+    }
+
+    @Override
+    public void sendAll(List<?> packets) {
+        sendAll(packets.toArray());
+    }
+
+    @Override
+    public boolean sendWouldBlock() {
+        if (connectionType == ConnectionType.ROUND_ROBIN) {
+            RtInPort rtInPort = rtInPorts[next];
+            return rtInPort.getPacketCount() == rtInPort.getCapacity();
+        }
+        for (RtInPort rtInPort : rtInPorts) {
+            if (rtInPort.getPacketCount() == rtInPort.getCapacity()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (markClosed()) {
+            for (RtInPort rtInPort : rtInPorts) {
+                rtInPort.outPortClosed();
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Hands the packets to their targets with one append per target, keeping
+     * the order of the packets of each target.
+     */
+    private void sendGrouped(Object[] packets) {
+        int length = packets.length;
+        if (targets.length < length) {
+            targets = new int[length];
+            grouped = new Object[length];
+        }
+        Arrays.fill(groupEnds, 0);
+        for (int i = 0; i < length; i++) {
+            int target = target(packets[i]);
+            targets[i] = target;
+            groupEnds[target]++;
+        }
+        for (int target = 0; target < rtInPorts.length; target++) {
+            if (groupEnds[target] == length) {
+                rtInPorts[target].appendAll(packets, 0, length);
+                return;
+            }
+        }
+        // turn the group sizes into group ends, then fill the groups back to
+        // front
+        for (int target = 1; target < rtInPorts.length; target++) {
+            groupEnds[target] += groupEnds[target - 1];
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            grouped[--groupEnds[targets[i]]] = packets[i];
+        }
+        try {
+            for (int target = 0; target < rtInPorts.length; target++) {
+                int start = groupEnds[target];
+                int end = target + 1 < rtInPorts.length ? groupEnds[target + 1]
+                        : length;
+                if (end > start) {
+                    rtInPorts[target].appendAll(grouped, start, end - start);
+                }
+            }
+        } finally {
+            Arrays.fill(grouped, 0, length, null);
+        }
+    }
+
+    private int target(Object packet) {
+        if (keyExtractor != null) {
+            Object key = keyExtractor.getKey(packet);
+            if (key == null) {
+                return 0;
+            }
+            int hash = key.hashCode();
+            // spread the high bits, like HashMap does
+            hash ^= (hash >>> 20) ^ (hash >>> 12);
+            hash ^= (hash >>> 7) ^ (hash >>> 4);
+            return (hash & Integer.MAX_VALUE) % rtInPorts.length;
+        }
+        // round-robin, skipping closed in ports
+        for (int i = 0; i < rtInPorts.length; i++) {
+            int target = next;
+            next = next + 1 == rtInPorts.length ? 0 : next + 1;
+            if (!rtInPorts[target].isClosed()) {
+                return target;
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * In port of a {@link Fusible} component. Instead of queueing packets for the
+ * receiver thread, every append executes the receiver in the thread of the
+ * sender until the packet has been consumed. A receive that finds no packet
+ * returns null, as a blocking receive would wait for the thread that runs it.
+ */
+public class RtFusedInPort extends RtInPort {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    // stands in for the queue of the in port, which a fused port never uses
+    private static final PacketQueue NO_QUEUE = new NoQueue();
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    // Only accessed by the thread currently running the sender.
+    private final ArrayDeque<Object> packets = new ArrayDeque<Object>();
+    private boolean upstreamClosed = false;
+    private boolean executing = false;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtFusedInPort(String inPortName, RtComponent receiver, int index) {
+        super(inPortName, receiver, index, NO_QUEUE, 1);
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void reset() {
+        super.reset();
+        packets.clear();
+        upstreamClosed = false;
+    }
+
+    @Override
+    public void append(Object packet) {
+        if (isClosed()) {
+            return;
+        }
+        packets.add(packet);
+        if (getMetrics() != null) {
+            getMetrics().packetsIn(1, packets.size());
+        }
+        packetsAdded();
+        executeReceiver();
+    }
+
+    @Override
+    public void appendAll(Object[] packets, int offset, int length) {
+        if (isClosed() || length <= 0) {
+            return;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            this.packets.add(packets[i]);
+        }
+        if (getMetrics() != null) {
+            getMetrics().packetsIn(length, this.packets.size());
+        }
+        packetsAdded();
+        executeReceiver();
+    }
+
+    @Override
+    public void outPortClosed() {
+        if (!isClosed()) {
+            upstreamClosed = true;
+            connectionEnded();
+            executeReceiver();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // InPort interface
+    // -------------------------------------------------------------------------
+
+    @Override
+    public int getPacketCount() {
+        return packets.size();
+    }
+
+    @Override
+    public Object receive() {
+        Object packet = packets.poll();
+        if (packet == null) {
+            closeIfEnded();
+            return null;
+        }
+        packetsReceived(1);
+
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_recv(this, packet);
+        }
+
+        return packet;
+    }
+
+    @Override
+    public int drainTo(Collection<Object> packets, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        if (this.packets.isEmpty()) {
+            closeIfEnded();
+            return 0;
+        }
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        int count = 0;
+        Object packet;
+        while (count < max && (packet = this.packets.poll()) != null) {
+            packets.add(packet);
+            count++;
+            if (tracer != null) {
+                tracer.port_recv(this, packet);
+            }
+        }
+        packetsReceived(count);
+        return count;
+    }
+
+    @Override
+    public boolean receiveWouldBlock() {
+        return packets.isEmpty() && !upstreamClosed;
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed()) {
+            packets.clear();
+            super.close();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // protected
+    // -------------------------------------------------------------------------
+
+    @Override
+    protected boolean isEmpty() {
+        return packets.isEmpty();
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void executeReceiver() {
+        if (executing) {
+            // Appended by the receiver itself, the outer loop consumes it.
+            return;
+        }
+        executing = true;
+        try {
+            while (!isClosed() && (!packets.isEmpty() || upstreamClosed)) {
+                int pending = packets.size();
+                getReceiver().executeInline();
+                if (!isClosed() && packets.size() == pending) {
+                    // The receiver did not consume anything.
+                    break;
+                }
+            }
+        } finally {
+            executing = false;
+        }
+    }
+
+    private void closeIfEnded() {
+        if (upstreamClosed) {
+            close();
+        }
+    }
+
+    /**
+     * Empty queue without storage, shared by all fused in ports.
+     */
+    private static final class NoQueue implements PacketQueue {
+
+        public int capacity() {
+            return 1;
+        }
+
+        public int maxCapacity() {
+            return 1;
+        }
+
+        public void setCapacity(int capacity) {
+            throw new UnsupportedOperationException("capacity is fixed");
+        }
+
+        public int size() {
+            return 0;
+        }
+
+        public boolean isEmpty() {
+            return true;
+        }
+
+        public boolean offer(Object packet) {
+            return false;
+        }
+
+        public int offer(Object[] packets, int offset, int length) {
+            return 0;
+        }
+
+        public Object poll() {
+            return null;
+        }
+
+        public int drainTo(Collection<Object> packets, int max) {
+            return 0;
+        }
+
+        public Object[] toArray() {
+            return new Object[0];
+        }
+
+        public void clear() {
+        }
+    }
+}
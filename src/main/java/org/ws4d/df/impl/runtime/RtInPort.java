@@ -15,42 +15,104 @@
  */
 package org.ws4d.df.impl.runtime;
 
-import java.util.LinkedList;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
-import org.ws4d.df.api.comp.ComponentState;
-import org.ws4d.df.api.comp.InPort;
 import org.ws4d.df.api.comp.PortTracer;
 
-public class RtInPort extends AbstractPort implements InPort, RuntimeInPort {
+public class RtInPort extends AbstractPort implements BatchInPort,
+        RuntimeInPort {
 
     // -------------------------------------------------------------------------
 	// instance members
     // -------------------------------------------------------------------------
 	
-    private final int capacity;
+    // Several out ports may feed this in port, it is closed by the last one.
+    private final List<RtOutPort> rtOutPorts = new ArrayList<RtOutPort>(1);
+    private final AtomicInteger openRtOutPorts = new AtomicInteger();
+    private volatile boolean connectedOutPortIsClosed = false;
 
-    private RtOutPort rtOutPort = null;
-    private boolean connectedOutPortIsClosed = false;
-
-    private LinkedList<Object> queue;
-    private ReentrantLock lock;
-    private Condition notEmpty;
-    private Condition notFull;
+    private PacketQueue queue;
+    // Packets sent to the full queue while the network was paused. They
+    // follow the packets in the queue, so nothing is queued while there are
+    // any.
+    private final ConcurrentLinkedQueue<Object> overflow = new ConcurrentLinkedQueue<Object>();
+    private volatile boolean overflowing = false;
+    // Threads parked on an empty (receiver) or full (sender) queue. With
+    // several senders they wait in waitingSenders instead.
+    private volatile Thread waitingReceiver = null;
+    private volatile Thread waitingSender = null;
+    private final ConcurrentLinkedQueue<Thread> waitingSenders;
+    private WaitStrategy waitStrategy;
+    // Keep the liveness counters of the receiver up to date, see RtComponent.
+    private final AtomicBoolean hasPackets = new AtomicBoolean(false);
+    private final AtomicBoolean isLive = new AtomicBoolean(true);
+    // null if neither this port nor the network have a byte capacity
+    private ByteBudget byteBudget = null;
+    private final ByteBudget networkByteBudget;
+    private final PacketSizes packetSizes;
+    // null if the network pools no packets
+    private final PacketPool packetPool;
+    // null unless the capacity adapts to the backpressure, the remaining
+    // fields are only used by the receiver
+    private CapacityTuner capacityTuner = null;
+    private final AtomicLong blockedSendNanos = new AtomicLong();
+    private long blockedReceiveNanos;
+    private int lowWaterMark;
+    private int highWaterMark;
+    private int removals;
+    private long intervalStart;
+    // null if metrics are disabled
+    private final PortMetrics metrics;
+    private final RtNetwork rtNetwork;
 
     // -------------------------------------------------------------------------
     // constructors
     // -------------------------------------------------------------------------
     
     public RtInPort(String inPortName, RtComponent receiver, int index, int capacity) {
+        this(inPortName, receiver, index, capacity, 1);
+    }
+
+    /**
+     * @param senders number of out ports connected to this in port
+     */
+    public RtInPort(String inPortName, RtComponent receiver, int index,
+            int capacity, int senders) {
+        this(inPortName, receiver, index, senders > 1 ? new MpscArrayQueue(
+                capacity) : new SpscRingBuffer(capacity), senders);
+    }
+
+    /**
+     * @param queue must be multi-producer safe if there are several senders
+     */
+    protected RtInPort(String inPortName, RtComponent receiver, int index,
+            PacketQueue queue, int senders) {
         super(inPortName, receiver, index);
-        this.capacity = capacity;
-        this.queue = new LinkedList<Object>();
-        lock = new ReentrantLock();
-        notEmpty = lock.newCondition();
-        notFull = lock.newCondition();
+        this.rtNetwork = receiver.getRtNetwork();
+        this.queue = queue;
+        this.waitingSenders = senders > 1 ? new ConcurrentLinkedQueue<Thread>()
+                : null;
+        this.waitStrategy = receiver.getRtNetwork().getWaitStrategy();
+        this.packetSizes = receiver.getRtNetwork().getPacketSizes();
+        this.packetPool = receiver.getRtNetwork().getPacketPool();
+        this.networkByteBudget = receiver.getRtNetwork().getByteBudget();
+        if (networkByteBudget != null) {
+            byteBudget = new ByteBudget(Long.MAX_VALUE);
+        }
+        NetworkMetrics networkMetrics = receiver.getRtNetwork().getMetrics();
+        metrics = networkMetrics != null ? networkMetrics.registerInPort(
+                receiver.getComponentId(), inPortName, index,
+                queue.capacity(), senders) : null;
     }
 
     // -------------------------------------------------------------------------
@@ -61,8 +123,23 @@ public class RtInPort extends AbstractPort implements InPort, RuntimeInPort {
         return component;
     }
 
-    public RtOutPort getRtOutPort() {
-        return rtOutPort;
+    public List<RtOutPort> getRtOutPorts() {
+        return Collections.unmodifiableList(rtOutPorts);
+    }
+
+    /**
+     * Returns true once every connected out port has been closed.
+     */
+    public boolean isConnectedOutPortClosed() {
+        return connectedOutPortIsClosed;
+    }
+
+    protected PortMetrics getMetrics() {
+        return metrics;
+    }
+
+    protected WaitStrategy getWaitStrategy() {
+        return waitStrategy;
     }
 
     // -------------------------------------------------------------------------
@@ -72,59 +149,207 @@ public class RtInPort extends AbstractPort implements InPort, RuntimeInPort {
     @Override
     public void reset() {
         super.reset();
+        openRtOutPorts.set(rtOutPorts.size());
         connectedOutPortIsClosed = false;
-        queue.clear();
+        clearQueue();
+        releaseAllBytes();
+        hasPackets.set(false);
+        isLive.set(true);
     }
 
-    public void setRtOutPort(RtOutPort rtOutPort) {
-        this.rtOutPort = rtOutPort;
+    /**
+     * Synchronized, the out ports of a network may be created in parallel.
+     */
+    public synchronized void addRtOutPort(RtOutPort rtOutPort) {
+        rtOutPorts.add(rtOutPort);
+        openRtOutPorts.incrementAndGet();
+    }
+
+    /**
+     * Overrides the wait strategy of the network for this connection.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy.forExecutionMode(getReceiver()
+                .getRtNetwork().getExecutionMode());
+    }
+
+    /**
+     * Bounds the bytes held by the queued packets, estimated by the packet
+     * sizes of the network. Must be called before the network is started.
+     */
+    public void setByteCapacity(long byteCapacity) {
+        byteBudget = new ByteBudget(byteCapacity);
+    }
+
+    /**
+     * Lets the capacity adapt to the backpressure observed on this port
+     * within the bounds of the given tuner. The queue starts with an array for
+     * the initial capacity and grows it as the capacity rises, so memory
+     * follows the capacities the tuner grants rather than its maximum. Must be
+     * called before the network is started.
+     */
+    public void setAdaptiveCapacity(CapacityTuner capacityTuner) {
+        this.capacityTuner = capacityTuner;
+        int initial = capacityTuner.register(queue.capacity());
+        if (waitingSenders == null) {
+            queue = new SpscRingBuffer(initial,
+                    capacityTuner.getMaxCapacity());
+        } else {
+            queue = new MpscArrayQueue(initial,
+                    capacityTuner.getMaxCapacity());
+        }
+        if (metrics != null) {
+            metrics.setCapacity(initial);
+        }
+        startInterval();
     }
 
     public void append(Object packet) {
-        try {
-            lock.lockInterruptibly();
-            while (queue.size() == capacity) {
-                notFull.await();
+        if (isClosed()) {
+            return;
+        }
+        if (byteBudget != null && !acquireBytes(packet)) {
+            return;
+        }
+        while (overflowing || !queue.offer(packet)) {
+            if (rtNetwork.isPaused()) {
+                // Waiting for space could keep the network from pausing.
+                overflow.add(packet);
+                overflowing = true;
+                break;
+            }
+            if (!awaitSpace()) {
+                if (byteBudget != null) {
+                    releaseAcquiredBytes(packetSizes.estimate(packet));
+                }
+                return;
+            }
+        }
+        packetsAppended(1);
+    }
+
+    public void appendAll(Object[] packets, int offset, int length) {
+        int end = offset + length;
+        if (byteBudget != null) {
+            // every packet needs its own share of the budget
+            for (int i = offset; i < end; i++) {
+                append(packets[i]);
             }
-        } catch (InterruptedException e) {
-            logException(Level.SEVERE, "???", e);
             return;
         }
+        while (offset < end) {
+            if (isClosed()) {
+                return;
+            }
+            int queued = overflowing ? 0 : queue.offer(packets, offset, end
+                    - offset);
+            if (queued > 0) {
+                offset += queued;
+                packetsAppended(queued);
+            } else if (rtNetwork.isPaused()) {
+                for (int i = offset; i < end; i++) {
+                    overflow.add(packets[i]);
+                }
+                overflowing = true;
+                packetsAppended(end - offset);
+                return;
+            } else if (!awaitSpace()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues as many of the given packets as fit without waiting and returns
+     * their number. Packets for a closed port are dropped and counted.
+     */
+    public int offerAll(Object[] packets, int offset, int length) {
         if (isClosed()) {
-            return;
+            return length;
+        }
+        if (overflowing) {
+            return 0;
         }
-        queue.offer(packet);
-        if (getReceiver().getComponentState() == ComponentState.INITIALIZED
-                || getReceiver().getComponentState() == ComponentState.RESETTED) {
-            getReceiver().runComponent();
-        } else if (getReceiver().getComponentState() == ComponentState.INACTIVE) {
-            synchronized (getReceiver()) {
-                getReceiver().notify();
+        int queued = 0;
+        if (byteBudget != null) {
+            while (queued < length) {
+                Object packet = packets[offset + queued];
+                long bytes = packetSizes.estimate(packet);
+                if (!tryAcquireBytes(bytes)) {
+                    break;
+                }
+                if (!queue.offer(packet)) {
+                    releaseBytes(bytes);
+                    break;
+                }
+                queued++;
             }
         } else {
-            notEmpty.signal();
+            queued = queue.offer(packets, offset, length);
+        }
+        if (queued > 0) {
+            packetsAppended(queued);
         }
-        lock.unlock();
+        return queued;
     }
 
     public void outPortClosed() {
-        try {
-            lock.lockInterruptibly();
-            if (!isClosed()) {
-                connectedOutPortIsClosed = true;
-                // Notify receiver if it currently does a receive
-                notEmpty.signal();
-                // ... or if it waits for data
-                synchronized (getReceiver()) {
-                    getReceiver().notify();
-                }
-                // notFull.signalAll();
+        if (openRtOutPorts.decrementAndGet() > 0) {
+            return;
+        }
+        if (!isClosed()) {
+            connectedOutPortIsClosed = true;
+            connectionEnded();
+            // Notify receiver if it currently does a receive
+            Thread receiverThread = waitingReceiver;
+            if (receiverThread != null) {
+                LockSupport.unpark(receiverThread);
             }
-            lock.unlock();
+            // ... or if it waits for data
+            getReceiver().wakeUp();
+        }
+    }
 
-        } catch (InterruptedException e) {
-            logException(Level.SEVERE, "???", e);
+    /**
+     * Returns the queued packets in order, followed by the packets put aside
+     * during the pause. Only consistent while the network is paused.
+     */
+    Object[] snapshotPackets() {
+        Object[] queued = queue.toArray();
+        if (!overflowing) {
+            return queued;
         }
+        Object[] aside = overflow.toArray();
+        Object[] packets = Arrays.copyOf(queued, queued.length + aside.length);
+        System.arraycopy(aside, 0, packets, queued.length, aside.length);
+        return packets;
+    }
+
+    /**
+     * Queues packets of a checkpoint before a run, without waking the
+     * receiver. Packets beyond the capacity are put aside as during a pause.
+     */
+    void restorePackets(Object[] packets) {
+        int queued = overflowing ? 0 : queue.offer(packets, 0, packets.length);
+        for (int i = queued; i < packets.length; i++) {
+            overflow.add(packets[i]);
+            overflowing = true;
+        }
+        if (packets.length > 0) {
+            packetsAdded();
+        }
+    }
+
+    boolean hasByteCapacity() {
+        return byteBudget != null;
+    }
+
+    void wakeUpWaiters() {
+        Thread receiverThread = waitingReceiver;
+        if (receiverThread != null) {
+            LockSupport.unpark(receiverThread);
+        }
+        wakeUpSenders();
     }
 
     // -------------------------------------------------------------------------
@@ -132,68 +357,506 @@ public class RtInPort extends AbstractPort implements InPort, RuntimeInPort {
     // -------------------------------------------------------------------------
     
     public int getCapacity() {
-        return capacity;
+        return queue.capacity();
     }
 
     public int getPacketCount() {
-        return queue.size();
+        return overflowing ? queue.size() + overflow.size() : queue.size();
     }
 
     public Object receive() {
-        try {
-            lock.lockInterruptibly();
-            if (connectedOutPortIsClosed && queue.isEmpty()) {
-                lock.unlock();
-                close();
+        Object packet = queue.poll();
+        if (packet == null) {
+            packet = awaitPacket();
+            if (packet == null) {
                 return null;
             }
+        }
+        if (byteBudget != null) {
+            releaseBytes(packetSizes.estimate(packet));
+        }
+        if (capacityTuner != null) {
+            sampleQueueSize(1);
+        }
+        packetsReceived(1);
 
-            if (queue.isEmpty()) {
-                notEmpty.await();
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_recv(this, packet);
+        }
+
+        return packet;
+    }
+
+    public int drainTo(Collection<Object> packets, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        // With a tracer or a byte capacity, collect the batch separately to
+        // report it or to release its bytes.
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        List<Object> batch = tracer != null || byteBudget != null
+                ? new ArrayList<Object>() : null;
+        Collection<Object> target = batch != null ? batch : packets;
+
+        int count = queue.drainTo(target, max);
+        if (count == 0) {
+            Object packet = awaitPacket();
+            if (packet == null) {
+                return 0;
             }
+            target.add(packet);
+            count = 1 + queue.drainTo(target, max - 1);
+        }
+        if (byteBudget != null) {
+            long bytes = 0;
+            for (Object packet : batch) {
+                bytes += packetSizes.estimate(packet);
+            }
+            releaseBytes(bytes);
+        }
+        if (capacityTuner != null) {
+            sampleQueueSize(count);
+        }
+        packetsReceived(count);
+
+        if (batch != null) {
+            packets.addAll(batch);
+        }
+        if (tracer != null) {
+            if (tracer instanceof BatchPortTracer) {
+                ((BatchPortTracer) tracer).port_recvAll(this, batch);
+            } else {
+                for (Object packet : batch) {
+                    tracer.port_recv(this, packet);
+                }
+            }
+        }
+
+        return count;
+    }
+    
+    public boolean receiveWouldBlock() {
+    	return isEmpty();
+    }
+
+    public void close() {
+        if (markClosed()) {
+            clearQueue();
+            releaseAllBytes();
+            queueEmptied();
+            connectionEnded();
+            wakeUpSenders();
+            for (RtOutPort rtOutPort : rtOutPorts) {
+                rtOutPort.inPortClosed(this);
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // protected
+    // -------------------------------------------------------------------------
+
+    /**
+     * Publishes packets a subclass has put into the queue.
+     */
+    protected void packetsAppended(int count) {
+        if (metrics != null) {
+            metrics.packetsIn(count, queue.size());
+        }
+        packetsAdded();
+        signalReceiver();
+    }
+
+    /**
+     * Accounts for packets a subclass has taken from the queue.
+     */
+    protected void packetsReceived(int count) {
+        packetsRemoved();
+        component.received();
+        if (metrics != null) {
+            metrics.packetsOut(count);
+        }
+    }
+
+    /**
+     * Whether no packet is waiting for the receiver.
+     */
+    protected boolean isEmpty() {
+        return queue.isEmpty() && !overflowing;
+    }
+
+    /**
+     * Counts the port as non-empty at its receiver.
+     */
+    protected void packetsAdded() {
+        if (!hasPackets.get() && hasPackets.compareAndSet(false, true)) {
+            getReceiver().inPortFilled();
+        }
+    }
+
+    /**
+     * Counts the port as ended at its receiver, no more packets will come.
+     */
+    protected void connectionEnded() {
+        if (isLive.compareAndSet(true, false)) {
+            getReceiver().inPortEnded();
+        }
+    }
+
+    /**
+     * Waits until the queue has room or the port is closed. Returns false if
+     * the port is closed.
+     */
+    protected boolean awaitSpace() {
+        boolean timed = metrics != null || capacityTuner != null;
+        long start = timed ? System.nanoTime() : 0;
+        Thread currentThread = Thread.currentThread();
+        if (waitingSenders == null) {
+            waitingSender = currentThread;
+        } else {
+            waitingSenders.add(currentThread);
+        }
+        try {
+            int round = 0;
+            while (queue.size() >= queue.capacity() || overflowing) {
+                if (isClosed()) {
+                    return false;
+                }
+                if (rtNetwork.isPaused()) {
+                    // the caller puts the packets aside
+                    break;
+                }
+                waitStrategy.idle(this, round++);
+            }
+            return !isClosed();
         } catch (InterruptedException e) {
             logException(Level.SEVERE, "???", e);
-            return null;
+            return false;
+        } finally {
+            if (waitingSenders == null) {
+                waitingSender = null;
+            } else {
+                waitingSenders.remove(currentThread);
+            }
+            if (timed) {
+                long nanos = System.nanoTime() - start;
+                if (metrics != null) {
+                    metrics.sendBlocked(nanos);
+                }
+                if (capacityTuner != null) {
+                    blockedSendNanos.addAndGet(nanos);
+                }
+            }
         }
+    }
 
-        Object packet = null;
+    /**
+     * Waits until the queue is not empty. Returns false if the port is
+     * closed, or has been closed because the senders are done and the queue
+     * is drained. Only for queues of a single sender, whose packets are
+     * visible as soon as they are counted.
+     */
+    protected boolean awaitPackets() {
         if (!queue.isEmpty()) {
-            packet = queue.poll();
-            notFull.signal(); // todo oder signalAll()?
+            return true;
         }
+        long start = metrics != null ? System.nanoTime() : 0;
+        waitingReceiver = Thread.currentThread();
+        try {
+            int round = 0;
+            while (queue.isEmpty()) {
+                if (isClosed()) {
+                    return false;
+                }
+                if (connectedOutPortIsClosed) {
+                    // The sender may have queued packets right before closing.
+                    if (queue.isEmpty()) {
+                        close();
+                        return false;
+                    }
+                    return true;
+                }
+                waitStrategy.idle(this, round++);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            logException(Level.SEVERE, "???", e);
+            return false;
+        } finally {
+            waitingReceiver = null;
+            if (metrics != null) {
+                metrics.receiveBlocked(System.nanoTime() - start);
+            }
+        }
+    }
 
-        if (connectedOutPortIsClosed && queue.isEmpty()) {
-            close();
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Polls the queue and, once it is empty, the packets put aside during a
+     * pause.
+     */
+    private Object poll() {
+        Object packet = queue.poll();
+        if (packet == null && overflowing) {
+            packet = overflow.poll();
+            if (overflow.isEmpty()) {
+                overflowing = false;
+                // A paused sender may have put a packet aside meanwhile.
+                if (!overflow.isEmpty()) {
+                    overflowing = true;
+                }
+            }
         }
+        return packet;
+    }
 
-        lock.unlock();
+    private void clearQueue() {
+        overflow.clear();
+        overflowing = false;
+        if (packetPool == null) {
+            queue.clear();
+            return;
+        }
+        Object packet;
+        while ((packet = queue.poll()) != null) {
+            packetPool.recycle(packet);
+        }
+    }
 
-        PortTracer tracer = component.getRtNetwork().getPortTracer();
-        if (tracer != null) {
-            tracer.port_recv(this, packet);
+    private void signalReceiver() {
+        Thread receiverThread = waitingReceiver;
+        if (receiverThread != null) {
+            LockSupport.unpark(receiverThread);
+        } else {
+            getReceiver().packetAvailable();
         }
+    }
 
-        return packet;
+    private void wakeUpSenders() {
+        if (waitingSenders == null) {
+            Thread senderThread = waitingSender;
+            if (senderThread != null) {
+                LockSupport.unpark(senderThread);
+            }
+        } else if (!waitingSenders.isEmpty()) {
+            for (Thread senderThread : waitingSenders) {
+                LockSupport.unpark(senderThread);
+            }
+        }
     }
-    
-    public boolean receiveWouldBlock() {
-    	return queue.isEmpty();
+
+    private void packetsRemoved() {
+        wakeUpSenders();
+
+        if (isEmpty()) {
+            queueEmptied();
+            if (connectedOutPortIsClosed) {
+                close();
+            }
+        }
     }
 
-    public void close() {
-        if (!isClosed()) {
-            try {
-                lock.lockInterruptibly();
-                super.close();
-                queue.clear();
-                notFull.signalAll();
-                notEmpty.signal(); // todo eigentlich nicht notwendig, da nur
-                                    // die komponente close() aufrufen darf
-                lock.unlock();
-            } catch (InterruptedException e) {
-                logException(Level.SEVERE, "???", e);
-            }
-            rtOutPort.close();
+    private void queueEmptied() {
+        if (hasPackets.compareAndSet(true, false)) {
+            getReceiver().inPortEmptied();
+            // The sender may have added a packet before the flag was cleared.
+            if (!isEmpty() && hasPackets.compareAndSet(false, true)) {
+                getReceiver().inPortFilled();
+            }
+        }
+    }
+
+    private boolean acquireBytes(Object packet) {
+        long bytes = packetSizes.estimate(packet);
+        return tryAcquireBytes(bytes) || awaitBytes(bytes);
+    }
+
+    private boolean tryAcquireBytes(long bytes) {
+        if (!byteBudget.tryAcquire(bytes)) {
+            return false;
+        }
+        // The network budget always admits a packet for an empty port, so
+        // every connection makes progress.
+        if (networkByteBudget != null
+                && !networkByteBudget.tryAcquire(bytes,
+                        byteBudget.getUsed() == bytes)) {
+            byteBudget.release(bytes);
+            return false;
+        }
+        if (metrics != null) {
+            metrics.bytesHeld(byteBudget.getUsed(),
+                    byteBudget.getHighWaterMark());
+        }
+        return true;
+    }
+
+    private void releaseBytes(long bytes) {
+        byteBudget.release(bytes);
+        if (networkByteBudget != null) {
+            networkByteBudget.release(bytes);
+        }
+        if (metrics != null) {
+            metrics.bytesHeld(byteBudget.getUsed(),
+                    byteBudget.getHighWaterMark());
+        }
+    }
+
+    /**
+     * Releases the bytes of a packet that is not queued after all. A close
+     * may have released them already together with all others.
+     */
+    private void releaseAcquiredBytes(long bytes) {
+        long released = byteBudget.releaseAtMost(bytes);
+        if (networkByteBudget != null) {
+            networkByteBudget.release(released);
+        }
+        if (metrics != null) {
+            metrics.bytesHeld(byteBudget.getUsed(),
+                    byteBudget.getHighWaterMark());
+        }
+    }
+
+    private void releaseAllBytes() {
+        if (byteBudget != null) {
+            long bytes = byteBudget.releaseAll();
+            if (networkByteBudget != null) {
+                networkByteBudget.release(bytes);
+            }
+        }
+    }
+
+    private boolean awaitBytes(long bytes) {
+        long start = metrics != null ? System.nanoTime() : 0;
+        Thread currentThread = Thread.currentThread();
+        // woken up by the receiver of this port or, for the network budget,
+        // by any receiver
+        if (waitingSenders == null) {
+            waitingSender = currentThread;
+        } else {
+            waitingSenders.add(currentThread);
+        }
+        if (networkByteBudget != null) {
+            networkByteBudget.addWaitingThread(currentThread);
+        }
+        try {
+            int round = 0;
+            while (!tryAcquireBytes(bytes)) {
+                if (isClosed()) {
+                    return false;
+                }
+                waitStrategy.idle(this, round++);
+            }
+            if (isClosed()) {
+                releaseAcquiredBytes(bytes);
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            logException(Level.SEVERE, "???", e);
+            return false;
+        } finally {
+            if (waitingSenders == null) {
+                waitingSender = null;
+            } else {
+                waitingSenders.remove(currentThread);
+            }
+            if (networkByteBudget != null) {
+                networkByteBudget.removeWaitingThread(currentThread);
+            }
+            if (metrics != null) {
+                metrics.sendBlocked(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Tracks the queue size seen by the receiver before it removed the given
+     * number of packets and adapts the capacity once per interval.
+     */
+    private void sampleQueueSize(int removed) {
+        int size = queue.size() + removed;
+        if (size < lowWaterMark) {
+            lowWaterMark = size;
+        }
+        if (size > highWaterMark) {
+            highWaterMark = size;
+        }
+        // read the clock only every few removals
+        if ((++removals & 63) != 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - intervalStart;
+        if (elapsed < capacityTuner.getIntervalNanos()) {
+            return;
+        }
+        int oldCapacity = queue.capacity();
+        int newCapacity = capacityTuner.adapt(oldCapacity,
+                blockedSendNanos.getAndSet(0), blockedReceiveNanos,
+                lowWaterMark, highWaterMark, elapsed);
+        startInterval();
+        if (newCapacity != oldCapacity) {
+            queue.setCapacity(newCapacity);
+            if (metrics != null) {
+                metrics.setCapacity(newCapacity);
+            }
+            PortTracer tracer = component.getRtNetwork().getPortTracer();
+            if (tracer instanceof CapacityTracer) {
+                ((CapacityTracer) tracer).port_capacityChanged(this,
+                        oldCapacity, newCapacity);
+            }
+            if (newCapacity > oldCapacity) {
+                wakeUpSenders();
+            }
+        }
+    }
+
+    private void startInterval() {
+        blockedReceiveNanos = 0;
+        lowWaterMark = Integer.MAX_VALUE;
+        highWaterMark = 0;
+        intervalStart = System.nanoTime();
+    }
+
+    private Object awaitPacket() {
+        boolean timed = metrics != null || capacityTuner != null;
+        long start = timed ? System.nanoTime() : 0;
+        waitingReceiver = Thread.currentThread();
+        try {
+            Object packet;
+            int round = 0;
+            while ((packet = poll()) == null) {
+                if (isClosed()) {
+                    return null;
+                }
+                if (connectedOutPortIsClosed) {
+                    // The sender may have queued packets right before closing.
+                    packet = poll();
+                    if (packet == null) {
+                        close();
+                    }
+                    return packet;
+                }
+                waitStrategy.idle(this, round++);
+                rtNetwork.safePoint(component);
+            }
+            return packet;
+        } catch (InterruptedException e) {
+            logException(Level.SEVERE, "???", e);
+            return null;
+        } finally {
+            waitingReceiver = null;
+            if (timed) {
+                long nanos = System.nanoTime() - start;
+                if (metrics != null) {
+                    metrics.receiveBlocked(nanos);
+                }
+                blockedReceiveNanos += nanos;
+            }
         }
     }
 }
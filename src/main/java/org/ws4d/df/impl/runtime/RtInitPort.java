@@ -15,10 +15,12 @@
  */
 package org.ws4d.df.impl.runtime;
 
-import org.ws4d.df.api.comp.InPort;
+import java.util.Collection;
+
 import org.ws4d.df.api.comp.PortTracer;
 
-public class RtInitPort extends AbstractPort implements InPort, RuntimeInPort {
+public class RtInitPort extends AbstractPort implements BatchInPort,
+        RuntimeInPort {
 
     // -------------------------------------------------------------------------
 	// instance members
@@ -58,6 +60,7 @@ public class RtInitPort extends AbstractPort implements InPort, RuntimeInPort {
         if (!isStatic) {
             close();
         }
+        component.received();
 
         PortTracer tracer = component.getRtNetwork().getPortTracer();
         if (tracer != null) {
@@ -67,6 +70,18 @@ public class RtInitPort extends AbstractPort implements InPort, RuntimeInPort {
         return packet;
     }
     
+    public int drainTo(Collection<Object> packets, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        Object packet = receive();
+        if (packet == null) {
+            return 0;
+        }
+        packets.add(packet);
+        return 1;
+    }
+    
     public boolean receiveWouldBlock() {
     	return false;
     }
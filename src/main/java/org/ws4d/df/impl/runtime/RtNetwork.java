@@ -19,12 +19,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.ws4d.df.api.comp.ComponentState;
 import org.ws4d.df.api.comp.ComponentTracer;
-import org.ws4d.df.api.comp.InPort;
 import org.ws4d.df.api.comp.OutPort;
 import org.ws4d.df.api.comp.PortTracer;
 import org.ws4d.df.api.network.Network;
@@ -34,6 +38,10 @@ import org.ws4d.df.api.network.NetworkTracer;
 
 public class RtNetwork implements Network, NetworkContext {
 
+	// below this many components a serial reset is faster than handing
+	// slices to the workers
+	private static final int PARALLEL_RESET_THRESHOLD = 256;
+
 	// -------------------------------------------------------------------------
 	// instance members
 	// -------------------------------------------------------------------------
@@ -46,22 +54,67 @@ public class RtNetwork implements Network, NetworkContext {
 	private NetworkTracer networkTracer = null;
 
 	private Map<String, RtComponent> rtComponents = null;
-	private List<RtComponent> nonFinishedRtComponents = null;
-	private List<RtComponent> closedRtComponents = null;
+	// built on the first run, the components do not change afterwards
+	private RtComponent[] components = null;
+	private RtComponent[] startComponents = null;
+	// counts the runs, invalidates the close reports of the previous run
+	private volatile int run = 0;
+	private final CompletionTracker completionTracker = new CompletionTracker();
 
 	private final Map<String, Object> runtimeProperties = new HashMap<String, Object>();
 	private final Map<String, Object> networkProperties = new HashMap<String, Object>();
 
 	private NetworkState state = NetworkState.INITIALIZED;
 	private boolean isOneTime;
+	// set by a run, cleared by the reset before the next run
+	private boolean resetPending = false;
+
+	private final ExecutionMode executionMode;
+	// null if every component runs its own thread
+	private final RtScheduler scheduler;
+	// null if metrics are disabled
+	private NetworkMetrics metrics = null;
+	private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+	private final PacketSizes packetSizes = new PacketSizes();
+	// null if the bytes held by all in ports are not bounded
+	private ByteBudget byteBudget = null;
+	// null if capacities do not adapt to the backpressure
+	private CapacityTuner capacityTuner = null;
+	// null if no packets are pooled
+	private PacketPool packetPool = null;
+	// null unless an out port flushes batches after an interval
+	private BatchFlusher batchFlusher = null;
+
+	// set while the network is paused for a checkpoint, see pause()
+	private volatile boolean paused = false;
+	private final AtomicInteger parkedThreads = new AtomicInteger();
+	private final ConcurrentLinkedQueue<Thread> pausedThreads = new ConcurrentLinkedQueue<Thread>();
+	// components with restored packets, started by the next run
+	private List<RtComponent> restoredComponents = null;
 
 	// -------------------------------------------------------------------------
 	// constructors
 	// -------------------------------------------------------------------------
 
 	public RtNetwork(String networkId) {
+		this(networkId, ExecutionMode.THREAD_PER_COMPONENT);
+	}
+
+	public RtNetwork(String networkId, ExecutionMode executionMode) {
+		if (executionMode == ExecutionMode.VIRTUAL_THREADS
+				&& !VirtualThreads.isSupported()) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or newer.");
+		}
 		this.networkId = networkId;
+		this.executionMode = executionMode;
 		logger = Logger.getLogger(networkId);
+		if (executionMode == ExecutionMode.POOLED) {
+			scheduler = new RtScheduler(Runtime.getRuntime()
+					.availableProcessors(), logger);
+		} else {
+			scheduler = null;
+		}
 	}
 
 	// -------------------------------------------------------------------------
@@ -72,6 +125,117 @@ public class RtNetwork implements Network, NetworkContext {
 		this.rtComponents = rtComponents;
 	}
 
+	public Map<String, RtComponent> getRtComponents() {
+		return rtComponents;
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	public RtScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Returns null if metrics are disabled.
+	 */
+	public NetworkMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Must be called before any component or port of this network is
+	 * created.
+	 */
+	public void enableMetrics() {
+		if (metrics == null) {
+			metrics = new NetworkMetrics();
+		}
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Sets the default wait strategy of ports and components. Must be called
+	 * before any component or port of this network is created.
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		if (waitStrategy != null) {
+			this.waitStrategy = waitStrategy.forExecutionMode(executionMode);
+		}
+	}
+
+	public PacketSizes getPacketSizes() {
+		return packetSizes;
+	}
+
+	/**
+	 * Returns null if the network has no byte capacity.
+	 */
+	public ByteBudget getByteBudget() {
+		return byteBudget;
+	}
+
+	/**
+	 * Bounds the bytes held by the packets queued in all in ports. Must be
+	 * called before any port of this network is created.
+	 */
+	public void setByteCapacity(long byteCapacity) {
+		byteBudget = new ByteBudget(byteCapacity);
+		if (metrics != null) {
+			metrics.setByteBudget(byteBudget);
+		}
+	}
+
+	/**
+	 * Returns null if capacities do not adapt to the backpressure.
+	 */
+	public CapacityTuner getCapacityTuner() {
+		return capacityTuner;
+	}
+
+	public void setCapacityTuner(CapacityTuner capacityTuner) {
+		this.capacityTuner = capacityTuner;
+	}
+
+	/**
+	 * Returns null if no packets are pooled.
+	 */
+	public PacketPool getPacketPool() {
+		return packetPool;
+	}
+
+	/**
+	 * Makes the pool available to components as runtime property
+	 * {@link PacketPool#RUNTIME_PROPERTY}. Must be called before any port of
+	 * this network is created.
+	 */
+	public void setPacketPool(PacketPool packetPool) {
+		this.packetPool = packetPool;
+		runtimeProperties.put(PacketPool.RUNTIME_PROPERTY, packetPool);
+	}
+
+	/**
+	 * Returns the number of the current run, starting at 1 with the first
+	 * run of the network.
+	 */
+	public int getRun() {
+		return run;
+	}
+
+	/**
+	 * Returns the flusher of batching out ports, created on first use.
+	 */
+	public synchronized BatchFlusher getBatchFlusher() {
+		if (batchFlusher == null) {
+			batchFlusher = new BatchFlusher(networkId);
+		}
+		return batchFlusher;
+	}
+
 	public boolean isOneTimeMode() {
 		return isOneTime;
 	}
@@ -96,6 +260,10 @@ public class RtNetwork implements Network, NetworkContext {
 		return componentTracer;
 	}
 
+	public NetworkState getState() {
+		return state;
+	}
+
 	private void setState(NetworkState state) {
 		this.state = state;
 
@@ -108,51 +276,161 @@ public class RtNetwork implements Network, NetworkContext {
 	// methods
 	// -------------------------------------------------------------------------
 
-	public synchronized void componentClosed(RtComponent rtComponent) {
-		closedRtComponents.add(rtComponent);
-		notify();
+	public void componentClosed(RtComponent rtComponent) {
+		if (!completionTracker.componentClosed(rtComponent)) {
+			log(Level.WARNING, "Problem Component: " + rtComponent.getName());
+		}
 	}
 
 	public void runNetwork() throws Exception {
-		nonFinishedRtComponents = new ArrayList<RtComponent>(
-				rtComponents.values());
-		closedRtComponents = new ArrayList<RtComponent>();
+		if (components == null) {
+			collectComponents();
+		}
+		run++;
+		completionTracker.reset();
 
 		setState(NetworkState.STARTED);
 
-		synchronized (this) {
-			for (RtComponent rtComponent : rtComponents.values()) {
-				boolean startComponent = true;
-				if (!rtComponent.isActiveComponent()) {
-					for (InPort inPort : rtComponent.getAllInPorts()) {
-						if (inPort instanceof RtInPort) {
-							startComponent = false;
-							break;
-						}
-					}
-				}
-				if (startComponent) {
-					rtComponent.runComponent();
+		if (batchFlusher != null) {
+			batchFlusher.start();
+		}
+		try {
+			for (RtComponent rtComponent : startComponents) {
+				rtComponent.runComponent();
+			}
+			if (restoredComponents != null) {
+				for (RtComponent rtComponent : restoredComponents) {
+					rtComponent.packetAvailable();
 				}
+				restoredComponents = null;
 			}
-			try {
-				boolean checkFurther = true;
-				while (checkFurther) {
-					wait();
-					checkFurther = checkNetwork();
+
+			int nonFinishedRtComponents = components.length;
+			while (nonFinishedRtComponents > 0) {
+				RtComponent rtComponent = completionTracker.awaitClosed();
+				if (rtComponent == null) {
+					// terminated, see terminate()
+					break;
 				}
-			} catch (Exception e) {
-				logException(Level.SEVERE, "???", e);
+				finishComponent(rtComponent);
+				nonFinishedRtComponents--;
+			}
+		} finally {
+			// closed ports have flushed their batches
+			if (batchFlusher != null) {
+				batchFlusher.stop();
 			}
 		}
 	}
 
+	/**
+	 * Prepares the components and ports for the next run. Called by
+	 * {@link #start()} unless the network has been reset since its last run.
+	 */
 	public void reset() {
-		for (RtComponent rtComponent : rtComponents.values()) {
-			rtComponent.reset();
+		if (components == null) {
+			collectComponents();
+		}
+		if (scheduler != null && scheduler.getParallelism() > 1
+				&& components.length >= PARALLEL_RESET_THRESHOLD) {
+			resetInParallel();
+		} else {
+			for (RtComponent rtComponent : components) {
+				rtComponent.reset();
+			}
+		}
+		if (batchFlusher != null) {
+			batchFlusher.stop();
+		}
+		if (packetPool != null) {
+			packetPool.reportLeaks(logger);
+		}
+		resetPending = false;
+	}
+
+	/**
+	 * Called by the components at safe points: between two executes, at the
+	 * end of a send and while waiting for a packet. Parks the calling thread
+	 * while the network is paused, inside an execute only if the component is
+	 * pausable, see {@link RtComponent#isPausable()}.
+	 */
+	void safePoint(RtComponent rtComponent) {
+		if (paused && rtComponent.isPausable()) {
+			awaitResume();
+		}
+	}
+
+	boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Stops every component at its next safe point. Senders do not wait for
+	 * full queues meanwhile, see {@link RtInPort#append(Object)}, so every
+	 * component gets there unless it runs or blocks outside of the runtime,
+	 * or it is not Checkpointable and waits for a packet that a paused
+	 * component would send.
+	 * Returns false and resumes the network if that takes longer than the
+	 * given time.
+	 */
+	boolean pause(long timeoutNanos) {
+		if (components == null) {
+			collectComponents();
+		}
+		paused = true;
+		long deadline = System.nanoTime() + timeoutNanos;
+		int round = 0;
+		while (!isQuiescent()) {
+			if (System.nanoTime() - deadline > 0) {
+				resume();
+				return false;
+			}
+			// Threads waiting for a packet or for space have to notice the
+			// pause.
+			for (RtComponent rtComponent : components) {
+				for (RtInPort rtInPort : rtComponent.getRtInPorts()) {
+					rtInPort.wakeUpWaiters();
+				}
+			}
+			if (round++ < 16) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, 100000);
+			}
+		}
+		return true;
+	}
+
+	void resume() {
+		paused = false;
+		for (Thread thread : pausedThreads) {
+			LockSupport.unpark(thread);
 		}
 	}
 
+	/**
+	 * Prepares the network for restored packets and states, see
+	 * {@link Checkpointer#restore(RtNetwork, java.io.File)}.
+	 */
+	void prepareRestore() {
+		if (state == NetworkState.STARTED) {
+			throw new IllegalStateException(
+					"A running network cannot be restored.");
+		}
+		if (state == NetworkState.TERMINATED) {
+			throw new IllegalStateException(
+					"A terminated network cannot be restored.");
+		}
+		if (resetPending) {
+			reset();
+		}
+		restoredComponents = new ArrayList<RtComponent>();
+	}
+
+	void addRestoredComponent(RtComponent rtComponent) {
+		restoredComponents.add(rtComponent);
+	}
+
 	// -------------------------------------------------------------------------
 	// Network interface
 	// -------------------------------------------------------------------------
@@ -161,6 +439,10 @@ public class RtNetwork implements Network, NetworkContext {
 		if (this.state == NetworkState.INITIALIZED) {
 			this.isOneTime = true;
 			runNetwork();
+			shutdownScheduler();
+			if (packetPool != null) {
+				packetPool.reportLeaks(logger);
+			}
 			setState(NetworkState.TERMINATED);
 		} else {
 			throw new IllegalStateException(
@@ -175,22 +457,39 @@ public class RtNetwork implements Network, NetworkContext {
 			if (this.isOneTimeMode()) {
 				throw new IllegalStateException(
 						"A terminated network cannot be started again.");
-			} else {
+			} else if (resetPending) {
 				reset();
 			}
 		}
+		// a failed run leaves the components dirty as well
+		resetPending = true;
 		runNetwork();
-		setState(NetworkState.RESETTED);
+		if (!completionTracker.isTerminated()) {
+			setState(NetworkState.RESETTED);
+		}
 	}
 
+	/**
+	 * Closes and terminates all components. A run in progress returns
+	 * without waiting for them.
+	 */
 	public void terminate() {
-		for (RtComponent rtComponent : rtComponents.values()) {
+		if (components == null) {
+			collectComponents();
+		}
+		for (RtComponent rtComponent : components) {
 			rtComponent.closeAllOutPorts();
 		}
-		for (RtComponent rtComponent : rtComponents.values()) {
+		for (RtComponent rtComponent : components) {
 			rtComponent.terminate();
 		}
+		shutdownScheduler();
+		if (packetPool != null) {
+			packetPool.reportLeaks(logger);
+		}
 		setState(NetworkState.TERMINATED);
+		// a running start() returns
+		completionTracker.terminate();
 	}
 
 	public Object getRuntimeProperty(String name) {
@@ -250,58 +549,147 @@ public class RtNetwork implements Network, NetworkContext {
 		}
 	}
 
-	private boolean checkNetwork() {
-		while (closedRtComponents.size() > 0) {
+	/**
+	 * Returns true if the thread of every active component is parked at a
+	 * safe point. A component becoming active checks for the pause before it
+	 * executes, so the others need not be stopped.
+	 */
+	private boolean isQuiescent() {
+		int parked = parkedThreads.get();
+		int active = 0;
+		for (RtComponent rtComponent : components) {
+			if (rtComponent.getComponentState() == ComponentState.ACTIVE) {
+				active++;
+			}
+		}
+		return active == parked && parkedThreads.get() == parked;
+	}
 
-			RtComponent rtComponent = closedRtComponents.remove(0);
-			if (!nonFinishedRtComponents.contains(rtComponent)) {
-				log(Level.WARNING, "Problem Component: " + rtComponent.getName());
-				break;
+	private void awaitResume() {
+		Thread thread = Thread.currentThread();
+		pausedThreads.add(thread);
+		parkedThreads.incrementAndGet();
+		boolean interrupted = false;
+		try {
+			while (paused) {
+				try {
+					RtScheduler.park(this);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
 			}
+		} finally {
+			parkedThreads.decrementAndGet();
+			pausedThreads.remove(thread);
+		}
+		if (interrupted) {
+			thread.interrupt();
+		}
+	}
 
-			rtComponent.finish();
-			if (isOneTimeMode()) {
-				rtComponent.terminate();
+	private void collectComponents() {
+		components = rtComponents.values().toArray(
+				new RtComponent[rtComponents.size()]);
+		List<RtComponent> starters = new ArrayList<RtComponent>();
+		for (RtComponent rtComponent : components) {
+			// Passive components with connected in ports are started by
+			// their first packet.
+			if (rtComponent.isActiveComponent()
+					|| rtComponent.getRtInPorts().length == 0) {
+				starters.add(rtComponent);
 			}
-			nonFinishedRtComponents.remove(rtComponent);
-
-			for (OutPort outPort : rtComponent.getAllOutPorts()) {
-				if (outPort instanceof RtOutPort) { // todo dirty
-					RtComponent neighbour = ((RtOutPort) outPort).getRtInPort()
-							.getReceiver();
-					if (nonFinishedRtComponents.contains(neighbour)
-							&& neighbour.getComponentState() != ComponentState.ACTIVE) {
-
-						boolean closeComponent = true;
-						for (InPort inPort : neighbour.getAllInPorts()) {
-							if (inPort instanceof RtInPort) {
-								RtInPort rtInPort = (RtInPort) inPort;
-								if (!rtInPort.getRtOutPort().isClosed()
-										|| (!rtInPort.isClosed() && rtInPort
-												.getPacketCount() > 0)) {
-									closeComponent = false;
-									break;
-								}
-							}
-						}
-						if (closeComponent) {
-							if (neighbour.getComponentState() == ComponentState.INITIALIZED
-									|| neighbour.getComponentState() == ComponentState.RESETTED
-									|| neighbour.getComponentState() == ComponentState.TERMINATED) {
-								neighbour.closeAllPorts();
-								componentClosed(neighbour);
-							} else {
-								logger.log(Level.WARNING, "DEAD LOCK ?!?");
-								// state is INACTIVE
-								// todo deadlock
-							}
-						}
+		}
+		startComponents = starters.toArray(new RtComponent[starters.size()]);
+	}
 
+	/**
+	 * Resets slices of the components on the workers of the scheduler. The
+	 * network is idle between runs, so the slices do not interfere.
+	 */
+	private void resetInParallel() {
+		int slices = Math.min(scheduler.getParallelism(), components.length
+				/ (PARALLEL_RESET_THRESHOLD / 2));
+		int sliceSize = (components.length + slices - 1) / slices;
+		final CountDownLatch done = new CountDownLatch(
+				(components.length + sliceSize - 1) / sliceSize);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		for (int from = 0; from < components.length; from += sliceSize) {
+			final int sliceFrom = from;
+			final int sliceTo = Math.min(from + sliceSize, components.length);
+			scheduler.execute(new Runnable() {
+				public void run() {
+					try {
+						for (int i = sliceFrom; i < sliceTo; i++) {
+							components[i].reset();
+						}
+					} catch (RuntimeException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
 					}
 				}
+			});
+		}
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during reset.", e);
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+	private void shutdownScheduler() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+		if (batchFlusher != null) {
+			batchFlusher.shutdown();
+		}
+	}
+
+	private void finishComponent(RtComponent rtComponent) {
+		rtComponent.finish();
+		if (isOneTimeMode()) {
+			rtComponent.terminate();
+		}
+
+		for (OutPort outPort : rtComponent.getAllOutPorts()) {
+			if (outPort instanceof RtOutPort) { // todo dirty
+				for (RtInPort target : ((RtOutPort) outPort).getRtInPorts()) {
+					neighbourFinished(target.getReceiver());
+				}
 			}
 		}
+	}
 
-		return nonFinishedRtComponents.size() != 0;
+	private void neighbourFinished(RtComponent neighbour) {
+		if (!neighbour.isCloseReported()
+				&& neighbour.getComponentState() != ComponentState.ACTIVE) {
+
+			boolean closeComponent = true;
+			for (RtInPort rtInPort : neighbour.getRtInPorts()) {
+				if (!rtInPort.isConnectedOutPortClosed()
+						|| (!rtInPort.isClosed() && rtInPort
+								.getPacketCount() > 0)) {
+					closeComponent = false;
+					break;
+				}
+			}
+			if (closeComponent) {
+				if (neighbour.getComponentState() == ComponentState.INITIALIZED
+						|| neighbour.getComponentState() == ComponentState.RESETTED
+						|| neighbour.getComponentState() == ComponentState.TERMINATED) {
+					neighbour.closeAllPorts();
+					componentClosed(neighbour);
+				} else {
+					logger.log(Level.WARNING, "DEAD LOCK ?!?");
+					// state is INACTIVE
+					// todo deadlock
+				}
+			}
+		}
 	}
 }
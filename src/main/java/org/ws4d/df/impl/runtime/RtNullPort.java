@@ -15,11 +15,11 @@
  */
 package org.ws4d.df.impl.runtime;
 
-import org.ws4d.df.api.comp.InPort;
-import org.ws4d.df.api.comp.OutPort;
+import java.util.Collection;
+import java.util.List;
 
-public class RtNullPort extends AbstractPort implements InPort, OutPort,
-		RuntimeInPort {
+public class RtNullPort extends AbstractPort implements BatchInPort,
+		BatchOutPort, RuntimeInPort {
 
 	// -------------------------------------------------------------------------
 	// constructors
@@ -45,6 +45,10 @@ public class RtNullPort extends AbstractPort implements InPort, OutPort,
 		return null;
 	}
 
+	public int drainTo(Collection<Object> packets, int max) {
+		return 0;
+	}
+
 	public boolean receiveWouldBlock() {
 		return false;
 	}
@@ -55,6 +59,12 @@ public class RtNullPort extends AbstractPort implements InPort, OutPort,
 	public void send(Object packet) {
 	}
 
+	public void sendAll(Object[] packets) {
+	}
+
+	public void sendAll(List<?> packets) {
+	}
+
 	public boolean sendWouldBlock() {
 		return false;
 	}
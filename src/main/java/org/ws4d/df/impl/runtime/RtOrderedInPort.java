@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Collection;
+
+/**
+ * In port of a worker of an {@link RtOrderedStage}. Tells the stage about
+ * every packet appended and taken, so packets are received one at a time.
+ */
+public class RtOrderedInPort extends RtInPort {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final RtOrderedStage stage;
+    private final int worker;
+    // the worker while it is in receive(), only compared with the current
+    // thread
+    private Thread receivingThread = null;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtOrderedInPort(String inPortName, RtComponent receiver, int index,
+            int capacity, int senders, RtOrderedStage stage, int worker) {
+        super(inPortName, receiver, index, capacity, senders);
+        this.stage = stage;
+        this.worker = worker;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * The stage numbers the packet before it is queued. A packet the stage
+     * did not number is dropped, the worker could not account for it.
+     */
+    @Override
+    public void append(Object packet) {
+        if (stage.appending(worker)) {
+            super.append(packet);
+        }
+    }
+
+    @Override
+    public void appendAll(Object[] packets, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            append(packets[i]);
+        }
+    }
+
+    /**
+     * Never used, ordered stages have no batching senders.
+     */
+    @Override
+    public int offerAll(Object[] packets, int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    // -------------------------------------------------------------------------
+    // InPort interface
+    // -------------------------------------------------------------------------
+
+    /**
+     * The queued packets are dropped. While the worker receives, the port
+     * may close itself after the worker took the last packet, so the stage
+     * is told once that packet is accounted for.
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (receivingThread != Thread.currentThread()) {
+            stage.inPortClosed(worker);
+        }
+    }
+
+    @Override
+    public Object receive() {
+        // the previous packet is done before waiting for the next one
+        stage.completed(worker);
+        receivingThread = Thread.currentThread();
+        Object packet;
+        try {
+            packet = super.receive();
+        } finally {
+            receivingThread = null;
+        }
+        if (packet != null) {
+            stage.received(worker);
+        }
+        if (isClosed()) {
+            stage.inPortClosed(worker);
+        }
+        return packet;
+    }
+
+    @Override
+    public int drainTo(Collection<Object> packets, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        Object packet = receive();
+        if (packet == null) {
+            return 0;
+        }
+        packets.add(packet);
+        return 1;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.List;
+
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * Out port of a worker of an {@link RtOrderedStage}. Results are handed to
+ * the stage, which emits them to the downstream in port in input order.
+ */
+public class RtOrderedOutPort extends RtOutPort {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final RtOrderedStage stage;
+    private final int worker;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtOrderedOutPort(String name, RtComponent component, int index,
+            RtInPort rtInPort, RtOrderedStage stage, int worker) {
+        super(name, component, index, rtInPort);
+        this.stage = stage;
+        this.worker = worker;
+        stage.setDownstream(rtInPort);
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void reset() {
+        super.reset();
+        stage.reset();
+    }
+
+    // -------------------------------------------------------------------------
+    // OutPort interface
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void send(Object packet) {
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_send(this, packet);
+        }
+
+        stage.send(worker, packet);
+    }
+
+    @Override
+    public void sendAll(Object[] packets) {
+        traceAll(packets);
+
+        stage.sendAll(worker, packets);
+    }
+
+    @Override
+    public void sendAll(List<?> packets) {
+        sendAll(packets.toArray());
+    }
+
+    @Override
+    public void close() {
+        if (markClosed()) {
+            stage.outPortClosed(worker);
+        }
+    }
+}
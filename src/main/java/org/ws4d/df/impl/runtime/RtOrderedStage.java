@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reassembles the results of the instances (workers) of a replicated
+ * component in the order of their input. The single sender of the stage
+ * numbers the packets when it appends them to the in port of a worker, see
+ * {@link RtOrderedInPort}, and the stage keeps the numbers per worker in
+ * queue order, so packets need no tag. A packet is done when its worker
+ * receives the next one or returns from execute(), every result sent in
+ * between belongs to it. Packets dropped by a closed in port are done as
+ * well.
+ * <p>
+ * Results are held per sequence number and emitted to the downstream in port
+ * once all results of the earlier packets have been emitted. At most
+ * {@code window} packets may be in the stage, the sender waits until the
+ * window has moved on. Results of the oldest packet never wait, so the stage
+ * can not dead lock.
+ */
+public class RtOrderedStage {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    public static final int DEFAULT_WINDOW = 1024;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final String name;
+    private final int workers;
+    private final int window;
+
+    // all guarded by this
+    private final List<Object>[] results;
+    private final boolean[] done;
+    // sequence numbers of the packets queued per worker, a ring each
+    private final long[][] pending;
+    private final int[] pendingHead;
+    private final int[] pendingSize;
+    private final long[] current;
+    private final boolean[] closed;
+    private final boolean[] inPortClosed;
+    private long next = 0;
+    private int buffered = 0;
+    private int closedWorkers = 0;
+    private boolean downstreamClosed = false;
+    private boolean emitting = false;
+
+    // next sequence number to emit
+    private volatile long head = 0;
+    private final ConcurrentLinkedQueue<Thread> waitingThreads = new ConcurrentLinkedQueue<Thread>();
+    private RtInPort downstream = null;
+    // only used by the emitting thread
+    private List<Object> emitBatch = new ArrayList<Object>();
+    // null if metrics are disabled
+    private final ReorderMetrics metrics;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtOrderedStage(RtNetwork rtNetwork, String name, int workers,
+            int window) {
+        this.name = name;
+        this.workers = workers;
+        this.window = Math.max(window, workers);
+        results = newResults(this.window);
+        for (int i = 0; i < this.window; i++) {
+            results[i] = new ArrayList<Object>();
+        }
+        done = new boolean[this.window];
+        pending = new long[workers][this.window];
+        pendingHead = new int[workers];
+        pendingSize = new int[workers];
+        current = new long[workers];
+        closed = new boolean[workers];
+        inPortClosed = new boolean[workers];
+        Arrays.fill(current, -1);
+        NetworkMetrics networkMetrics = rtNetwork.getMetrics();
+        metrics = networkMetrics != null ? networkMetrics
+                .registerOrderedStage(name, this.window) : null;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public RtInPort getDownstream() {
+        return downstream;
+    }
+
+    public void setDownstream(RtInPort downstream) {
+        this.downstream = downstream;
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public synchronized void reset() {
+        for (int i = 0; i < window; i++) {
+            results[i].clear();
+            done[i] = false;
+        }
+        for (int w = 0; w < workers; w++) {
+            pendingHead[w] = 0;
+            pendingSize[w] = 0;
+            current[w] = -1;
+            closed[w] = false;
+            inPortClosed[w] = false;
+        }
+        next = 0;
+        buffered = 0;
+        closedWorkers = 0;
+        downstreamClosed = false;
+        emitting = false;
+        emitBatch.clear();
+        head = 0;
+    }
+
+    /**
+     * Called by the sender before it appends a packet to the in port of
+     * worker w. Numbers the packet once it lies within the window. Returns
+     * false if the packet must be dropped instead, because the in port of
+     * the worker or all out ports are closed meanwhile, or the wait was
+     * interrupted.
+     */
+    public boolean appending(int w) {
+        synchronized (this) {
+            if (inPortClosed[w]) {
+                return false;
+            }
+        }
+        if (next - head >= window) {
+            awaitWindow(w);
+        }
+        synchronized (this) {
+            if (inPortClosed[w] || next - head >= window
+                    || closedWorkers == workers) {
+                return false;
+            }
+            int tail = (pendingHead[w] + pendingSize[w]) % window;
+            pending[w][tail] = next++;
+            pendingSize[w]++;
+            return true;
+        }
+    }
+
+    /**
+     * Called by worker w after it has taken a packet from its in port.
+     */
+    public void received(int w) {
+        synchronized (this) {
+            complete(w);
+            if (pendingSize[w] == 0) {
+                throw new IllegalStateException("ordered stage " + name
+                        + ": packet received without a sequence number");
+            }
+            current[w] = pending[w][pendingHead[w]];
+            pendingHead[w] = (pendingHead[w] + 1) % window;
+            pendingSize[w]--;
+        }
+        emit();
+    }
+
+    /**
+     * Called when the in port of worker w is closed. Its queued packets are
+     * dropped and thus done.
+     */
+    public void inPortClosed(int w) {
+        synchronized (this) {
+            inPortClosed[w] = true;
+            while (pendingSize[w] > 0) {
+                done[(int) (pending[w][pendingHead[w]] % window)] = true;
+                pendingHead[w] = (pendingHead[w] + 1) % window;
+                pendingSize[w]--;
+            }
+        }
+        wakeUpWaiting();
+        emit();
+    }
+
+    /**
+     * Called by worker w when it is done with its current packet.
+     */
+    public void completed(int w) {
+        synchronized (this) {
+            if (current[w] < 0) {
+                return;
+            }
+            complete(w);
+        }
+        emit();
+    }
+
+    public void send(int w, Object packet) {
+        synchronized (this) {
+            buffer(w, packet);
+        }
+        emit();
+    }
+
+    public void sendAll(int w, Object[] packets) {
+        synchronized (this) {
+            for (Object packet : packets) {
+                buffer(w, packet);
+            }
+        }
+        emit();
+    }
+
+    /**
+     * Called once by every worker closing its out port. The downstream in
+     * port is told once all results have been emitted.
+     */
+    public void outPortClosed(int w) {
+        synchronized (this) {
+            complete(w);
+            closed[w] = true;
+            closedWorkers++;
+        }
+        // a sender waiting for the window gives up
+        wakeUpWaiting();
+        emit();
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static List<Object>[] newResults(int size) {
+        return new List[size];
+    }
+
+    private void wakeUpWaiting() {
+        for (Thread thread : waitingThreads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void complete(int w) {
+        long seq = current[w];
+        if (seq >= 0) {
+            done[(int) (seq % window)] = true;
+            current[w] = -1;
+        }
+    }
+
+    private void buffer(int w, Object packet) {
+        long seq = current[w];
+        if (seq < 0) {
+            throw new IllegalStateException(
+                    "ordered stage " + name + ": packet sent without a received packet");
+        }
+        results[(int) (seq % window)].add(packet);
+        buffered++;
+        if (metrics != null) {
+            metrics.buffered(seq != head, buffered);
+        }
+    }
+
+    /**
+     * Emits the results of the oldest packets. Only one thread emits at a
+     * time, without holding the lock, so blocking on the downstream in port
+     * does not stop the workers.
+     */
+    private void emit() {
+        synchronized (this) {
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+        }
+        while (true) {
+            boolean moved = false;
+            List<Object> batch = null;
+            synchronized (this) {
+                while (true) {
+                    int slot = (int) (head % window);
+                    List<Object> slotResults = results[slot];
+                    if (!slotResults.isEmpty()) {
+                        results[slot] = emitBatch;
+                        emitBatch = slotResults;
+                        buffered -= slotResults.size();
+                        if (metrics != null) {
+                            metrics.occupancy(buffered);
+                        }
+                        break;
+                    }
+                    if (!done[slot]) {
+                        break;
+                    }
+                    done[slot] = false;
+                    head++;
+                    moved = true;
+                }
+                if (!emitBatch.isEmpty()) {
+                    batch = emitBatch;
+                } else {
+                    // the list may be reused by the next emitting thread
+                    emitting = false;
+                    closeDownstreamIfFinished();
+                }
+            }
+            if (moved) {
+                wakeUpWaiting();
+            }
+            if (batch == null) {
+                return;
+            }
+            for (Object packet : batch) {
+                downstream.append(packet);
+            }
+            batch.clear();
+        }
+    }
+
+    private void closeDownstreamIfFinished() {
+        if (downstreamClosed || closedWorkers < workers) {
+            return;
+        }
+        for (int w = 0; w < workers; w++) {
+            if (current[w] >= 0) {
+                return;
+            }
+        }
+        if (buffered == 0) {
+            downstreamClosed = true;
+            // one for every worker connected to it
+            for (int w = 0; w < workers; w++) {
+                downstream.outPortClosed();
+            }
+        }
+    }
+
+    private void awaitWindow(int w) {
+        long start = System.nanoTime();
+        Thread currentThread = Thread.currentThread();
+        waitingThreads.add(currentThread);
+        try {
+            while (true) {
+                synchronized (this) {
+                    // the ports of the workers are closed if the network is
+                    // terminated
+                    if (next - head < window || inPortClosed[w]
+                            || closedWorkers == workers) {
+                        break;
+                    }
+                }
+                RtScheduler.park(this);
+            }
+        } catch (InterruptedException e) {
+            currentThread.interrupt();
+        } finally {
+            waitingThreads.remove(currentThread);
+            if (metrics != null) {
+                synchronized (this) {
+                    metrics.windowStalled(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
@@ -15,10 +15,12 @@
  */
 package org.ws4d.df.impl.runtime;
 
-import org.ws4d.df.api.comp.OutPort;
+import java.util.Arrays;
+import java.util.List;
+
 import org.ws4d.df.api.comp.PortTracer;
 
-public class RtOutPort extends AbstractPort implements OutPort {
+public class RtOutPort extends AbstractPort implements BatchOutPort {
 
     // -------------------------------------------------------------------------
 	// instance members
@@ -44,6 +46,13 @@ public class RtOutPort extends AbstractPort implements OutPort {
         return rtInPort;
     }
 
+    /**
+     * All in ports this port delivers to.
+     */
+    public RtInPort[] getRtInPorts() {
+        return new RtInPort[] { rtInPort };
+    }
+
     // -------------------------------------------------------------------------
     // methods
     // -------------------------------------------------------------------------
@@ -56,6 +65,28 @@ public class RtOutPort extends AbstractPort implements OutPort {
         return rtInPort.getPacketCount();
     }
 
+    /**
+     * Called when one of the in ports of this port was closed by its
+     * receiver.
+     */
+    public void inPortClosed(RtInPort rtInPort) {
+        close();
+    }
+
+    protected void traceAll(Object[] packets) {
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            if (tracer instanceof BatchPortTracer) {
+                ((BatchPortTracer) tracer).port_sendAll(this,
+                        Arrays.asList(packets));
+            } else {
+                for (Object packet : packets) {
+                    tracer.port_send(this, packet);
+                }
+            }
+        }
+    }
+
     // -------------------------------------------------------------------------
     // OutPort interface
     // -------------------------------------------------------------------------
@@ -67,15 +98,26 @@ public class RtOutPort extends AbstractPort implements OutPort {
         }
 
         rtInPort.append(packet);
+        component.sent();
     }
     
+    public void sendAll(Object[] packets) {
+        traceAll(packets);
+
+        rtInPort.appendAll(packets, 0, packets.length);
+        component.sent();
+    }
+
+    public void sendAll(List<?> packets) {
+        sendAll(packets.toArray());
+    }
+
     public boolean sendWouldBlock() {
     	return rtInPort.getPacketCount() == rtInPort.getCapacity();
     }
 
     public void close() {
-        if (!isClosed()) {
-            super.close();
+        if (markClosed()) {
             rtInPort.outPortClosed();
         }
     }
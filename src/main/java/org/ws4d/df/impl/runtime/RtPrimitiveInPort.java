@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * In port of a primitive connection with a single sender. Values are kept
+ * unboxed in a {@link PrimitiveRingBuffer}; {@link #receive()} still works
+ * and boxes them.
+ */
+public class RtPrimitiveInPort extends RtInPort implements IntInPort,
+        LongInPort, DoubleInPort {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final PrimitiveRingBuffer ring;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtPrimitiveInPort(String inPortName, RtComponent receiver,
+            int index, int capacity, Class<?> type) {
+        this(inPortName, receiver, index, new PrimitiveRingBuffer(type,
+                capacity));
+    }
+
+    private RtPrimitiveInPort(String inPortName, RtComponent receiver,
+            int index, PrimitiveRingBuffer ring) {
+        super(inPortName, receiver, index, ring, 1);
+        this.ring = ring;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    public Class<?> getPrimitiveType() {
+        return ring.getType();
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public void appendLong(long value) {
+        appendStored(ring.encode(value));
+    }
+
+    public void appendDouble(double value) {
+        appendStored(ring.encode(value));
+    }
+
+    // -------------------------------------------------------------------------
+    // IntInPort, LongInPort, DoubleInPort interfaces
+    // -------------------------------------------------------------------------
+
+    public int receiveInt(int closedValue) {
+        if (!awaitPackets()) {
+            return closedValue;
+        }
+        return (int) ring.decodeLong(received(ring.pollLong()));
+    }
+
+    public long receiveLong(long closedValue) {
+        if (!awaitPackets()) {
+            return closedValue;
+        }
+        return ring.decodeLong(received(ring.pollLong()));
+    }
+
+    public double receiveDouble(double closedValue) {
+        if (!awaitPackets()) {
+            return closedValue;
+        }
+        return ring.decodeDouble(received(ring.pollLong()));
+    }
+
+    public int receiveInts(int[] values, int offset, int max) {
+        if (max <= 0 || !awaitPackets()) {
+            return 0;
+        }
+        int count = Math.min(ring.size(), max);
+        for (int i = 0; i < count; i++) {
+            values[offset + i] = (int) ring.decodeLong(ring.pollLong());
+        }
+        packetsReceived(count);
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            for (int i = offset; i < offset + count; i++) {
+                tracer.port_recv(this, Integer.valueOf(values[i]));
+            }
+        }
+        return count;
+    }
+
+    public int receiveLongs(long[] values, int offset, int max) {
+        if (max <= 0 || !awaitPackets()) {
+            return 0;
+        }
+        int count = ring.drainTo(values, offset, max);
+        if (ring.getType() == double.class) {
+            for (int i = offset; i < offset + count; i++) {
+                values[i] = ring.decodeLong(values[i]);
+            }
+        }
+        packetsReceived(count);
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            for (int i = offset; i < offset + count; i++) {
+                tracer.port_recv(this, Long.valueOf(values[i]));
+            }
+        }
+        return count;
+    }
+
+    public int receiveDoubles(double[] values, int offset, int max) {
+        if (max <= 0 || !awaitPackets()) {
+            return 0;
+        }
+        int count = Math.min(ring.size(), max);
+        for (int i = 0; i < count; i++) {
+            values[offset + i] = ring.decodeDouble(ring.pollLong());
+        }
+        packetsReceived(count);
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            for (int i = offset; i < offset + count; i++) {
+                tracer.port_recv(this, Double.valueOf(values[i]));
+            }
+        }
+        return count;
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void appendStored(long stored) {
+        if (isClosed()) {
+            return;
+        }
+        while (!ring.offerLong(stored)) {
+            if (!awaitSpace()) {
+                return;
+            }
+        }
+        packetsAppended(1);
+    }
+
+    private long received(long stored) {
+        packetsReceived(1);
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_recv(this, ring.box(stored));
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import org.ws4d.df.api.comp.PortTracer;
+
+/**
+ * Out port of a point-to-point primitive connection, see
+ * {@link RtPrimitiveInPort}.
+ */
+public class RtPrimitiveOutPort extends RtOutPort implements IntOutPort,
+        LongOutPort, DoubleOutPort {
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final RtPrimitiveInPort rtPrimitiveInPort;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtPrimitiveOutPort(String name, RtComponent component, int index,
+            RtPrimitiveInPort rtInPort) {
+        super(name, component, index, rtInPort);
+        this.rtPrimitiveInPort = rtInPort;
+    }
+
+    // -------------------------------------------------------------------------
+    // IntOutPort, LongOutPort, DoubleOutPort interfaces
+    // -------------------------------------------------------------------------
+
+    public void sendInt(int value) {
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_send(this, Integer.valueOf(value));
+        }
+
+        rtPrimitiveInPort.appendLong(value);
+    }
+
+    public void sendLong(long value) {
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_send(this, Long.valueOf(value));
+        }
+
+        rtPrimitiveInPort.appendLong(value);
+    }
+
+    public void sendDouble(double value) {
+        PortTracer tracer = component.getRtNetwork().getPortTracer();
+        if (tracer != null) {
+            tracer.port_send(this, Double.valueOf(value));
+        }
+
+        rtPrimitiveInPort.appendDouble(value);
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class RtScheduler {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    // spare workers kept beyond the blocked ones before the pool shrinks
+    private static final int MIN_SPARE_SLACK = 2;
+    // blocked workers per unit of parallelism that trigger the warning
+    private static final int WARN_RATIO = 4;
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    private final int parallelism;
+    private final ThreadPoolExecutor pool;
+    private final Logger logger;
+    private final AtomicInteger blockedWorkers = new AtomicInteger();
+    // workers beyond the parallelism, only changed while holding this
+    private volatile int spareWorkers = 0;
+    private boolean warned = false;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    public RtScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public RtScheduler(int parallelism) {
+        this(parallelism, null);
+    }
+
+    /**
+     * @param logger warned once if blocking components make the pool grow
+     *            far beyond the parallelism, may be null
+     */
+    public RtScheduler(int parallelism, Logger logger) {
+        this.parallelism = parallelism;
+        this.logger = logger;
+        // All workers share one queue, so a task is never stuck behind a
+        // worker that blocks inside a component.
+        pool = new ThreadPoolExecutor(parallelism, Integer.MAX_VALUE, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new WorkerFactory());
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of workers the pool keeps beyond the parallelism for blocked
+     * ones.
+     */
+    public int getSpareWorkers() {
+        return spareWorkers;
+    }
+
+    public void execute(Runnable task) {
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The network has been terminated, ports closed by the shutdown
+            // may still wake up components.
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Parks the current thread like {@link LockSupport#park(Object)}. On a
+     * pool worker a spare worker keeps the other components running while the
+     * current one is blocked.
+     * <p>
+     * Blocked workers are counted without a lock. The pool is only resized
+     * when more workers are blocked than there are spare ones, or when the
+     * spare workers exceed the blocked ones by a slack, so a worker that
+     * blocks again and again does not resize the pool each time.
+     */
+    public static void park(Object blocker) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            RtScheduler scheduler = ((Worker) thread).scheduler;
+            int blocked = scheduler.blockedWorkers.incrementAndGet();
+            if (blocked > scheduler.spareWorkers) {
+                scheduler.adjustSpareWorkers();
+            }
+            try {
+                LockSupport.park(blocker);
+            } finally {
+                blocked = scheduler.blockedWorkers.decrementAndGet();
+                int spare = scheduler.spareWorkers;
+                if (spare - blocked > slack(spare)) {
+                    scheduler.adjustSpareWorkers();
+                }
+            }
+        } else {
+            LockSupport.park(blocker);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static int slack(int spareWorkers) {
+        return Math.max(MIN_SPARE_SLACK, spareWorkers / 4);
+    }
+
+    /**
+     * Grows the spare workers to the blocked ones, or shrinks them if they
+     * exceed the blocked ones by more than the slack. Repeats until the count
+     * is stable, because a worker that blocked meanwhile may have seen the
+     * old spare workers and skipped the adjustment.
+     */
+    private synchronized void adjustSpareWorkers() {
+        int blocked;
+        while ((blocked = blockedWorkers.get()) > spareWorkers
+                || spareWorkers - blocked > slack(spareWorkers)) {
+            spareWorkers = blocked;
+            pool.setCorePoolSize(parallelism + blocked);
+            if (!warned && logger != null
+                    && blocked >= WARN_RATIO * parallelism) {
+                warned = true;
+                logger.log(Level.WARNING, blocked + " pool workers are "
+                        + "blocked in components, every blocked component "
+                        + "holds a thread. Consider "
+                        + ExecutionMode.VIRTUAL_THREADS + ".");
+            }
+        }
+    }
+
+    private static class Worker extends Thread {
+
+        private final RtScheduler scheduler;
+
+        Worker(RtScheduler scheduler, Runnable runnable, String name) {
+            super(runnable, name);
+            this.scheduler = scheduler;
+            setDaemon(true);
+        }
+    }
+
+    private class WorkerFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            return new Worker(RtScheduler.this, runnable, "RtScheduler-"
+                    + count.incrementAndGet());
+        }
+    }
+}
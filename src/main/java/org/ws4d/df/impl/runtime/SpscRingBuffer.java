@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import java.util.Collection;
+
+/**
+ * Single-producer/single-consumer ring buffer. The array is preallocated, so
+ * queueing a packet allocates nothing and takes no lock. Head and tail live on
+ * separate cache lines and each side caches the other side's index.
+ * <p>
+ * Both indices are published with volatile writes so that the park/unpark
+ * handshake in {@link RtInPort} cannot lose a wake-up.
+ * <p>
+ * A queue created with a maximum capacity starts with an array for its
+ * initial capacity. When a packet would fill that array, the producer moves
+ * on to an array twice as large: it links the new array from the old one and
+ * leaves a jump marker in the slot of the packet, which the consumer follows.
+ * Arrays never shrink, so a queue holds memory for the largest capacity it
+ * actually used.
+ */
+public final class SpscRingBuffer extends SpscRingBufferFields implements
+        PacketQueue {
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    // left in the slot of the first packet that went into the next array
+    private static final Object JUMP = new Object();
+
+    // -------------------------------------------------------------------------
+    // instance members
+    // -------------------------------------------------------------------------
+
+    // only read if the queue is adaptive
+    private volatile int capacity;
+    private final int maxCapacity;
+    private final boolean adaptive;
+    // array size needed for the maximum capacity
+    private final int maxSize;
+    // Each array has one slot more than its size for the link to the next
+    // array.
+    private Object[] producerBuffer;
+    private int producerMask;
+    private Object[] consumerBuffer;
+    private int consumerMask;
+
+    // -------------------------------------------------------------------------
+    // constructors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Creates a queue with a fixed capacity.
+     */
+    public SpscRingBuffer(int capacity) {
+        this(capacity, capacity, false);
+    }
+
+    /**
+     * Creates an adaptive queue.
+     *
+     * @param maxCapacity capacity the queue may grow to, see
+     *            {@link #setCapacity(int)}
+     */
+    public SpscRingBuffer(int capacity, int maxCapacity) {
+        this(capacity, maxCapacity, true);
+    }
+
+    private SpscRingBuffer(int capacity, int maxCapacity, boolean adaptive) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: "
+                    + capacity);
+        }
+        if (maxCapacity < capacity) {
+            throw new IllegalArgumentException("maxCapacity " + maxCapacity
+                    + " is less than capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxCapacity = maxCapacity;
+        this.adaptive = adaptive;
+        this.maxSize = sizeFor(maxCapacity);
+        // A growable array must keep a free slot for the jump marker.
+        int size = capacity == maxCapacity ? maxSize : Math.min(maxSize,
+                sizeFor(capacity + 1));
+        this.producerBuffer = new Object[size + 1];
+        this.producerMask = size - 1;
+        this.consumerBuffer = producerBuffer;
+        this.consumerMask = producerMask;
+    }
+
+    // -------------------------------------------------------------------------
+    // accessors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Size of the array producers currently write to.
+     */
+    int arraySize() {
+        return producerMask + 1;
+    }
+
+    // -------------------------------------------------------------------------
+    // PacketQueue interface
+    // -------------------------------------------------------------------------
+
+    public int capacity() {
+        return adaptive ? capacity : maxCapacity;
+    }
+
+    public int maxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the queue has a fixed capacity
+     */
+    public void setCapacity(int capacity) {
+        if (!adaptive) {
+            throw new UnsupportedOperationException("capacity is fixed");
+        }
+        if (capacity < 1 || capacity > maxCapacity) {
+            throw new IllegalArgumentException("capacity out of range: "
+                    + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public int size() {
+        // Read head first, so that a concurrent poll cannot make the result
+        // negative.
+        long currentHead = head;
+        return (int) (tail - currentHead);
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public boolean offer(Object packet) {
+        if (packet == null) {
+            throw new NullPointerException("packet is null");
+        }
+        long currentTail = tail;
+        int limit = adaptive ? capacity : maxCapacity;
+        if (currentTail - headCache >= limit) {
+            headCache = head;
+            if (currentTail - headCache >= limit) {
+                return false;
+            }
+        }
+        Object[] buffer = producerBuffer;
+        int mask = producerMask;
+        if (mask + 1 < maxSize && currentTail - headCache >= mask) {
+            headCache = head;
+            if (currentTail - headCache >= mask) {
+                buffer = grow(buffer, mask, currentTail, 1);
+                mask = producerMask;
+            }
+        }
+        buffer[(int) currentTail & mask] = packet;
+        tail = currentTail + 1;
+        return true;
+    }
+
+    public int offer(Object[] packets, int offset, int length) {
+        long currentTail = tail;
+        int limit = adaptive ? capacity : maxCapacity;
+        long free = limit - (currentTail - headCache);
+        if (free < length) {
+            headCache = head;
+            free = limit - (currentTail - headCache);
+        }
+        int count = (int) Math.min(free, length);
+        if (count <= 0) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            if (packets[offset + i] == null) {
+                throw new NullPointerException("packet is null");
+            }
+        }
+        Object[] buffer = producerBuffer;
+        int mask = producerMask;
+        if (mask + 1 < maxSize && currentTail - headCache + count > mask) {
+            headCache = head;
+            if (currentTail - headCache + count > mask) {
+                buffer = grow(buffer, mask, currentTail, count);
+                mask = producerMask;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            buffer[(int) (currentTail + i) & mask] = packets[offset + i];
+        }
+        tail = currentTail + count;
+        return count;
+    }
+
+    public Object poll() {
+        long currentHead = head;
+        if (currentHead >= tailCache) {
+            tailCache = tail;
+            if (currentHead >= tailCache) {
+                return null;
+            }
+        }
+        Object[] buffer = consumerBuffer;
+        int offset = (int) currentHead & consumerMask;
+        Object packet = buffer[offset];
+        if (packet == JUMP) {
+            buffer = jump(buffer, offset);
+            offset = (int) currentHead & consumerMask;
+            packet = buffer[offset];
+        }
+        buffer[offset] = null;
+        head = currentHead + 1;
+        return packet;
+    }
+
+    public int drainTo(Collection<Object> packets, int max) {
+        long currentHead = head;
+        long available = tailCache - currentHead;
+        if (available < max) {
+            tailCache = tail;
+            available = tailCache - currentHead;
+        }
+        int count = (int) Math.min(available, max);
+        if (count <= 0) {
+            return 0;
+        }
+        Object[] buffer = consumerBuffer;
+        for (int i = 0; i < count; i++) {
+            int offset = (int) (currentHead + i) & consumerMask;
+            Object packet = buffer[offset];
+            if (packet == JUMP) {
+                buffer = jump(buffer, offset);
+                offset = (int) (currentHead + i) & consumerMask;
+                packet = buffer[offset];
+            }
+            packets.add(packet);
+            buffer[offset] = null;
+        }
+        head = currentHead + count;
+        return count;
+    }
+
+    public Object[] toArray() {
+        long currentHead = head;
+        Object[] packets = new Object[(int) (tail - currentHead)];
+        Object[] buffer = consumerBuffer;
+        int mask = consumerMask;
+        for (int i = 0; i < packets.length; i++) {
+            Object packet = buffer[(int) (currentHead + i) & mask];
+            if (packet == JUMP) {
+                buffer = (Object[]) buffer[mask + 1];
+                mask = buffer.length - 2;
+                packet = buffer[(int) (currentHead + i) & mask];
+            }
+            packets[i] = packet;
+        }
+        return packets;
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // drain
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    static int sizeFor(int capacity) {
+        int size = Integer.highestOneBit(capacity);
+        return size < capacity ? size << 1 : size;
+    }
+
+    /**
+     * Moves the producer to an array that holds the queued packets plus the
+     * given number of new ones, starting at the given tail. The slot at the
+     * tail is free, because a growable array is never filled.
+     */
+    private Object[] grow(Object[] buffer, int mask, long currentTail,
+            int count) {
+        int queued = (int) (currentTail - headCache);
+        int size = Math.max(2 * (mask + 1), sizeFor(queued + count + 1));
+        size = Math.min(maxSize, size);
+        Object[] next = new Object[size + 1];
+        producerBuffer = next;
+        producerMask = size - 1;
+        // published to the consumer by the write of the tail
+        buffer[mask + 1] = next;
+        buffer[(int) currentTail & mask] = JUMP;
+        return next;
+    }
+
+    private Object[] jump(Object[] buffer, int offset) {
+        int linkOffset = buffer.length - 1;
+        Object[] next = (Object[]) buffer[linkOffset];
+        buffer[offset] = null;
+        buffer[linkOffset] = null;
+        consumerBuffer = next;
+        consumerMask = next.length - 2;
+        return next;
+    }
+}
+
+// -----------------------------------------------------------------------------
+// padded index fields
+// -----------------------------------------------------------------------------
+
+abstract class SpscRingBufferPad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SpscRingBufferProducerFields extends SpscRingBufferPad0 {
+    // written by the producer only
+    volatile long tail;
+    long headCache;
+}
+
+abstract class SpscRingBufferPad1 extends SpscRingBufferProducerFields {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class SpscRingBufferConsumerFields extends SpscRingBufferPad1 {
+    // written by the consumer only
+    volatile long head;
+    long tailCache;
+}
+
+abstract class SpscRingBufferFields extends SpscRingBufferConsumerFields {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+/**
+ * Selects how threads wait for packets or for space in a queue. Set the
+ * network default with the runtime property {@link #RUNTIME_PROPERTY} of the
+ * network builder, or per connection with
+ * {@code NetworkBuilderImpl.setWaitStrategy(...)}.
+ */
+public enum WaitStrategy {
+
+    /**
+     * Parks the waiting thread right away (default). Lowest CPU usage, but
+     * every hop pays a full park/unpark cycle.
+     */
+    BLOCKING {
+        @Override
+        boolean spin(int round) {
+            return false;
+        }
+    },
+
+    /**
+     * Spins for a few microseconds, then yields for a while and finally
+     * parks. Packets arriving shortly after each other are picked up without
+     * a context switch.
+     */
+    SPIN_YIELD_PARK {
+        @Override
+        boolean spin(int round) {
+            if (round < SPIN_ROUNDS) {
+                return true;
+            } else if (round < SPIN_ROUNDS + YIELD_ROUNDS) {
+                Thread.yield();
+                return true;
+            }
+            return false;
+        }
+    },
+
+    /**
+     * Never parks, every waiting thread occupies a core. Only for latency
+     * critical pipelines with fewer components than cores; it yields now and
+     * then so that an oversubscribed machine still makes progress. Used as
+     * SPIN_YIELD_PARK unless every component runs its own platform thread,
+     * because a spinning task would starve a shared pool.
+     */
+    BUSY_SPIN {
+        @Override
+        boolean spin(int round) {
+            if ((round & (SPIN_ROUNDS - 1)) == SPIN_ROUNDS - 1) {
+                Thread.yield();
+            }
+            return true;
+        }
+    };
+
+    // -------------------------------------------------------------------------
+    // static members
+    // -------------------------------------------------------------------------
+
+    /**
+     * Runtime property holding the default wait strategy of a network, either
+     * a WaitStrategy or its name.
+     */
+    public static final String RUNTIME_PROPERTY = "org.ws4d.df.waitStrategy";
+
+    // power of two
+    private static final int SPIN_ROUNDS = 1024;
+    private static final int YIELD_ROUNDS = 50;
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns false if the thread should park in the given round of waiting.
+     */
+    abstract boolean spin(int round);
+
+    /**
+     * One round of waiting. The caller re-checks its condition afterwards.
+     */
+    void idle(Object blocker, int round) throws InterruptedException {
+        if (!spin(round)) {
+            RtScheduler.park(blocker);
+        }
+    }
+
+    public WaitStrategy forExecutionMode(ExecutionMode executionMode) {
+        if (this == BUSY_SPIN
+                && executionMode != ExecutionMode.THREAD_PER_COMPONENT) {
+            return SPIN_YIELD_PARK;
+        }
+        return this;
+    }
+
+    /**
+     * Converts the value of {@link #RUNTIME_PROPERTY}, null yields BLOCKING.
+     */
+    public static WaitStrategy fromProperty(Object property) {
+        if (property == null) {
+            return BLOCKING;
+        } else if (property instanceof WaitStrategy) {
+            return (WaitStrategy) property;
+        } else {
+            return valueOf(property.toString().trim().toUpperCase());
+        }
+    }
+}
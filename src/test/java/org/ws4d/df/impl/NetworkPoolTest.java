@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.api.network.NetworkState;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+import org.ws4d.df.impl.runtime.RtNetwork;
+
+public class NetworkPoolTest {
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        static volatile CountDownLatch gate = new CountDownLatch(0);
+
+        public void execute() {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < 10; i++) {
+                out.get("out").send(i);
+            }
+            out.get("out").close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static volatile int received;
+
+        public void execute() {
+            if (in.get("in").receive() != null) {
+                received++;
+            }
+        }
+    }
+
+    @Test
+    public void reusesReleasedNetworks() throws Exception {
+        NetworkPool pool = new NetworkPool(compile(), 1);
+        Network network = pool.acquire();
+        Sink.received = 0;
+        network.start();
+        assertEquals(10, Sink.received);
+        pool.release(network);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(network, pool.acquire());
+        Sink.received = 0;
+        network.start();
+        assertEquals(10, Sink.received);
+        pool.close();
+        pool.release(network);
+        assertEquals(NetworkState.TERMINATED, ((RtNetwork) network)
+                .getState());
+    }
+
+    @Test
+    public void terminatesStartedNetworks() throws Exception {
+        NetworkPool pool = new NetworkPool(compile(), 1);
+        final Network network = pool.acquire();
+        final Exception[] failure = new Exception[1];
+        Source.gate = new CountDownLatch(1);
+        Thread runner = new Thread() {
+
+            public void run() {
+                try {
+                    network.start();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        runner.start();
+        try {
+            while (((RtNetwork) network).getState() != NetworkState.STARTED) {
+                Thread.sleep(1);
+            }
+            pool.release(network);
+            assertEquals(0, pool.getIdleCount());
+            // the run returns once the network is terminated
+            runner.join(10000);
+            assertFalse(runner.isAlive());
+            assertNull(failure[0]);
+            assertEquals(NetworkState.TERMINATED, ((RtNetwork) network)
+                    .getState());
+        } finally {
+            Source.gate.countDown();
+            Source.gate = new CountDownLatch(0);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static NetworkTemplate compile() throws Exception {
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "k", "in");
+        return builder.compile();
+    }
+}
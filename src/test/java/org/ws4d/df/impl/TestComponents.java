@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ws4d.df.NetworkFactory;
+import org.ws4d.df.api.comp.Component;
+import org.ws4d.df.api.comp.ComponentContext;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.comp.type.ComponentType;
+import org.ws4d.df.api.comp.type.ComponentTypeRegistry;
+import org.ws4d.df.api.comp.type.InPortType;
+import org.ws4d.df.api.comp.type.OutPortType;
+import org.ws4d.df.api.data.DataProvider;
+import org.ws4d.df.api.network.NetworkBuilder;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+
+/**
+ * Component types for tests. A test component declares its single ports
+ * with {@link Ports} and finds them in {@link TestComponent#in} and
+ * {@link TestComponent#out}.
+ */
+public class TestComponents {
+
+    // -------------------------------------------------------------------------
+    // types
+    // -------------------------------------------------------------------------
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @Inherited
+    public @interface Ports {
+
+        String[] in() default {};
+
+        String[] out() default {};
+
+        boolean active() default false;
+    }
+
+    public static abstract class TestComponent implements Component {
+
+        protected final Map<String, InPort> in = new HashMap<String, InPort>();
+        protected final Map<String, OutPort> out = new HashMap<String, OutPort>();
+
+        public void finish() {
+        }
+
+        public void reset() {
+        }
+
+        public void terminate() {
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // methods
+    // -------------------------------------------------------------------------
+
+    public static NetworkBuilderImpl newBuilder(ExecutionMode executionMode) {
+        NetworkBuilderImpl builder = (NetworkBuilderImpl) NetworkFactory
+                .newNetworkBuilder(new Provider(), new Registry());
+        builder.setExecutionMode(executionMode);
+        return builder;
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static class PortType implements InPortType, OutPortType {
+
+        private final String name;
+
+        PortType(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isOptional() {
+            return false;
+        }
+    }
+
+    private static class Type implements ComponentType {
+
+        private final Class<?> componentClass;
+        private final boolean active;
+        private final Map<String, InPortType> inPorts = new HashMap<String, InPortType>();
+        private final Map<String, OutPortType> outPorts = new HashMap<String, OutPortType>();
+
+        Type(Class<?> componentClass) {
+            this.componentClass = componentClass;
+            Ports ports = componentClass.getAnnotation(Ports.class);
+            active = ports != null && ports.active();
+            if (ports != null) {
+                for (String name : ports.in()) {
+                    inPorts.put(name, new PortType(name));
+                }
+                for (String name : ports.out()) {
+                    outPorts.put(name, new PortType(name));
+                }
+            }
+        }
+
+        public String getName() {
+            return componentClass.getSimpleName();
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public Class<?> getComponentClass() {
+            return componentClass;
+        }
+
+        public Map<String, InPortType> getSingleInPorts() {
+            return inPorts;
+        }
+
+        public Map<String, InPortType> getArrayInPorts() {
+            return new HashMap<String, InPortType>();
+        }
+
+        public Map<String, OutPortType> getSingleOutPorts() {
+            return outPorts;
+        }
+
+        public Map<String, OutPortType> getArrayOutPorts() {
+            return new HashMap<String, OutPortType>();
+        }
+    }
+
+    private static class Registry implements ComponentTypeRegistry {
+
+        public void setNetworlBuilder(NetworkBuilder builder) {
+        }
+
+        public ComponentType get(Class<?> componentClass) {
+            return new Type(componentClass);
+        }
+    }
+
+    private static class Provider implements DataProvider {
+
+        public void setNetworlBuilder(NetworkBuilder builder) {
+        }
+
+        public void initComponent(ComponentType type, Component component,
+                ComponentContext context) {
+        }
+
+        public void initInPort(ComponentType type, Component component,
+                InPortType portType, InPort port) {
+            ((TestComponent) component).in.put(portType.getName(), port);
+        }
+
+        public void initInPortArray(ComponentType type, Component component,
+                InPortType portType, List<InPort> ports) {
+        }
+
+        public void initOutPort(ComponentType type, Component component,
+                OutPortType portType, OutPort port) {
+            ((TestComponent) component).out.put(portType.getName(), port);
+        }
+
+        public void initOutPortArray(ComponentType type, Component component,
+                OutPortType portType, List<OutPort> ports) {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.networkdef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+
+public class NetworkDefFileTest {
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            for (int i = 0; i < 10; i++) {
+                out.get("out").send(i);
+            }
+            out.get("out").close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static volatile int received;
+
+        public void execute() {
+            if (in.get("in").receive() != null) {
+                received++;
+            }
+        }
+    }
+
+    private File file;
+    private byte[] bytes;
+
+    @Before
+    public void save() throws Exception {
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "k", "in");
+        file = File.createTempFile("networkdef", ".dfn");
+        builder.saveNetworkDef(file);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    @After
+    public void delete() {
+        file.delete();
+    }
+
+    @Test
+    public void loadsSavedDefinition() throws Exception {
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.loadNetworkDef(file);
+        Sink.received = 0;
+        builder.buildNetwork().startAndTerminate();
+        assertEquals(10, Sink.received);
+    }
+
+    @Test
+    public void rejectsOversizedNameCount() throws Exception {
+        assertRejected(8, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void rejectsNegativeNameCount() throws Exception {
+        assertRejected(8, -1);
+    }
+
+    @Test
+    public void rejectsOversizedNameLength() throws Exception {
+        assertRejected(12, Integer.MAX_VALUE - 8);
+    }
+
+    @Test
+    public void rejectsOversizedComponentCount() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(8);
+        int names = buffer.getInt();
+        for (int i = 0; i < names; i++) {
+            int length = buffer.getInt();
+            buffer.position(buffer.position() + length);
+        }
+        assertRejected(buffer.position(), Integer.MAX_VALUE / 2);
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void assertRejected(int offset, int count) throws Exception {
+        ByteBuffer.wrap(bytes).putInt(offset, count);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        try {
+            TestComponents.newBuilder(ExecutionMode.THREAD_PER_COMPONENT)
+                    .loadNetworkDef(file);
+            fail("corrupt count " + count + " accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeds"));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.networkdef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+import org.ws4d.df.impl.runtime.ConnectionType;
+import org.ws4d.df.impl.runtime.ExecutionMode;
+import org.ws4d.df.impl.runtime.KeyExtractor;
+import org.ws4d.df.impl.runtime.Stateless;
+
+public class NetworkDefTest {
+
+    private static final int COUNT = 300;
+    private static final int KEYS = 7;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            for (int i = 0; i < COUNT; i++) {
+                out.get("out").send(i);
+            }
+            out.get("out").close();
+        }
+    }
+
+    /**
+     * Records which instance processed which key.
+     */
+    @Stateless
+    @Ports(in = "in")
+    public static class Worker extends TestComponent {
+
+        static final Map<Integer, Set<Worker>> instancesByKey = new HashMap<Integer, Set<Worker>>();
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                Integer key = (Integer) packet % KEYS;
+                synchronized (instancesByKey) {
+                    Set<Worker> instances = instancesByKey.get(key);
+                    if (instances == null) {
+                        instances = new HashSet<Worker>();
+                        instancesByKey.put(key, instances);
+                    }
+                    instances.add(this);
+                }
+            }
+        }
+    }
+
+    public static class ModuloKey implements KeyExtractor {
+
+        public Object getKey(Object packet) {
+            return (Integer) packet % KEYS;
+        }
+    }
+
+    @Test
+    public void replicatesPointToPointRoundRobin() throws Exception {
+        run(ConnectionType.POINT_TO_POINT);
+        Set<Worker> instances = new HashSet<Worker>();
+        for (Set<Worker> workers : Worker.instancesByKey.values()) {
+            instances.addAll(workers);
+        }
+        assertEquals(3, instances.size());
+    }
+
+    @Test
+    public void replicatesHashPartitionedByKey() throws Exception {
+        run(ConnectionType.hashPartitioned(new ModuloKey()));
+        assertEquals(KEYS, Worker.instancesByKey.size());
+        for (Set<Worker> workers : Worker.instancesByKey.values()) {
+            assertEquals(1, workers.size());
+        }
+    }
+
+    @Test
+    public void rejectsBroadcastToReplicatedComponent() throws Exception {
+        try {
+            run(ConnectionType.BROADCAST);
+            fail("broadcast to a replicated component accepted");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                    "point-to-point"));
+        }
+    }
+
+    @Test
+    public void revalidatesPortsChangedAfterValidation() throws Exception {
+        NetworkDef networkDef = new NetworkDef(TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT));
+        networkDef.addComponent("s", Source.class);
+        networkDef.addComponent("w", Worker.class);
+        networkDef.connect("s", "out", -1, "w", "in", -1);
+        networkDef.validate();
+
+        networkDef.setCapacity("w", "in", -1, 0);
+        assertRejected(networkDef);
+        networkDef.setCapacity("w", "in", -1, 8);
+        networkDef.validate();
+        networkDef.setByteCapacity("w", "in", -1, -1);
+        assertRejected(networkDef);
+        networkDef.setByteCapacity("w", "in", -1, 1024);
+        networkDef.validate();
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static void run(ConnectionType connectionType) throws Exception {
+        Worker.instancesByKey.clear();
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("w", Worker.class);
+        builder.connect("s", "out", "w", "in", connectionType);
+        builder.setParallelism("w", 3);
+        builder.buildNetwork().startAndTerminate();
+    }
+
+    private static void assertRejected(NetworkDef networkDef) {
+        try {
+            networkDef.validate();
+            fail("invalid capacity accepted");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("capacity"));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class ByteBudgetTest {
+
+    // estimated at 116 bytes, see PacketSizes
+    private static final int PACKET_LENGTH = 100;
+    private static final long PACKET_BYTES = 116;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        static volatile Thread thread;
+        static final AtomicInteger sent = new AtomicInteger();
+        static volatile long usedAfterDrop = -1;
+
+        public void execute() {
+            thread = Thread.currentThread();
+            for (int i = 0; i < 3; i++) {
+                out.get("out").send(new byte[PACKET_LENGTH]);
+                sent.incrementAndGet();
+            }
+            out.get("out").close();
+        }
+    }
+
+    @Ports(out = "out", active = true)
+    public static class DroppingSource extends TestComponent {
+
+        static volatile RtNetwork network;
+
+        public void execute() {
+            Source.thread = Thread.currentThread();
+            out.get("out").send(new byte[PACKET_LENGTH]);
+            // waits for space until it is interrupted, then drops the packet
+            out.get("out").send(new byte[PACKET_LENGTH]);
+            Source.usedAfterDrop = network.getByteBudget().getUsed();
+            out.get("out").close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static volatile CountDownLatch gate = new CountDownLatch(0);
+        static final AtomicInteger received = new AtomicInteger();
+
+        public void execute() {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (in.get("in").receive() != null) {
+                received.incrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void releasesAtMostWhatIsHeld() {
+        ByteBudget budget = new ByteBudget(100);
+        assertTrue(budget.tryAcquire(60));
+        assertFalse(budget.tryAcquire(60));
+        assertTrue(budget.tryAcquire(60, true));
+        assertEquals(120, budget.getUsed());
+        assertEquals(100, budget.releaseAtMost(100));
+        assertEquals(20, budget.releaseAtMost(100));
+        assertEquals(0, budget.releaseAtMost(100));
+        assertEquals(0, budget.getUsed());
+        assertEquals(120, budget.getHighWaterMark());
+    }
+
+    @Test
+    public void blocksSenderUntilBytesAreReleased() throws Exception {
+        NetworkBuilderImpl builder = build(Source.class);
+        // two packets fit
+        builder.setByteCapacity("k", "in", 2 * PACKET_BYTES);
+        RtNetwork network = (RtNetwork) builder.buildNetwork();
+        Source.sent.set(0);
+        Sink.received.set(0);
+        Sink.gate = new CountDownLatch(1);
+        Thread runner = start(network);
+        try {
+            awaitWaiting();
+            assertEquals(2, Source.sent.get());
+        } finally {
+            Sink.gate.countDown();
+        }
+        runner.join();
+        assertEquals(3, Source.sent.get());
+        assertEquals(3, Sink.received.get());
+        network.terminate();
+    }
+
+    @Test
+    public void releasesBytesOfDroppedPacket() throws Exception {
+        NetworkBuilderImpl builder = build(DroppingSource.class);
+        builder.setCapacity("k", "in", 1);
+        builder.setByteCapacity("k", "in", 10 * PACKET_BYTES);
+        builder.setNetworkByteCapacity(10 * PACKET_BYTES);
+        RtNetwork network = (RtNetwork) builder.buildNetwork();
+        DroppingSource.network = network;
+        Source.usedAfterDrop = -1;
+        Sink.received.set(0);
+        Sink.gate = new CountDownLatch(1);
+        Thread runner = start(network);
+        try {
+            // the second packet holds its bytes while it waits for space
+            awaitWaiting();
+            Source.thread.interrupt();
+            while (Source.usedAfterDrop < 0) {
+                Thread.sleep(1);
+            }
+            assertEquals(PACKET_BYTES, Source.usedAfterDrop);
+        } finally {
+            Sink.gate.countDown();
+        }
+        runner.join();
+        assertEquals(1, Sink.received.get());
+        assertEquals(0, network.getByteBudget().getUsed());
+        network.terminate();
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static NetworkBuilderImpl build(Class<?> sourceClass)
+            throws Exception {
+        Source.thread = null;
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("s", sourceClass);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "k", "in");
+        return builder;
+    }
+
+    private static Thread start(final RtNetwork network) {
+        Thread runner = new Thread() {
+
+            public void run() {
+                try {
+                    network.start();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        runner.start();
+        return runner;
+    }
+
+    /**
+     * Waits until the source parks in a send.
+     */
+    private static void awaitWaiting() throws InterruptedException {
+        while (Source.thread == null
+                || Source.thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ByteRingTest {
+
+    @Test
+    public void copiesPacketsIntoViews() {
+        ByteRing ring = new ByteRing(16, 4);
+        ByteBuffer first = ring.tryWrite(new byte[] { 1, 2, 3 });
+        ByteBuffer source = ByteBuffer.wrap(new byte[] { 9, 4, 5 });
+        source.position(1);
+        ByteBuffer second = ring.tryWrite(source);
+        assertEquals(1, source.position());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, bytes(first));
+        assertArrayEquals(new byte[] { 4, 5 }, bytes(second));
+        assertEquals(5, ring.getBytesHeld());
+        ring.release(first);
+        assertEquals(2, ring.getBytesHeld());
+        ring.release(second);
+        assertEquals(0, ring.getBytesHeld());
+        assertEquals(5, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void skipsToStartWhenPacketDoesNotFitBeforeEnd() {
+        ByteRing ring = new ByteRing(10, 4);
+        ByteBuffer first = ring.tryWrite(new byte[6]);
+        ByteBuffer second = ring.tryWrite(new byte[3]);
+        ring.release(first);
+        // 1 byte is left before the end, so the packet starts at 0
+        ByteBuffer third = ring.tryWrite(new byte[] { 7, 8, 9 });
+        assertNotNull(third);
+        assertEquals(7, ring.getBytesHeld());
+        assertArrayEquals(new byte[] { 7, 8, 9 }, bytes(third));
+        // the 3 free bytes before the second packet are too few
+        assertNull(ring.tryWrite(new byte[4]));
+        ByteBuffer fourth = ring.tryWrite(new byte[3]);
+        assertNotNull(fourth);
+        assertEquals(10, ring.getBytesHeld());
+        assertNull(ring.tryWrite(new byte[1]));
+        ring.release(second);
+        assertEquals(7, ring.getBytesHeld());
+        // releasing the third packet frees the skipped byte as well
+        ring.release(third);
+        assertEquals(3, ring.getBytesHeld());
+        ring.release(fourth);
+        assertEquals(0, ring.getBytesHeld());
+        assertNotNull(ring.tryWrite(new byte[4]));
+    }
+
+    @Test
+    public void limitsUnreleasedPackets() {
+        ByteRing ring = new ByteRing(100, 2);
+        ByteBuffer first = ring.tryWrite(new byte[1]);
+        assertNotNull(ring.tryWrite(new byte[1]));
+        assertNull(ring.tryWrite(new byte[1]));
+        ring.release(first);
+        assertNotNull(ring.tryWrite(new byte[1]));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOutOfOrderRelease() {
+        ByteRing ring = new ByteRing(16, 4);
+        ring.tryWrite(new byte[1]);
+        ByteBuffer second = ring.tryWrite(new byte[1]);
+        ring.release(second);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsSecondRelease() {
+        ByteRing ring = new ByteRing(16, 4);
+        ByteBuffer first = ring.tryWrite(new byte[1]);
+        ring.tryWrite(new byte[1]);
+        ring.release(first);
+        ring.release(first);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPacketLargerThanCapacity() {
+        new ByteRing(16, 4).tryWrite(new byte[17]);
+    }
+
+    @Test
+    public void clearFreesAllPackets() {
+        ByteRing ring = new ByteRing(8, 4);
+        ring.tryWrite(new byte[4]);
+        ring.tryWrite(new byte[4]);
+        assertNull(ring.tryWrite(new byte[1]));
+        ring.clear();
+        assertEquals(0, ring.getBytesHeld());
+        ByteBuffer view = ring.tryWrite(new byte[8]);
+        assertNotNull(view);
+        ring.release(view);
+    }
+
+    @Test
+    public void keepsContentWhileConsumerReleases() throws Exception {
+        final ByteRing ring = new ByteRing(97, 8);
+        final SpscRingBuffer views = new SpscRingBuffer(8);
+        final int count = 100000;
+        Thread producer = new Thread() {
+
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    byte[] packet = new byte[1 + i % 40];
+                    for (int j = 0; j < packet.length; j++) {
+                        packet[j] = (byte) (i + j);
+                    }
+                    ByteBuffer view;
+                    while ((view = ring.tryWrite(packet)) == null) {
+                        Thread.yield();
+                    }
+                    while (!views.offer(view)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+        for (int i = 0; i < count;) {
+            ByteBuffer view = (ByteBuffer) views.poll();
+            if (view == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(1 + i % 40, view.remaining());
+            for (int j = 0; j < view.remaining(); j++) {
+                assertEquals((byte) (i + j), view.get(j));
+            }
+            ring.release(view);
+            i++;
+        }
+        producer.join();
+        assertEquals(0, ring.getBytesHeld());
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static byte[] bytes(ByteBuffer view) {
+        byte[] bytes = new byte[view.remaining()];
+        view.duplicate().get(bytes);
+        return bytes;
+    }
+}
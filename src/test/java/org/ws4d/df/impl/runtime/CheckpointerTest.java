@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class CheckpointerTest {
+
+    private static final int COUNT = 50000;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent implements Checkpointable {
+
+        private int next = 0;
+
+        public void execute() {
+            OutPort out = this.out.get("out");
+            while (next < COUNT) {
+                int packet = next;
+                next = packet + 1;
+                out.send(packet);
+            }
+            out.close();
+        }
+
+        public Serializable checkpoint() {
+            return next;
+        }
+
+        public void restore(Serializable state) {
+            next = (Integer) state;
+        }
+    }
+
+    /**
+     * Sends two packets per execute and may be paused only between them.
+     */
+    @Ports(in = "in", out = "out")
+    public static class Duplicate extends TestComponent {
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                out.get("out").send(packet);
+                out.get("out").send(-(Integer) packet);
+            } else {
+                out.get("out").close();
+            }
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent implements Checkpointable {
+
+        static volatile Sink last;
+
+        private long hash = 0;
+        private long count = 0;
+
+        public Sink() {
+            last = this;
+        }
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                hash = hash * 31 + (Integer) packet;
+                count++;
+            }
+        }
+
+        public Serializable checkpoint() {
+            return new long[] { hash, count };
+        }
+
+        public void restore(Serializable state) {
+            hash = ((long[]) state)[0];
+            count = ((long[]) state)[1];
+        }
+    }
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("checkpoint", ".dfcp");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void restoresMidStreamCheckpointThreaded() throws Exception {
+        restoresMidStreamCheckpoint(ExecutionMode.THREAD_PER_COMPONENT);
+    }
+
+    @Test
+    public void restoresMidStreamCheckpointPooled() throws Exception {
+        restoresMidStreamCheckpoint(ExecutionMode.POOLED);
+    }
+
+    @Test
+    public void ignoresIncompleteCheckpoint() throws Exception {
+        long[] expected = run(build(ExecutionMode.THREAD_PER_COMPONENT));
+        long id = checkpointWhileRunning(ExecutionMode.THREAD_PER_COMPONENT,
+                3);
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(file.length() - 1);
+        truncated.close();
+
+        RtNetwork rtNetwork = build(ExecutionMode.THREAD_PER_COMPONENT);
+        assertEquals(id - 1, Checkpointer.restore(rtNetwork, file));
+        assertArrayEquals(expected, run(rtNetwork));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectsBatchingPorts() throws Exception {
+        NetworkBuilderImpl builder = builder(ExecutionMode.POOLED);
+        builder.setBatching("d", "out", -1, 16, 100);
+        new Checkpointer((RtNetwork) builder.buildNetwork(), file);
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private void restoresMidStreamCheckpoint(ExecutionMode executionMode)
+            throws Exception {
+        long[] expected = run(build(executionMode));
+        assertEquals(2L * COUNT, expected[1]);
+
+        long id = checkpointWhileRunning(executionMode, 3);
+        RtNetwork rtNetwork = build(executionMode);
+        assertEquals(id, Checkpointer.restore(rtNetwork, file));
+        long restoredCount = Sink.last.count;
+        assertTrue("checkpoint taken before the end of the stream",
+                restoredCount < expected[1]);
+        assertArrayEquals(expected, run(rtNetwork));
+    }
+
+    /**
+     * Takes the given number of checkpoints while the network runs and
+     * returns the number of the last one.
+     */
+    private long checkpointWhileRunning(ExecutionMode executionMode,
+            int checkpoints) throws Exception {
+        final RtNetwork rtNetwork = build(executionMode);
+        final Exception[] failure = new Exception[1];
+        Checkpointer checkpointer = new Checkpointer(rtNetwork, file);
+        Thread runner = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    rtNetwork.startAndTerminate();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        runner.start();
+        List<Future<Long>> ids = new ArrayList<Future<Long>>();
+        for (int i = 0; i < checkpoints; i++) {
+            Thread.sleep(10);
+            ids.add(checkpointer.checkpoint());
+        }
+        runner.join();
+        checkpointer.close();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        long id = 0;
+        for (Future<Long> future : ids) {
+            id = future.get();
+        }
+        return id;
+    }
+
+    private static long[] run(RtNetwork rtNetwork) throws Exception {
+        rtNetwork.startAndTerminate();
+        return new long[] { Sink.last.hash, Sink.last.count };
+    }
+
+    private static RtNetwork build(ExecutionMode executionMode)
+            throws Exception {
+        return (RtNetwork) builder(executionMode).buildNetwork();
+    }
+
+    private static NetworkBuilderImpl builder(ExecutionMode executionMode)
+            throws Exception {
+        NetworkBuilderImpl builder = TestComponents.newBuilder(executionMode);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("d", Duplicate.class);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "d", "in");
+        builder.connect("d", "out", "k", "in");
+        builder.setCapacity("d", "in", 1);
+        builder.setCapacity("k", "in", 1);
+        return builder;
+    }
+
+    private static void assertArrayEquals(long[] expected, long[] actual) {
+        assertEquals("hash", expected[0], actual[0]);
+        assertEquals("count", expected[1], actual[1]);
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class CompletionTrackerTest {
+
+    private static final int COUNT = 100;
+    private static final int PAIRS = 30;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < COUNT; i++) {
+                port.send(i);
+            }
+            port.close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final AtomicInteger received = new AtomicInteger();
+
+        public void execute() {
+            if (in.get("in").receive() != null) {
+                received.incrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void reportsComponentOncePerRun() throws Exception {
+        RtComponent rtComponent = ((RtNetwork) newBuilder(
+                ExecutionMode.THREAD_PER_COMPONENT).buildNetwork())
+                .getRtComponents().get("k0");
+        CompletionTracker tracker = new CompletionTracker();
+        tracker.reset();
+        assertTrue(tracker.componentClosed(rtComponent));
+        assertFalse(tracker.componentClosed(rtComponent));
+        assertSame(rtComponent, tracker.awaitClosed());
+        assertFalse(tracker.isTerminated());
+    }
+
+    @Test
+    public void releasesSupervisorWhenTerminated() throws Exception {
+        final CompletionTracker tracker = new CompletionTracker();
+        final Object[] result = new Object[] { this };
+        Thread supervisor = new Thread() {
+            public void run() {
+                tracker.reset();
+                synchronized (result) {
+                    result.notifyAll();
+                }
+                result[0] = tracker.awaitClosed();
+            }
+        };
+        synchronized (result) {
+            supervisor.start();
+            result.wait();
+        }
+        tracker.terminate();
+        supervisor.join(10000);
+        assertFalse(supervisor.isAlive());
+        assertNull(result[0]);
+        assertTrue(tracker.isTerminated());
+        tracker.reset();
+        assertFalse(tracker.isTerminated());
+    }
+
+    @Test
+    public void completesWideNetwork() throws Exception {
+        run(ExecutionMode.THREAD_PER_COMPONENT);
+    }
+
+    @Test
+    public void completesWideNetworkWhenPooled() throws Exception {
+        run(ExecutionMode.POOLED);
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Many components close at about the same time, start() must return only
+     * after the last of them.
+     */
+    private static void run(ExecutionMode executionMode) throws Exception {
+        RtNetwork network = (RtNetwork) newBuilder(executionMode)
+                .buildNetwork();
+        for (int run = 0; run < 3; run++) {
+            Sink.received.set(0);
+            network.start();
+            assertEquals(PAIRS * COUNT, Sink.received.get());
+            for (RtComponent rtComponent : network.getRtComponents()
+                    .values()) {
+                assertTrue(rtComponent.isCloseReported());
+            }
+        }
+        network.terminate();
+    }
+
+    private static NetworkBuilderImpl newBuilder(ExecutionMode executionMode)
+            throws Exception {
+        NetworkBuilderImpl builder = TestComponents.newBuilder(executionMode);
+        for (int i = 0; i < PAIRS; i++) {
+            builder.addComponent("s" + i, Source.class);
+            builder.addComponent("k" + i, Sink.class);
+            builder.connect("s" + i, "out", "k" + i, "in");
+        }
+        return builder;
+    }
+}
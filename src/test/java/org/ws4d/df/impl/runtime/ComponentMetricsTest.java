@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ws4d.df.api.comp.ComponentState;
+
+public class ComponentMetricsTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void accountsActiveAndInactiveTime() throws Exception {
+        ComponentMetrics metrics = new ComponentMetrics("c");
+        metrics.stateChanged(ComponentState.ACTIVE);
+        Thread.sleep(20);
+        metrics.stateChanged(ComponentState.INACTIVE);
+        Thread.sleep(10);
+        metrics.stateChanged(ComponentState.TERMINATED);
+        assertTrue(metrics.getActiveNanos() >= 20 * MILLI);
+        assertTrue(metrics.getInactiveNanos() >= 10 * MILLI);
+        assertTrue(metrics.getInactiveNanos() < metrics.getActiveNanos());
+    }
+
+    @Test
+    public void ignoresUnchangedState() throws Exception {
+        ComponentMetrics metrics = new ComponentMetrics("c");
+        metrics.stateChanged(ComponentState.ACTIVE);
+        Thread.sleep(10);
+        metrics.stateChanged(ComponentState.ACTIVE);
+        assertEquals(0, metrics.getActiveNanos());
+        metrics.stateChanged(ComponentState.INACTIVE);
+        assertTrue(metrics.getActiveNanos() >= 10 * MILLI);
+    }
+
+    @Test
+    public void snapshotIncludesCurrentState() throws Exception {
+        ComponentMetrics metrics = new ComponentMetrics("c");
+        metrics.stateChanged(ComponentState.ACTIVE);
+        Thread.sleep(10);
+        ComponentMetrics snapshot = metrics.snapshot();
+        assertTrue(snapshot.getActiveNanos() >= 10 * MILLI);
+        assertEquals(0, metrics.getActiveNanos());
+        Thread.sleep(5);
+        assertEquals(snapshot.getActiveNanos(), snapshot.snapshot()
+                .getActiveNanos());
+    }
+}
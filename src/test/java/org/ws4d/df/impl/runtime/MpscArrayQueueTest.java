@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MpscArrayQueueTest {
+
+    @Test
+    public void adaptiveQueueStartsWithInitialCapacity() {
+        MpscArrayQueue queue = new MpscArrayQueue(2, 1024);
+        assertEquals(4, queue.arraySize());
+        assertTrue(queue.offer(0));
+        assertTrue(queue.offer(1));
+        assertFalse(queue.offer(2));
+        assertEquals(4, queue.arraySize());
+    }
+
+    @Test
+    public void growsWhenCapacityRises() {
+        MpscArrayQueue queue = new MpscArrayQueue(2, 1000);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(i);
+            queue.poll();
+        }
+        queue.setCapacity(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(1000));
+        assertEquals(1024, queue.arraySize());
+        assertEquals(1000, queue.size());
+        assertEquals(999, queue.toArray()[999]);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void growsForBatches() {
+        MpscArrayQueue queue = new MpscArrayQueue(4, 64);
+        Object[] packets = new Object[40];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = i;
+        }
+        assertEquals(2, queue.offer(packets, 0, 2));
+        queue.setCapacity(64);
+        assertEquals(38, queue.offer(packets, 2, 38));
+        assertEquals(64, queue.arraySize());
+        assertArrayEquals(packets, queue.toArray());
+        for (int i = 0; i < packets.length; i++) {
+            assertEquals(i, queue.poll());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void fixedQueueRejectsCapacityChange() {
+        new MpscArrayQueue(8).setCapacity(4);
+    }
+
+    @Test
+    public void keepsOrderPerProducerWhileConsumerChangesCapacity()
+            throws Exception {
+        final MpscArrayQueue queue = new MpscArrayQueue(1, 4096);
+        final int producers = 3;
+        final int count = 200000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+
+                public void run() {
+                    Object[] batch = new Object[5];
+                    int next = 0;
+                    while (next < count) {
+                        int queued;
+                        if ((next & 1) == 0) {
+                            queued = queue.offer(new int[] { producer, next }) ? 1
+                                    : 0;
+                        } else {
+                            int length = Math.min(batch.length, count - next);
+                            for (int i = 0; i < length; i++) {
+                                batch[i] = new int[] { producer, next + i };
+                            }
+                            queued = queue.offer(batch, 0, length);
+                        }
+                        if (queued == 0) {
+                            Thread.yield();
+                        }
+                        next += queued;
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        int[] expected = new int[producers];
+        int capacity = 1;
+        for (int received = 0; received < producers * count;) {
+            int[] packet = (int[]) queue.poll();
+            if (packet == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(expected[packet[0]]++, packet[1]);
+            if ((++received & 1023) == 0) {
+                capacity = capacity == 4096 ? 1 : capacity * 2;
+                queue.setCapacity(capacity);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void wrapsAroundFixedArray() {
+        MpscArrayQueue queue = new MpscArrayQueue(5);
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 20; round++) {
+            while (queue.offer(next)) {
+                next++;
+            }
+            assertEquals(5, queue.size());
+            assertEquals(expected, queue.toArray()[0]);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(expected++, queue.poll());
+            }
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(expected++, queue.poll());
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    public void respectsFullAndEmptyBoundaries() {
+        MpscArrayQueue queue = new MpscArrayQueue(4);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertEquals(0, queue.drainTo(new ArrayList<Object>(), 10));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(0, queue.offer(new Object[] { 4 }, 0, 1));
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertTrue(queue.offer(5));
+        assertEquals(5, queue.poll());
+    }
+
+    @Test
+    public void offersAndDrainsPartialBatches() {
+        MpscArrayQueue queue = new MpscArrayQueue(6);
+        Object[] packets = new Object[10];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = i;
+        }
+        assertEquals(4, queue.offer(packets, 0, 4));
+        assertEquals(2, queue.offer(packets, 4, 6));
+        List<Object> drained = new ArrayList<Object>();
+        assertEquals(3, queue.drainTo(drained, 3));
+        // the next batch wraps around the end of the array
+        assertEquals(3, queue.offer(packets, 6, 4));
+        assertEquals(6, queue.drainTo(drained, 100));
+        assertEquals(0, queue.drainTo(drained, 100));
+        assertArrayEquals(new Object[] { 0, 1, 2, 3, 4, 5, 6, 7, 8 },
+                drained.toArray());
+    }
+
+    @Test
+    public void keepsOrderPerProducerOnFixedQueue() throws Exception {
+        final MpscArrayQueue queue = new MpscArrayQueue(3);
+        final int producers = 4;
+        final int count = 50000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+
+                public void run() {
+                    Object[] batch = new Object[4];
+                    int next = 0;
+                    while (next < count) {
+                        int length = Math.min(1 + (next & 3), count - next);
+                        for (int i = 0; i < length; i++) {
+                            batch[i] = new int[] { producer, next + i };
+                        }
+                        int queued = queue.offer(batch, 0, length);
+                        if (queued == 0) {
+                            Thread.yield();
+                        }
+                        next += queued;
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        int[] expected = new int[producers];
+        List<Object> drained = new ArrayList<Object>();
+        for (int received = 0; received < producers * count;) {
+            drained.clear();
+            if (queue.drainTo(drained, 2) == 0) {
+                Thread.yield();
+                continue;
+            }
+            for (Object packet : drained) {
+                int[] values = (int[]) packet;
+                assertEquals(expected[values[0]]++, values[1]);
+                received++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class PacketPoolTest {
+
+    public static class Packet implements Recyclable {
+
+        int value;
+
+        public void recycle() {
+            value = 0;
+        }
+    }
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            out.get("out").close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        public void execute() {
+            in.get("in").receive();
+        }
+    }
+
+    @Test
+    public void reusesReleasedPackets() {
+        PacketPool pool = new PacketPool(4, false);
+        Packet packet = pool.acquire(Packet.class);
+        packet.value = 42;
+        pool.release(packet);
+        Packet reused = pool.acquire(Packet.class);
+        assertSame(packet, reused);
+        assertEquals(0, reused.value);
+        assertNotSame(reused, pool.acquire(Packet.class));
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void discardsBeyondMaximum() {
+        PacketPool pool = new PacketPool(1, false);
+        Packet first = pool.acquire(Packet.class);
+        Packet second = pool.acquire(Packet.class);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getDiscards());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleReleaseInDebugMode() {
+        PacketPool pool = new PacketPool(4, true);
+        Packet packet = pool.acquire(Packet.class);
+        pool.release(packet);
+        pool.release(packet);
+    }
+
+    @Test
+    public void rejectsBroadcastConnections() throws Exception {
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.setPacketPoolEnabled(true);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("a", Sink.class);
+        builder.addComponent("b", Sink.class);
+        builder.connect("s", "out", "a", "in", ConnectionType.BROADCAST);
+        builder.connect("s", "out", "b", "in", ConnectionType.BROADCAST);
+        try {
+            builder.buildNetwork();
+            fail("network with broadcast connection built");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("broadcast"));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PrimitiveRingBufferTest {
+
+    @Test
+    public void wrapsAroundArray() {
+        PrimitiveRingBuffer queue = new PrimitiveRingBuffer(long.class, 3);
+        long next = 0;
+        long expected = 0;
+        for (int round = 0; round < 20; round++) {
+            while (queue.offerLong(next)) {
+                next++;
+            }
+            assertEquals(3, queue.size());
+            assertEquals(expected, queue.toArray()[0]);
+            for (int i = 0; i < 2; i++) {
+                assertEquals(expected++, queue.pollLong());
+            }
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(expected++, queue.pollLong());
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    public void respectsFullAndEmptyBoundaries() {
+        PrimitiveRingBuffer queue = new PrimitiveRingBuffer(int.class, 3);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertEquals(0, queue.drainTo(new long[4], 0, 4));
+        assertEquals(0, queue.drainTo(new ArrayList<Object>(), 4));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offerLong(i));
+        }
+        assertFalse(queue.offerLong(3));
+        assertFalse(queue.offer(3));
+        assertEquals(0, queue.offer(new Object[] { 3 }, 0, 1));
+        assertEquals(0, queue.pollLong());
+        assertTrue(queue.offerLong(3));
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.offerLong(4));
+        assertEquals(Integer.valueOf(4), queue.poll());
+    }
+
+    @Test
+    public void offersAndDrainsBatches() {
+        PrimitiveRingBuffer queue = new PrimitiveRingBuffer(long.class, 6);
+        Object[] packets = new Object[] { 0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L };
+        assertEquals(4, queue.offer(packets, 0, 4));
+        assertEquals(2, queue.offer(packets, 4, 4));
+        long[] values = new long[8];
+        assertEquals(3, queue.drainTo(values, 1, 3));
+        assertArrayEquals(new long[] { 0, 0, 1, 2, 0, 0, 0, 0 }, values);
+        assertEquals(2, queue.offer(packets, 6, 2));
+        List<Object> drained = new ArrayList<Object>();
+        assertEquals(2, queue.drainTo(drained, 2));
+        assertEquals(3, queue.drainTo(values, 0, 8));
+        assertArrayEquals(new Object[] { 3L, 4L }, drained.toArray());
+        assertArrayEquals(new long[] { 5, 6, 7, 2, 0, 0, 0, 0 }, values);
+    }
+
+    @Test
+    public void boxesValuesOfItsType() {
+        PrimitiveRingBuffer ints = new PrimitiveRingBuffer(int.class, 4);
+        ints.offer(Long.valueOf(5));
+        ints.offer(Double.valueOf(6.7));
+        assertEquals(Integer.valueOf(5), ints.poll());
+        assertEquals(Integer.valueOf(6), ints.poll());
+
+        PrimitiveRingBuffer doubles = new PrimitiveRingBuffer(double.class, 4);
+        doubles.offer(Double.valueOf(1.5));
+        doubles.offer(Integer.valueOf(2));
+        assertTrue(doubles.offerLong(doubles.encode(-0.25)));
+        assertEquals(Double.valueOf(1.5), doubles.poll());
+        assertEquals(2.0, doubles.decodeDouble(doubles.pollLong()), 0.0);
+        assertEquals(Double.valueOf(-0.25), doubles.toArray()[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsObjectType() {
+        new PrimitiveRingBuffer(String.class, 4);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectsCapacityChange() {
+        new PrimitiveRingBuffer(long.class, 4).setCapacity(8);
+    }
+
+    @Test
+    public void keepsOrderBetweenThreads() throws Exception {
+        final PrimitiveRingBuffer queue = new PrimitiveRingBuffer(long.class, 5);
+        final int count = 500000;
+        Thread producer = new Thread() {
+
+            public void run() {
+                long next = 0;
+                while (next < count) {
+                    if (queue.offerLong(next)) {
+                        next++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+        long[] values = new long[3];
+        long expected = 0;
+        while (expected < count) {
+            int drained = queue.drainTo(values, 0, values.length);
+            if (drained == 0) {
+                Thread.yield();
+            }
+            for (int i = 0; i < drained; i++) {
+                assertEquals(expected++, values[i]);
+            }
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+    }
+}
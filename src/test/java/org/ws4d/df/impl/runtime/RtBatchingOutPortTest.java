@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class RtBatchingOutPortTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        static volatile boolean fullBatchSeen;
+        static volatile boolean partialBatchHeld;
+
+        public void execute() {
+            for (int i = 0; i < 4; i++) {
+                out.get("out").send(i);
+            }
+            // a full batch is handed over at once
+            fullBatchSeen = awaitReceived(4);
+            out.get("out").send(4);
+            // without an interval the partial batch waits for the close
+            partialBatchHeld = !awaitReceived(5, TimeUnit.MILLISECONDS
+                    .toNanos(50));
+            out.get("out").close();
+        }
+    }
+
+    @Ports(out = "out", active = true)
+    public static class TimedSource extends TestComponent {
+
+        static volatile boolean flushedInTime;
+
+        public void execute() {
+            out.get("out").send(0);
+            flushedInTime = awaitReceived(1);
+            out.get("out").close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final List<Object> received = new CopyOnWriteArrayList<Object>();
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                received.add(packet);
+            }
+        }
+    }
+
+    @Test
+    public void flushesFullBatchesAndPartialBatchOnClose() throws Exception {
+        Sink.received.clear();
+        Network network = build(Source.class, 4, 0);
+        network.start();
+        assertTrue(Source.fullBatchSeen);
+        assertTrue(Source.partialBatchHeld);
+        assertEquals(5, Sink.received.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, Sink.received.get(i));
+        }
+        network.terminate();
+    }
+
+    @Test
+    public void flushesStaleBatchWhileNetworkRuns() throws Exception {
+        Sink.received.clear();
+        Network network = build(TimedSource.class, 100, 1000);
+        // the flusher thread only exists while the network runs
+        assertFalse(flusherRunning());
+        for (int run = 0; run < 3; run++) {
+            Sink.received.clear();
+            TimedSource.flushedInTime = false;
+            network.start();
+            assertTrue(TimedSource.flushedInTime);
+            assertEquals(1, Sink.received.size());
+            assertTrue(awaitFlusherStopped());
+        }
+        network.terminate();
+        assertTrue(awaitFlusherStopped());
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static Network build(Class<?> sourceClass, int batchSize,
+            long flushMicros) throws Exception {
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("s", sourceClass);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "k", "in");
+        builder.setBatching("s", "out", batchSize, flushMicros);
+        return builder.buildNetwork();
+    }
+
+    private static boolean awaitReceived(int count) {
+        return awaitReceived(count, TIMEOUT_NANOS);
+    }
+
+    private static boolean awaitReceived(int count, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (Sink.received.size() < count) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+
+    private static boolean flusherRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("BatchFlusher-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean awaitFlusherStopped() throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (flusherRunning()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class RtComponentTest {
+
+    private static final int COUNT = 1000;
+
+    /**
+     * Sends until the receiver closes the connection.
+     */
+    @Ports(out = "out", active = true)
+    public static class EndlessSource extends TestComponent {
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < 1000000 && !port.isClosed(); i++) {
+                port.send(i);
+                Thread.yield();
+            }
+            port.close();
+        }
+    }
+
+    /**
+     * Sends in bursts with pauses in between.
+     */
+    @Ports(out = "out", active = true)
+    public static class SlowSource extends TestComponent {
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < COUNT; i++) {
+                port.send(i);
+                if (i % 20 == 0) {
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            port.close();
+        }
+    }
+
+    /**
+     * Never blocks in a receive and closes its in ports itself: "a" after
+     * its first packet, "b" after the last one. Without data it would only be
+     * executed if its in ports were counted wrong.
+     */
+    @Ports(in = { "a", "b" })
+    public static class Merge extends TestComponent {
+
+        static volatile int received;
+        static volatile int idleExecutes;
+
+        public void execute() {
+            InPort a = in.get("a");
+            InPort b = in.get("b");
+            boolean idle = true;
+            if (!a.isClosed() && !a.receiveWouldBlock()) {
+                a.receive();
+                a.close();
+                idle = false;
+            }
+            while (!b.isClosed() && !b.receiveWouldBlock()) {
+                b.receive();
+                idle = false;
+                if (++received == COUNT) {
+                    b.close();
+                }
+            }
+            if (idle) {
+                idleExecutes++;
+            }
+        }
+    }
+
+    @Test
+    public void countsInPortsClosedByReceiver() throws Exception {
+        run(ExecutionMode.THREAD_PER_COMPONENT);
+    }
+
+    @Test
+    public void countsInPortsClosedByReceiverWhenPooled() throws Exception {
+        run(ExecutionMode.POOLED);
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Runs the network several times, so the counters must also be right
+     * after a reset.
+     */
+    private static void run(ExecutionMode executionMode) throws Exception {
+        NetworkBuilderImpl builder = TestComponents.newBuilder(executionMode);
+        builder.addComponent("a", EndlessSource.class);
+        builder.addComponent("b", SlowSource.class);
+        builder.addComponent("m", Merge.class);
+        builder.connect("a", "out", "m", "a");
+        builder.connect("b", "out", "m", "b");
+        Network network = builder.buildNetwork();
+        for (int run = 0; run < 3; run++) {
+            Merge.received = 0;
+            Merge.idleExecutes = 0;
+            network.start();
+            assertEquals(COUNT, Merge.received);
+            assertTrue("idle executes: " + Merge.idleExecutes,
+                    Merge.idleExecutes < COUNT / 10);
+        }
+        network.terminate();
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class RtFanOutPortTest {
+
+    private static final int COUNT = 1000;
+    private static final int BATCH = 7;
+    private static final int SINKS = 3;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            BatchOutPort port = (BatchOutPort) out.get("out");
+            Object[] batch = new Object[BATCH];
+            for (int i = 0; i < COUNT; i += BATCH) {
+                int length = Math.min(BATCH, COUNT - i);
+                if (length < BATCH) {
+                    batch = new Object[length];
+                }
+                for (int j = 0; j < length; j++) {
+                    batch[j] = i + j;
+                }
+                port.sendAll(batch);
+            }
+            port.close();
+        }
+    }
+
+    /**
+     * Sends until its port is closed.
+     */
+    @Ports(out = "out", active = true)
+    public static class EndlessSource extends TestComponent {
+
+        static volatile boolean closedByReceiver;
+
+        public void execute() {
+            BatchOutPort port = (BatchOutPort) out.get("out");
+            for (int i = 0; i < 1000000 && !port.isClosed(); i++) {
+                port.send(i);
+                Thread.yield();
+            }
+            closedByReceiver = port.isClosed();
+            port.close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class ClosingSink extends TestComponent {
+
+        public void execute() {
+            if (in.get("in").receive() != null) {
+                in.get("in").close();
+            }
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final List<Sink> sinks = new ArrayList<Sink>();
+
+        final List<Integer> received = new ArrayList<Integer>();
+
+        public Sink() {
+            synchronized (sinks) {
+                sinks.add(this);
+            }
+        }
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                received.add((Integer) packet);
+            }
+        }
+    }
+
+    @Test
+    public void restartsRoundRobinAtFirstTarget() throws Exception {
+        // COUNT is no multiple of SINKS, so the second run starts at
+        // another target unless the position is reset
+        for (List<Integer> received : run(ConnectionType.ROUND_ROBIN, 2)) {
+            int first = received.get(0);
+            assertTrue(first < SINKS);
+            assertEquals((COUNT - first + SINKS - 1) / SINKS, received.size());
+            for (int i = 0; i < received.size(); i++) {
+                assertEquals(first + i * SINKS, received.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void groupsHashPartitionedBatchesPerTarget() throws Exception {
+        List<List<Integer>> received = run(ConnectionType
+                .hashPartitioned(new KeyExtractor() {
+
+                    public Object getKey(Object packet) {
+                        return packet;
+                    }
+                }), 1);
+        int total = 0;
+        for (List<Integer> values : received) {
+            total += values.size();
+            for (int i = 1; i < values.size(); i++) {
+                assertTrue(values.get(i - 1) < values.get(i));
+            }
+        }
+        assertEquals(COUNT, total);
+    }
+
+    @Test
+    public void closesHashPartitionedPortWithFirstClosedInPort()
+            throws Exception {
+        EndlessSource.closedByReceiver = false;
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("s", EndlessSource.class);
+        ConnectionType connectionType = ConnectionType
+                .hashPartitioned(new KeyExtractor() {
+
+                    public Object getKey(Object packet) {
+                        return packet;
+                    }
+                });
+        builder.addComponent("c", ClosingSink.class);
+        builder.connect("s", "out", "c", "in", connectionType);
+        for (int k = 0; k < SINKS; k++) {
+            builder.addComponent("k" + k, Sink.class);
+            builder.connect("s", "out", "k" + k, "in", connectionType);
+        }
+        builder.buildNetwork().startAndTerminate();
+        // the keys of the closed partition would be lost otherwise
+        assertTrue(EndlessSource.closedByReceiver);
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Runs the network the given number of times and returns what each sink
+     * received in the last run, checking that every run delivered the same.
+     */
+    private static List<List<Integer>> run(ConnectionType connectionType,
+            int runs) throws Exception {
+        synchronized (Sink.sinks) {
+            Sink.sinks.clear();
+        }
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("s", Source.class);
+        for (int k = 0; k < SINKS; k++) {
+            builder.addComponent("k" + k, Sink.class);
+            builder.connect("s", "out", "k" + k, "in", connectionType);
+        }
+        Network network = builder.buildNetwork();
+        List<List<Integer>> last = null;
+        for (int run = 0; run < runs; run++) {
+            network.start();
+            List<List<Integer>> received = new ArrayList<List<Integer>>();
+            synchronized (Sink.sinks) {
+                assertEquals(SINKS, Sink.sinks.size());
+                for (Sink sink : Sink.sinks) {
+                    received.add(new ArrayList<Integer>(sink.received));
+                    sink.received.clear();
+                }
+            }
+            if (last != null) {
+                assertEquals(last, received);
+            }
+            last = received;
+        }
+        network.terminate();
+        return last;
+    }
+}
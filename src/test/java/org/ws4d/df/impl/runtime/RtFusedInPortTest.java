@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class RtFusedInPortTest {
+
+    private static final int COUNT = 100;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < COUNT; i++) {
+                port.send(i);
+            }
+            port.close();
+        }
+    }
+
+    /**
+     * Reads twice per execute, the second read finds no packet.
+     */
+    @Fusible
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final List<Integer> received = new ArrayList<Integer>();
+        static volatile boolean fused;
+        static volatile boolean secondReadEmpty = true;
+        static volatile boolean progressed = true;
+
+        public void execute() {
+            InPort port = in.get("in");
+            fused = port instanceof RtFusedInPort;
+            Object packet = port.receive();
+            if (packet != null) {
+                received.add((Integer) packet);
+                progressed &= !((RtInPort) port).getReceiver().isPausable();
+                secondReadEmpty &= port.receive() == null;
+            }
+        }
+    }
+
+    @Test
+    public void returnsNullOnSecondRead() throws Exception {
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.setFusionEnabled(true);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "k", "in");
+        Network network = builder.buildNetwork();
+        for (int run = 0; run < 2; run++) {
+            Sink.received.clear();
+            network.start();
+            assertTrue(Sink.fused);
+            assertEquals(COUNT, Sink.received.size());
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(i, Sink.received.get(i).intValue());
+            }
+        }
+        network.terminate();
+        assertTrue(Sink.secondReadEmpty);
+        // receives are accounted at the receiver like those of queued ports
+        assertTrue(Sink.progressed);
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ws4d.df.api.comp.InPort;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class RtInPortTest {
+
+    private static final int COUNT = 1000;
+    private static final int BATCH = 10;
+    private static final int CAPACITY = 4;
+    private static final int DRAIN = 3;
+    private static final int SENDERS = 3;
+
+    /**
+     * Sends every third packet alone and the others in batches larger than
+     * the capacity of the in port.
+     */
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            BatchOutPort port = (BatchOutPort) out.get("out");
+            List<Object> batch = new ArrayList<Object>();
+            for (int i = 0; i < COUNT; i++) {
+                if (i % 3 == 0) {
+                    port.sendAll(batch);
+                    batch.clear();
+                    port.send(i);
+                } else {
+                    batch.add(i);
+                    if (batch.size() == BATCH) {
+                        port.sendAll(batch.toArray());
+                        batch.clear();
+                    }
+                }
+            }
+            port.sendAll(batch);
+            port.close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final List<Object> received = new ArrayList<Object>();
+        static volatile int largestDrain;
+
+        public void execute() {
+            List<Object> packets = new ArrayList<Object>();
+            int count = ((BatchInPort) in.get("in")).drainTo(packets, DRAIN);
+            assertEquals(count, packets.size());
+            largestDrain = Math.max(largestDrain, count);
+            received.addAll(packets);
+        }
+    }
+
+    /**
+     * One of several senders to the same in port. The n-th instance sends n
+     * times COUNT packets of the form {n, sequence number}, so the first one
+     * closes right away.
+     */
+    @Ports(out = "out", active = true)
+    public static class FanInSource extends TestComponent {
+
+        static final AtomicInteger instances = new AtomicInteger();
+
+        private final int id = instances.getAndIncrement();
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < id * COUNT; i++) {
+                port.send(new int[] { id, i });
+                if (i % 100 == 0) {
+                    Thread.yield();
+                }
+            }
+            port.close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class FanInSink extends TestComponent {
+
+        static final List<List<Integer>> received = new ArrayList<List<Integer>>();
+
+        public void execute() {
+            int[] packet = (int[]) in.get("in").receive();
+            if (packet != null) {
+                received.get(packet[0]).add(packet[1]);
+            }
+        }
+    }
+
+    /**
+     * Sends until its port is closed.
+     */
+    @Ports(out = "out", active = true)
+    public static class EndlessSource extends TestComponent {
+
+        static final AtomicInteger closedByReceiver = new AtomicInteger();
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < 1000000 && !port.isClosed(); i++) {
+                port.send(i);
+                Thread.yield();
+            }
+            if (port.isClosed()) {
+                closedByReceiver.incrementAndGet();
+            }
+            port.close();
+        }
+    }
+
+    @Ports(in = "in")
+    public static class ClosingSink extends TestComponent {
+
+        public void execute() {
+            InPort port = in.get("in");
+            if (port.receive() != null) {
+                port.close();
+            }
+        }
+    }
+
+    @Test
+    public void keepsOrderOfBatches() throws Exception {
+        run(ExecutionMode.THREAD_PER_COMPONENT);
+    }
+
+    @Test
+    public void keepsOrderOfBatchesWhenPooled() throws Exception {
+        run(ExecutionMode.POOLED);
+    }
+
+    @Test
+    public void closesAfterLastOfSeveralSenders() throws Exception {
+        FanInSource.instances.set(0);
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("k", FanInSink.class);
+        for (int i = 0; i < SENDERS; i++) {
+            builder.addComponent("s" + i, FanInSource.class);
+            builder.connect("s" + i, "out", "k", "in");
+        }
+        builder.setCapacity("k", "in", CAPACITY);
+        Network network = builder.buildNetwork();
+        for (int run = 0; run < 2; run++) {
+            FanInSink.received.clear();
+            for (int i = 0; i < SENDERS; i++) {
+                FanInSink.received.add(new ArrayList<Integer>());
+            }
+            network.start();
+            for (int id = 0; id < SENDERS; id++) {
+                List<Integer> received = FanInSink.received.get(id);
+                assertEquals(id * COUNT, received.size());
+                for (int i = 0; i < received.size(); i++) {
+                    assertEquals(i, received.get(i).intValue());
+                }
+            }
+        }
+        network.terminate();
+    }
+
+    @Test
+    public void closesEverySenderWhenClosed() throws Exception {
+        EndlessSource.closedByReceiver.set(0);
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.THREAD_PER_COMPONENT);
+        builder.addComponent("k", ClosingSink.class);
+        for (int i = 0; i < SENDERS; i++) {
+            builder.addComponent("s" + i, EndlessSource.class);
+            builder.connect("s" + i, "out", "k", "in");
+        }
+        builder.buildNetwork().startAndTerminate();
+        assertEquals(SENDERS, EndlessSource.closedByReceiver.get());
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static void run(ExecutionMode executionMode) throws Exception {
+        Sink.received.clear();
+        Sink.largestDrain = 0;
+        NetworkBuilderImpl builder = TestComponents.newBuilder(executionMode);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "k", "in");
+        builder.setCapacity("k", "in", CAPACITY);
+        builder.buildNetwork().startAndTerminate();
+        assertEquals(COUNT, Sink.received.size());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i, ((Integer) Sink.received.get(i)).intValue());
+        }
+        assertTrue(Sink.largestDrain <= DRAIN);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class RtNetworkTest {
+
+    private static final int COUNT = 10;
+    private static final int RUNS = 100;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < COUNT; i++) {
+                port.send(i);
+            }
+            port.close();
+        }
+    }
+
+    @Ports(in = "in", out = "out")
+    public static class Relay extends TestComponent {
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                out.get("out").send(packet);
+            } else {
+                out.get("out").close();
+            }
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final AtomicInteger received = new AtomicInteger();
+
+        public void execute() {
+            if (in.get("in").receive() != null) {
+                received.incrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void restartsRepeatedly() throws Exception {
+        RtNetwork network = build(ExecutionMode.THREAD_PER_COMPONENT, 3);
+        int threads = 0;
+        for (int run = 0; run < RUNS; run++) {
+            start(network, 3);
+            if (run == 0) {
+                threads = Thread.activeCount();
+            }
+        }
+        // the component threads are kept for the next run
+        assertTrue(Thread.activeCount() <= threads);
+        network.terminate();
+    }
+
+    @Test
+    public void restartsRepeatedlyWhenPooled() throws Exception {
+        RtNetwork network = build(ExecutionMode.POOLED, 3);
+        for (int run = 0; run < RUNS; run++) {
+            start(network, 3);
+        }
+        network.terminate();
+    }
+
+    @Test
+    public void restartsLargeNetwork() throws Exception {
+        // enough components to reset them in slices if the pool has several
+        // workers
+        RtNetwork network = build(ExecutionMode.POOLED, 100);
+        for (int run = 0; run < 10; run++) {
+            start(network, 100);
+        }
+        network.terminate();
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * Builds the given number of pipelines made of a source, a relay and a
+     * sink.
+     */
+    private static RtNetwork build(ExecutionMode executionMode,
+            int pipelines) throws Exception {
+        NetworkBuilderImpl builder = TestComponents.newBuilder(executionMode);
+        for (int i = 0; i < pipelines; i++) {
+            builder.addComponent("s" + i, Source.class);
+            builder.addComponent("r" + i, Relay.class);
+            builder.addComponent("k" + i, Sink.class);
+            builder.connect("s" + i, "out", "r" + i, "in");
+            builder.connect("r" + i, "out", "k" + i, "in");
+        }
+        return (RtNetwork) builder.buildNetwork();
+    }
+
+    private static void start(RtNetwork network, int pipelines)
+            throws Exception {
+        Sink.received.set(0);
+        network.start();
+        assertEquals(pipelines * COUNT, Sink.received.get());
+        for (RtComponent rtComponent : network.getRtComponents().values()) {
+            assertTrue(rtComponent.isCloseReported());
+        }
+    }
+}
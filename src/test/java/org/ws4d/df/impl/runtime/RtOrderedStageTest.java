@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class RtOrderedStageTest {
+
+    private static final int COUNT = 1001;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            for (int i = 0; i < COUNT; i++) {
+                out.get("out").send(i);
+            }
+            out.get("out").close();
+        }
+    }
+
+    /**
+     * Takes a packet dependent time, so the workers finish out of order.
+     */
+    @Stateless
+    @Ports(in = "in", out = "out")
+    public static class Worker extends TestComponent {
+
+        static volatile int closeAt = -1;
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet == null) {
+                out.get("out").close();
+                return;
+            }
+            int value = (Integer) packet;
+            long spin = 0;
+            for (int i = 0; i < value * 7919 % 3000; i++) {
+                spin += i;
+            }
+            if (spin == -1) {
+                return;
+            }
+            if (value == closeAt) {
+                // close with packets queued, so that some are dropped
+                while (((RtInPort) in.get("in")).getPacketCount() == 0) {
+                    Thread.yield();
+                }
+                in.get("in").close();
+            }
+            out.get("out").send(packet);
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final List<Integer> received = new ArrayList<Integer>();
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                synchronized (received) {
+                    received.add((Integer) packet);
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void keepsOrderAcrossRestartsThreaded() throws Exception {
+        keepsOrderAcrossRestarts(ExecutionMode.THREAD_PER_COMPONENT);
+    }
+
+    @Test(timeout = 60000)
+    public void keepsOrderAcrossRestartsPooled() throws Exception {
+        keepsOrderAcrossRestarts(ExecutionMode.POOLED);
+    }
+
+    @Test(timeout = 60000)
+    public void keepsOrderWhenWorkerClosesInPort() throws Exception {
+        Worker.closeAt = 100;
+        try {
+            Network network = build(ExecutionMode.THREAD_PER_COMPONENT);
+            network.startAndTerminate();
+            List<Integer> received = received();
+            assertTrue(received.contains(100));
+            assertTrue(received.size() < COUNT);
+            assertIncreasing(received);
+        } finally {
+            Worker.closeAt = -1;
+        }
+    }
+
+    @Test
+    public void dropsPacketOutsideWindow() throws Exception {
+        RtOrderedStage stage = new RtOrderedStage(new RtNetwork("n"), "w", 2,
+                2);
+        assertTrue(stage.appending(0));
+        assertTrue(stage.appending(1));
+        // the wait for the window ends without the window moving on
+        Thread.currentThread().interrupt();
+        assertFalse(stage.appending(0));
+        assertTrue(Thread.interrupted());
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static void keepsOrderAcrossRestarts(ExecutionMode executionMode)
+            throws Exception {
+        Network network = build(executionMode);
+        for (int run = 0; run < 3; run++) {
+            network.start();
+            List<Integer> received = received();
+            assertEquals(COUNT, received.size());
+            assertIncreasing(received);
+        }
+        network.terminate();
+    }
+
+    private static Network build(ExecutionMode executionMode)
+            throws Exception {
+        synchronized (Sink.received) {
+            Sink.received.clear();
+        }
+        NetworkBuilderImpl builder = TestComponents.newBuilder(executionMode);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("w", Worker.class);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "w", "in");
+        builder.connect("w", "out", "k", "in");
+        builder.setParallelism("w", 4, true);
+        return builder.buildNetwork();
+    }
+
+    private static List<Integer> received() {
+        synchronized (Sink.received) {
+            List<Integer> received = new ArrayList<Integer>(Sink.received);
+            Sink.received.clear();
+            return received;
+        }
+    }
+
+    private static void assertIncreasing(List<Integer> values) {
+        for (int i = 1; i < values.size(); i++) {
+            assertTrue("out of order at " + i, values.get(i - 1) < values
+                    .get(i));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+public class RtSchedulerTest {
+
+    @Test
+    public void blockedWorkersGetSpareWorkers() throws Exception {
+        final int tasks = 8;
+        RtScheduler scheduler = new RtScheduler(1);
+        final Queue<Thread> parked = new ConcurrentLinkedQueue<Thread>();
+        final CountDownLatch arrived = new CountDownLatch(tasks);
+        final CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            scheduler.execute(new Runnable() {
+
+                public void run() {
+                    parked.add(Thread.currentThread());
+                    arrived.countDown();
+                    try {
+                        // each task waits until all of them run at once
+                        while (arrived.getCount() > 0) {
+                            RtScheduler.park(this);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (Thread thread : parked) {
+                        LockSupport.unpark(thread);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // the last ones to wake up shrink the spare workers again
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (scheduler.getSpareWorkers() > 2
+                && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(scheduler.getSpareWorkers() <= 2);
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void keepsSpareWorkerForRepeatedBlocking() throws Exception {
+        final RtScheduler scheduler = new RtScheduler(1);
+        final int[] spare = new int[2];
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        LockSupport.unpark(Thread.currentThread());
+                        RtScheduler.park(this);
+                        spare[0] = Math.max(spare[0], scheduler
+                                .getSpareWorkers());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                spare[1] = scheduler.getSpareWorkers();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, spare[0]);
+        assertEquals(1, spare[1]);
+        scheduler.shutdown();
+    }
+}
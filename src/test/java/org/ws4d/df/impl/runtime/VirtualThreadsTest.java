@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class VirtualThreadsTest {
+
+    private static final int COUNT = 1000;
+    private static final int STAGES = 50;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < COUNT; i++) {
+                port.send(i);
+            }
+            port.close();
+        }
+    }
+
+    @Ports(in = "in", out = "out")
+    public static class Relay extends TestComponent {
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                out.get("out").send(packet);
+            } else {
+                out.get("out").close();
+            }
+        }
+    }
+
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final List<Object> received = new ArrayList<Object>();
+        static volatile boolean virtual = true;
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                received.add(packet);
+                virtual &= Thread.currentThread().getClass().getName()
+                        .contains("Virtual");
+            }
+        }
+    }
+
+    @Test
+    public void runsNetworkToCompletion() throws Exception {
+        Assume.assumeTrue(VirtualThreads.isSupported());
+        Sink.virtual = true;
+        Network network = newBuilder().buildNetwork();
+        for (int run = 0; run < 2; run++) {
+            Sink.received.clear();
+            network.start();
+            assertEquals(COUNT, Sink.received.size());
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(i, ((Integer) Sink.received.get(i)).intValue());
+            }
+        }
+        network.terminate();
+        assertTrue(Sink.virtual);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectsNetworkWithoutVirtualThreads() throws Exception {
+        Assume.assumeTrue(!VirtualThreads.isSupported());
+        newBuilder().buildNetwork();
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    /**
+     * A pipeline of more stages than there are carrier threads, so blocked
+     * components must release them.
+     */
+    private static NetworkBuilderImpl newBuilder() throws Exception {
+        NetworkBuilderImpl builder = TestComponents
+                .newBuilder(ExecutionMode.VIRTUAL_THREADS);
+        builder.addComponent("s", Source.class);
+        String sender = "s";
+        for (int i = 0; i < STAGES; i++) {
+            builder.addComponent("r" + i, Relay.class);
+            builder.connect(sender, "out", "r" + i, "in");
+            builder.setCapacity("r" + i, "in", 1);
+            sender = "r" + i;
+        }
+        builder.addComponent("k", Sink.class);
+        builder.connect(sender, "out", "k", "in");
+        return builder;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2014 PipesBox UG (haftungsbeschränkt) (elmar.zeeb@pipesbox.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ws4d.df.impl.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.ws4d.df.api.comp.OutPort;
+import org.ws4d.df.api.network.Network;
+import org.ws4d.df.impl.NetworkBuilderImpl;
+import org.ws4d.df.impl.TestComponents;
+import org.ws4d.df.impl.TestComponents.Ports;
+import org.ws4d.df.impl.TestComponents.TestComponent;
+
+public class WaitStrategyTest {
+
+    private static final int COUNT = 2000;
+
+    @Ports(out = "out", active = true)
+    public static class Source extends TestComponent {
+
+        public void execute() {
+            OutPort port = out.get("out");
+            for (int i = 0; i < COUNT; i++) {
+                port.send(i);
+            }
+            port.close();
+        }
+    }
+
+    @Ports(in = "in", out = "out")
+    public static class Relay extends TestComponent {
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                out.get("out").send(packet);
+            } else {
+                out.get("out").close();
+            }
+        }
+    }
+
+    /**
+     * Falls behind now and then, so the senders wait for space.
+     */
+    @Ports(in = "in")
+    public static class Sink extends TestComponent {
+
+        static final List<Object> received = new ArrayList<Object>();
+
+        public void execute() {
+            Object packet = in.get("in").receive();
+            if (packet != null) {
+                received.add(packet);
+                if (received.size() % 200 == 0) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deliversUnderBackpressure() throws Exception {
+        for (ExecutionMode executionMode : new ExecutionMode[] {
+                ExecutionMode.THREAD_PER_COMPONENT, ExecutionMode.POOLED }) {
+            for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+                NetworkBuilderImpl builder = newBuilder(executionMode);
+                builder.setRuntimeProperty(WaitStrategy.RUNTIME_PROPERTY,
+                        waitStrategy.name());
+                run(builder.buildNetwork());
+            }
+        }
+    }
+
+    @Test
+    public void deliversWithStrategyPerConnection() throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            NetworkBuilderImpl builder = newBuilder(
+                    ExecutionMode.THREAD_PER_COMPONENT);
+            builder.setWaitStrategy("r", "in", waitStrategy);
+            builder.setWaitStrategy("k", "in", WaitStrategy.BLOCKING);
+            run(builder.buildNetwork());
+        }
+    }
+
+    @Test
+    public void convertsProperty() {
+        assertSame(WaitStrategy.BLOCKING, WaitStrategy.fromProperty(null));
+        assertSame(WaitStrategy.BUSY_SPIN,
+                WaitStrategy.fromProperty(" busy_spin "));
+        assertSame(WaitStrategy.SPIN_YIELD_PARK,
+                WaitStrategy.fromProperty(WaitStrategy.SPIN_YIELD_PARK));
+        assertSame(WaitStrategy.SPIN_YIELD_PARK, WaitStrategy.BUSY_SPIN
+                .forExecutionMode(ExecutionMode.POOLED));
+    }
+
+    // -------------------------------------------------------------------------
+    // private
+    // -------------------------------------------------------------------------
+
+    private static void run(Network network) throws Exception {
+        for (int run = 0; run < 2; run++) {
+            Sink.received.clear();
+            network.start();
+            assertEquals(COUNT, Sink.received.size());
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(i, ((Integer) Sink.received.get(i)).intValue());
+            }
+        }
+        network.terminate();
+    }
+
+    private static NetworkBuilderImpl newBuilder(ExecutionMode executionMode)
+            throws Exception {
+        NetworkBuilderImpl builder = TestComponents.newBuilder(executionMode);
+        builder.addComponent("s", Source.class);
+        builder.addComponent("r", Relay.class);
+        builder.addComponent("k", Sink.class);
+        builder.connect("s", "out", "r", "in");
+        builder.connect("r", "out", "k", "in");
+        builder.setCapacity("r", "in", 1);
+        builder.setCapacity("k", "in", 1);
+        return builder;
+    }
+}